@@ -0,0 +1,112 @@
+package com.structurizr.onpremises.web;
+
+import com.structurizr.onpremises.workspace.WorkspaceComponentConfiguration;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * Reads the configuration parameters from (in order) JNDI environment entries, system properties and environment variables.
+ */
+public class Configuration {
+
+    public String getDataDirectory() {
+        return getConfigurationParameter("structurizr/dataDirectory", "structurizr.dataDirectory", "STRUCTURIZR_DATA_DIRECTORY", "/usr/local/structurizr");
+    }
+
+    public long getWorkspaceCacheSize() {
+        return Long.parseLong(getConfigurationParameter("structurizr/workspaceCacheSize", "structurizr.workspaceCacheSize", "STRUCTURIZR_WORKSPACE_CACHE_SIZE", "67108864"));
+    }
+
+    public boolean isCompressWorkspaces() {
+        return Boolean.parseBoolean(getConfigurationParameter("structurizr/compressWorkspaces", "structurizr.compressWorkspaces", "STRUCTURIZR_COMPRESS_WORKSPACES", "false"));
+    }
+
+    public String getStorage() {
+        return getConfigurationParameter("structurizr/storage", "structurizr.storage", "STRUCTURIZR_STORAGE", "filesystem");
+    }
+
+    public String getDataDirectoryLayout() {
+        return getConfigurationParameter("structurizr/dataDirectoryLayout", "structurizr.dataDirectoryLayout", "STRUCTURIZR_DATA_DIRECTORY_LAYOUT", "flat");
+    }
+
+    public long getWarmUpSize() {
+        return Long.parseLong(getConfigurationParameter("structurizr/warmUpSize", "structurizr.warmUpSize", "STRUCTURIZR_WARM_UP_SIZE", "0"));
+    }
+
+    public String getDataDirectoryWatcher() {
+        return getConfigurationParameter("structurizr/dataDirectoryWatcher", "structurizr.dataDirectoryWatcher", "STRUCTURIZR_DATA_DIRECTORY_WATCHER", "none");
+    }
+
+    public long getNonceWindow() {
+        return Long.parseLong(getConfigurationParameter("structurizr/nonceWindow", "structurizr.nonceWindow", "STRUCTURIZR_NONCE_WINDOW", "300000"));
+    }
+
+    public int getMaximumConcurrentRequests() {
+        return Integer.parseInt(getConfigurationParameter("structurizr/maximumConcurrentRequests", "structurizr.maximumConcurrentRequests", "STRUCTURIZR_MAXIMUM_CONCURRENT_REQUESTS", "100"));
+    }
+
+    public double getApiKeyRequestsPerSecond() {
+        return Double.parseDouble(getConfigurationParameter("structurizr/apiKeyRequestsPerSecond", "structurizr.apiKeyRequestsPerSecond", "STRUCTURIZR_API_KEY_REQUESTS_PER_SECOND", "0"));
+    }
+
+    public int getApiKeyBurstSize() {
+        return Integer.parseInt(getConfigurationParameter("structurizr/apiKeyBurstSize", "structurizr.apiKeyBurstSize", "STRUCTURIZR_API_KEY_BURST_SIZE", "100"));
+    }
+
+    public double getWorkspaceRequestsPerSecond() {
+        return Double.parseDouble(getConfigurationParameter("structurizr/workspaceRequestsPerSecond", "structurizr.workspaceRequestsPerSecond", "STRUCTURIZR_WORKSPACE_REQUESTS_PER_SECOND", "20"));
+    }
+
+    public int getWorkspaceBurstSize() {
+        return Integer.parseInt(getConfigurationParameter("structurizr/workspaceBurstSize", "structurizr.workspaceBurstSize", "STRUCTURIZR_WORKSPACE_BURST_SIZE", "100"));
+    }
+
+    public long getMaximumWorkspaceSize() {
+        return Long.parseLong(getConfigurationParameter("structurizr/maximumWorkspaceSize", "structurizr.maximumWorkspaceSize", "STRUCTURIZR_MAXIMUM_WORKSPACE_SIZE", "33554432"));
+    }
+
+    public WorkspaceComponentConfiguration getWorkspaceComponentConfiguration() {
+        WorkspaceComponentConfiguration configuration = new WorkspaceComponentConfiguration(getDataDirectory());
+        configuration.setWorkspaceCacheSize(getWorkspaceCacheSize());
+        configuration.setCompressWorkspaces(isCompressWorkspaces());
+        configuration.setStorage(getStorage());
+        configuration.setDataDirectoryLayout(getDataDirectoryLayout());
+        configuration.setWarmUpSize(getWarmUpSize());
+        configuration.setDataDirectoryWatcher(getDataDirectoryWatcher());
+
+        return configuration;
+    }
+
+    private String getConfigurationParameter(String jndiEnvironmentEntryName, String systemPropertyName, String environmentVariableName, String defaultValue) {
+        String value = getEnvironmentEntry(jndiEnvironmentEntryName);
+        if (value == null) {
+            value = getSystemProperty(systemPropertyName);
+            if (value == null) {
+                value = getEnvironmentVariable(environmentVariableName);
+                if (value == null) {
+                    value = defaultValue;
+                }
+            }
+        }
+
+        return value;
+    }
+
+    private String getEnvironmentEntry(String name) {
+        try {
+            return InitialContext.doLookup("java:comp/env/" + name);
+        } catch (NamingException e) {
+            return null;
+        }
+    }
+
+    private String getEnvironmentVariable(String name) {
+        return System.getenv(name);
+    }
+
+    private String getSystemProperty(String name) {
+        return System.getProperty(name);
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.structurizr.onpremises.web;
+
+import com.structurizr.onpremises.workspace.WorkspaceComponent;
+import com.structurizr.onpremises.workspace.WorkspaceComponentException;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Creates the workspace component when the web application starts, so that a single instance (with a single
+ * cache, index and set of background writers) is shared by all of the servlets, and stops it when the web
+ * application is stopped, so that outstanding writes are completed before the process exits.
+ */
+public class WorkspaceComponentListener implements ServletContextListener {
+
+    static final String WORKSPACE_COMPONENT_ATTRIBUTE = WorkspaceComponent.class.getName();
+
+    @Override
+    public void contextInitialized(ServletContextEvent servletContextEvent) {
+        WorkspaceComponent workspaceComponent = WorkspaceComponent.create(new Configuration().getWorkspaceComponentConfiguration());
+
+        try {
+            workspaceComponent.start();
+        } catch (WorkspaceComponentException e) {
+            // the component can still be used, it just hasn't been warmed up
+            e.printStackTrace();
+        }
+
+        servletContextEvent.getServletContext().setAttribute(WORKSPACE_COMPONENT_ATTRIBUTE, workspaceComponent);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        ServletContext servletContext = servletContextEvent.getServletContext();
+        WorkspaceComponent workspaceComponent = getWorkspaceComponent(servletContext);
+        if (workspaceComponent != null) {
+            servletContext.removeAttribute(WORKSPACE_COMPONENT_ATTRIBUTE);
+            workspaceComponent.stop();
+        }
+    }
+
+    /**
+     * Gets the shared workspace component.
+     *
+     * @return  a WorkspaceComponent, or null if the listener hasn't been registered
+     */
+    static WorkspaceComponent getWorkspaceComponent(ServletContext servletContext) {
+        return (WorkspaceComponent)servletContext.getAttribute(WORKSPACE_COMPONENT_ATTRIBUTE);
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.structurizr.onpremises.web.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a request is handled, so that a single client (e.g. a runaway build putting the same workspace
+ * over and over) can't use up all of the request processing threads. There are three limits, any of which can be
+ * disabled by setting it to 0:
+ *
+ *  - the number of requests being handled at once, across all clients
+ *  - a token bucket per workspace
+ *  - a token bucket per API key
+ *
+ * Only the concurrency limit is applied before a request has been authenticated; the token buckets are charged
+ * afterwards, since otherwise any client could use up the tokens of a workspace (or API key) it doesn't have access to.
+ *
+ * None of these take a lock; the concurrency limit is a non-blocking semaphore, and the token buckets are created
+ * on demand and discarded again once they have been full (i.e. unused) for a while.
+ */
+class AdmissionController {
+
+    // how long a client should wait when the concurrency limit has been reached, since there's no way to know when a permit will be free
+    static final long CONCURRENCY_LIMIT_RETRY_AFTER_IN_SECONDS = 1;
+
+    private final Semaphore permits;
+    private final TokenBuckets<String> apiKeyBuckets;
+    private final TokenBuckets<Long> workspaceBuckets;
+
+    AdmissionController(int maximumConcurrentRequests, double apiKeyRequestsPerSecond, int apiKeyBurstSize, double workspaceRequestsPerSecond, int workspaceBurstSize) {
+        this.permits = maximumConcurrentRequests > 0 ? new Semaphore(maximumConcurrentRequests) : null;
+        this.apiKeyBuckets = new TokenBuckets<>(apiKeyRequestsPerSecond, apiKeyBurstSize);
+        this.workspaceBuckets = new TokenBuckets<>(workspaceRequestsPerSecond, workspaceBurstSize);
+    }
+
+    /**
+     * Admits a request, before it has been authenticated, in which case release() must be called once it has been handled.
+     *
+     * @return  0 if the request has been admitted, otherwise the number of seconds after which it can be retried
+     */
+    long tryAdmit() {
+        if (permits != null && !permits.tryAcquire()) {
+            return CONCURRENCY_LIMIT_RETRY_AFTER_IN_SECONDS;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Charges an admitted request to its workspace and API key, once it has been authenticated.
+     *
+     * @param apiKey    the API key the request has been authenticated with, or null if the API key isn't rate limited
+     * @return  0 if the request can be handled, otherwise the number of seconds after which it can be retried
+     */
+    long tryCharge(long workspaceId, String apiKey) {
+        long now = System.nanoTime();
+        long wait = workspaceBuckets.tryTake(workspaceId, now);
+        if (wait == 0 && apiKey != null) {
+            wait = apiKeyBuckets.tryTake(apiKey, now);
+        }
+
+        return toRetryAfter(wait);
+    }
+
+    boolean isApiKeyRateLimited() {
+        return apiKeyBuckets.tokensPerSecond > 0;
+    }
+
+    private static long toRetryAfter(long waitInNanoseconds) {
+        if (waitInNanoseconds > 0) {
+            return Math.max(1, (waitInNanoseconds + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        } else {
+            return 0;
+        }
+    }
+
+    void release() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    private static final class TokenBuckets<K> {
+
+        // the number of buckets above which unused buckets are looked for, at most once per pruning interval
+        private static final int PRUNING_THRESHOLD = 10000;
+        private static final long PRUNING_INTERVAL_IN_NANOSECONDS = TimeUnit.SECONDS.toNanos(1);
+
+        private final double tokensPerSecond;
+        private final int capacity;
+        private final ConcurrentHashMap<K,TokenBucket> buckets = new ConcurrentHashMap<>();
+        private final AtomicLong lastPrunedAt = new AtomicLong(System.nanoTime());
+
+        private TokenBuckets(double tokensPerSecond, int capacity) {
+            this.tokensPerSecond = tokensPerSecond;
+            this.capacity = Math.max(1, capacity);
+        }
+
+        private long tryTake(K key, long now) {
+            if (tokensPerSecond <= 0) {
+                return 0;
+            }
+
+            TokenBucket bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(tokensPerSecond, capacity, now));
+                prune(now);
+            }
+
+            return bucket.tryTake(now);
+        }
+
+        private void prune(long now) {
+            long previous = lastPrunedAt.get();
+            if (buckets.size() > PRUNING_THRESHOLD && now - previous > PRUNING_INTERVAL_IN_NANOSECONDS && lastPrunedAt.compareAndSet(previous, now)) {
+                // a full bucket is no different to a new one, so it can be discarded
+                buckets.values().removeIf(bucket -> bucket.isFull(now));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,9 @@
+package com.structurizr.onpremises.web.api;
+
+class ApiNotFoundError extends ApiMessageResponse {
+
+    ApiNotFoundError(String message) {
+        super(message, 404);
+    }
+
+}
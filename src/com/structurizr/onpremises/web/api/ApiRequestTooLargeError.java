@@ -0,0 +1,9 @@
+package com.structurizr.onpremises.web.api;
+
+class ApiRequestTooLargeError extends ApiMessageResponse {
+
+    ApiRequestTooLargeError(String message) {
+        super(message, 413);
+    }
+
+}
@@ -4,17 +4,23 @@ import com.structurizr.annotation.Component;
 import com.structurizr.annotation.UsedBySoftwareSystem;
 import com.structurizr.onpremises.domain.UUID;
 import com.structurizr.onpremises.web.AbstractServlet;
+import com.structurizr.onpremises.workspace.WorkspaceComponent;
 import com.structurizr.onpremises.workspace.WorkspaceComponentException;
+import com.structurizr.onpremises.workspace.WorkspaceResource;
+import com.structurizr.onpremises.workspace.WorkspaceSummary;
 
-import javax.imageio.ImageIO;
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
 import java.util.Base64;
-import java.util.stream.Collectors;
 
 /**
  * A simple implementation of the Structurizr web API, consisting of two operations to
@@ -27,6 +33,62 @@ import java.util.stream.Collectors;
 @UsedBySoftwareSystem(name = "Structurizr Client", description = "Gets and puts workspaces using")
 public class ApiServlet extends AbstractServlet {
 
+    private NonceReplayCache nonceReplayCache;
+    private AdmissionController admissionController;
+    private long maximumWorkspaceSize;
+    private VerifiedCredentialCache verifiedCredentialCache = new VerifiedCredentialCache();
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+
+        nonceReplayCache = new NonceReplayCache(getConfiguration().getNonceWindow());
+        admissionController = new AdmissionController(
+                getConfiguration().getMaximumConcurrentRequests(),
+                getConfiguration().getApiKeyRequestsPerSecond(),
+                getConfiguration().getApiKeyBurstSize(),
+                getConfiguration().getWorkspaceRequestsPerSecond(),
+                getConfiguration().getWorkspaceBurstSize());
+        maximumWorkspaceSize = getConfiguration().getMaximumWorkspaceSize();
+    }
+
+    /**
+     * Requests (other than CORS preflight requests) are only handled if the admission controller allows them,
+     * and are otherwise rejected with a 429 response, before any of the request is read. The rate limits per workspace
+     * and API key are only applied once a request has been authenticated.
+     */
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if ("OPTIONS".equals(request.getMethod())) {
+            super.service(request, response);
+            return;
+        }
+
+        long retryAfter = admissionController.tryAdmit();
+        if (retryAfter > 0) {
+            addAccessControlAllowHeaders(response);
+            sendTooManyRequests(retryAfter, response);
+            return;
+        }
+
+        try {
+            super.service(request, response);
+        } finally {
+            admissionController.release();
+        }
+    }
+
+    @Override
+    public void setWorkspaceComponent(WorkspaceComponent workspaceComponent) {
+        super.setWorkspaceComponent(workspaceComponent);
+
+        // credentials verified against another component don't apply to this one
+        verifiedCredentialCache = new VerifiedCredentialCache();
+        if (workspaceComponent != null) {
+            workspaceComponent.addInvalidationListener(verifiedCredentialCache::invalidate);
+        }
+    }
+
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         try {
@@ -48,6 +110,7 @@ public class ApiServlet extends AbstractServlet {
                 }
 
                 if (getWorkspaceComponent().createWorkspace(workspaceId, key, secret)) {
+                    verifiedCredentialCache.invalidate(workspaceId);
                     send(new ApiSuccessMessage("The key and secret for workspace " + workspaceId + " have been updated."), response);
                 } else {
                     send(new ApiError("A key and secret pair for workspace " + workspaceId + " already exists."), response);
@@ -69,27 +132,65 @@ public class ApiServlet extends AbstractServlet {
             addAccessControlAllowHeaders(response);
 
             long workspaceId = getWorkspaceId(request, response);
-            if (workspaceId > 0) {
+            if (workspaceId > 0 && isWorkspace(workspaceId, response)) {
                 String resource = getResource(request);
                 if (resource == null) {
-                    if (isAuthorised(workspaceId, "GET", getPath(request, workspaceId), null, true, request, response)) {
-                        String workspaceAsJson = getWorkspaceComponent().getWorkspace(workspaceId);
+                    if (isAuthorised(workspaceId, "GET", getPath(request, workspaceId), null, true, request, response) && isWithinRateLimits(workspaceId, response)) {
+                        response.setHeader("Vary", "Accept-Encoding");
+
+                        // conditional requests are answered from the workspace metadata, without reading the workspace
+                        WorkspaceSummary workspaceSummary = getWorkspaceComponent().getWorkspaceSummary(workspaceId);
+                        if (workspaceSummary != null && workspaceSummary.getHash() != null) {
+                            String etag = getETag(workspaceSummary);
+                            response.setHeader(HttpHeaders.ETAG, etag);
+                            response.setDateHeader(HttpHeaders.LAST_MODIFIED, workspaceSummary.getLastModified());
+                            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+
+                            if (isNotModified(request, etag, workspaceSummary.getLastModified())) {
+                                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                                return;
+                            }
+                        }
 
-                        response.setCharacterEncoding("UTF-8");
-                        response.setContentType("application/json; charset=utf-8");
-                        send(new ApiDataResponse(workspaceAsJson), response);
+                        try (WorkspaceResource workspace = getWorkspaceComponent().getWorkspaceResource(workspaceId)) {
+                            response.setCharacterEncoding("UTF-8");
+                            response.setContentType("application/json; charset=utf-8");
+                            response.setStatus(HttpServletResponse.SC_OK);
+
+                            if (workspace.getContentEncoding() == null) {
+                                send(workspace, response);
+                            } else if (WorkspaceResource.GZIP.equals(workspace.getContentEncoding()) && acceptsGzip(request)) {
+                                // send the compressed bytes as they are stored
+                                response.setHeader("Content-Encoding", WorkspaceResource.GZIP);
+                                send(workspace, response);
+                            } else {
+                                send(workspace.getDecodedInputStream(), response);
+                            }
+                        }
                     }
                 } else {
                     if (isImage(resource)) {
-                        try {
-                            RenderedImage image = getWorkspaceComponent().getImage(workspaceId, resource);
+                        try (WorkspaceResource image = getWorkspaceComponent().getImage(workspaceId, resource)) {
                             if (image != null) {
-                                String fileExtension = resource.substring(resource.lastIndexOf(".")+1);
+                                // images are sent as the bytes that are stored, rather than being decoded and re-encoded
+                                String fileExtension = resource.substring(resource.lastIndexOf(".")+1).toLowerCase();
                                 response.setContentType(getMimeType(fileExtension));
-                                OutputStream out = response.getOutputStream();
-                                ImageIO.write(image, fileExtension, out);
-                                out.close();
+                                response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+
+                                long lastModified = image.getLastModified();
+                                if (lastModified > 0) {
+                                    String etag = "\"" + Long.toHexString(image.getContentLength()) + "-" + Long.toHexString(lastModified) + "\"";
+                                    response.setHeader(HttpHeaders.ETAG, etag);
+                                    response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+                                    if (isNotModified(request, etag, lastModified)) {
+                                        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                                        return;
+                                    }
+                                }
+
                                 response.setStatus(HttpServletResponse.SC_OK);
+                                send(image, response);
                             } else {
                                 response.sendError(HttpServletResponse.SC_NOT_FOUND);
                             }
@@ -107,6 +208,54 @@ public class ApiServlet extends AbstractServlet {
         }
     }
 
+    /**
+     * The ETag is weak because the same workspace may be sent with or without gzip content encoding.
+     */
+    private String getETag(WorkspaceSummary workspaceSummary) {
+        return "W/\"" + workspaceSummary.getVersion() + "-" + workspaceSummary.getHash() + "\"";
+    }
+
+    private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // If-None-Match takes precedence over If-Modified-Since
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || removeWeakIndicator(tag).equals(removeWeakIndicator(etag))) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        try {
+            // HTTP dates only have a resolution of one second
+            long ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private String removeWeakIndicator(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding != null) {
+            for (String encoding : acceptEncoding.split(",")) {
+                String[] parts = encoding.trim().split(";");
+                if (parts[0].trim().equalsIgnoreCase(WorkspaceResource.GZIP)) {
+                    return parts.length == 1 || !parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?");
+                }
+            }
+        }
+
+        return false;
+    }
+
     private boolean isImage(String name) {
         return  name != null && (
                 name.toLowerCase().endsWith(".jpg") ||
@@ -140,13 +289,31 @@ public class ApiServlet extends AbstractServlet {
             addAccessControlAllowHeaders(response);
 
             long workspaceId = getWorkspaceId(request, response);
-            if (workspaceId > 0) {
-                String workspaceAsJson = request.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
+            if (workspaceId > 0 && isWorkspace(workspaceId, response)) {
+                // a workspace that's declared to be too large is rejected before any of it is read
+                if (maximumWorkspaceSize > 0 && getContentLength(request) > maximumWorkspaceSize) {
+                    sendWorkspaceTooLarge(response);
+                    return;
+                }
 
-                if (isAuthorised(workspaceId, "PUT", getPath(request, workspaceId), workspaceAsJson, false, request, response)) {
-                    getWorkspaceComponent().putWorkspace(workspaceId, workspaceAsJson);
+                // the workspace is streamed to a temporary file, and only stored if the request is authorised
+                File file = File.createTempFile("structurizr-workspace-", ".json");
+                try {
+                    String contentMd5;
+                    try (InputStream in = getInputStream(request); OutputStream out = new FileOutputStream(file)) {
+                        contentMd5 = new Md5Digest().generate(in, out);
+                    } catch (RequestTooLargeException e) {
+                        sendWorkspaceTooLarge(response);
+                        return;
+                    }
+
+                    if (isAuthorised(workspaceId, "PUT", getPath(request, workspaceId), contentMd5, false, request, response) && isWithinRateLimits(workspaceId, response)) {
+                        getWorkspaceComponent().putWorkspace(workspaceId, file, contentMd5);
 
-                    send(new ApiSuccessMessage(), response);
+                        send(new ApiSuccessMessage(), response);
+                    }
+                } finally {
+                    Files.deleteIfExists(file.toPath());
                 }
             }
         } catch (Exception e) {
@@ -154,6 +321,56 @@ public class ApiServlet extends AbstractServlet {
         }
     }
 
+    /**
+     * Gets the Content-Length of the request as a long (the servlet API only provides it as an int), or -1 if it's not known.
+     */
+    private long getContentLength(HttpServletRequest request) {
+        String contentLength = request.getHeader(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                // fall back to what the container has parsed
+            }
+        }
+
+        return request.getContentLength();
+    }
+
+    /**
+     * Gets the request body, which fails once more than the maximum workspace size has been read from it.
+     */
+    private InputStream getInputStream(HttpServletRequest request) throws IOException {
+        InputStream in = request.getInputStream();
+
+        return maximumWorkspaceSize > 0 ? new SizeLimitedInputStream(in, maximumWorkspaceSize) : in;
+    }
+
+    private void sendWorkspaceTooLarge(HttpServletResponse response) {
+        send(new ApiRequestTooLargeError("Workspace is larger than the maximum size of " + maximumWorkspaceSize + " bytes"), response);
+    }
+
+    private void sendTooManyRequests(long retryAfter, HttpServletResponse response) {
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+        send(new ApiTooManyRequestsError("Too many requests, please retry after " + retryAfter + " second(s)"), response);
+    }
+
+    /**
+     * Charges an authenticated request to the workspace, and to its API key (the key it has been authenticated with).
+     */
+    private boolean isWithinRateLimits(long workspaceId, HttpServletResponse response) throws WorkspaceComponentException {
+        // the API key is only looked up if it's rate limited
+        String apiKey = admissionController.isApiKeyRateLimited() ? getWorkspaceComponent().getApiKey(workspaceId) : null;
+
+        long retryAfter = admissionController.tryCharge(workspaceId, apiKey);
+        if (retryAfter > 0) {
+            sendTooManyRequests(retryAfter, response);
+            return false;
+        }
+
+        return true;
+    }
+
     private long getWorkspaceId(HttpServletRequest request, HttpServletResponse response) {
         long workspaceId;
         try {
@@ -177,6 +394,19 @@ public class ApiServlet extends AbstractServlet {
         return workspaceId;
     }
 
+    /**
+     * Checks that the workspace exists before anything else is done, so that requests for unknown workspaces
+     * (e.g. from scanners) are rejected without authenticating them or touching the disk.
+     */
+    private boolean isWorkspace(long workspaceId, HttpServletResponse response) throws WorkspaceComponentException {
+        if (getWorkspaceComponent().workspaceExists(workspaceId)) {
+            return true;
+        } else {
+            send(new ApiNotFoundError("Workspace " + workspaceId + " does not exist"), response);
+            return false;
+        }
+    }
+
     private String getResource(HttpServletRequest request) {
         String path = request.getPathInfo().substring(1); // remove the leading / character
         if (path.contains("/")) {
@@ -202,6 +432,37 @@ public class ApiServlet extends AbstractServlet {
         }
     }
 
+    /**
+     * Sends the stored bytes of a workspace or image as they are, with a Content-Length header, by transferring them
+     * straight from the file channel (or cached buffer) to the response, without decoding them into a String.
+     */
+    private void send(WorkspaceResource workspaceResource, HttpServletResponse response) throws IOException {
+        long contentLength = workspaceResource.getContentLength();
+        if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            response.setContentLength((int)contentLength);
+        } else if (contentLength >= 0) {
+            response.setHeader("Content-Length", Long.toString(contentLength));
+        }
+
+        OutputStream out = response.getOutputStream();
+        workspaceResource.transferTo(Channels.newChannel(out));
+        out.flush();
+    }
+
+    private void send(InputStream in, HttpServletResponse response) throws IOException {
+        try {
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.flush();
+        } finally {
+            in.close();
+        }
+    }
+
     private void addAccessControlAllowHeaders(HttpServletResponse response) {
         response.addHeader("Access-Control-Allow-Origin", "*");
         response.addHeader("Access-Control-Allow-Headers", "accept, origin, " +
@@ -212,15 +473,30 @@ public class ApiServlet extends AbstractServlet {
         response.addHeader("Access-Control-Allow-Methods", "GET, PUT");
     }
 
-    private boolean isAuthorised(long workspaceId, String httpMethod, String path, String content, boolean bypassHMacValidation, HttpServletRequest request, HttpServletResponse response) throws Exception {
+    /**
+     * @param contentMd5    the MD5 digest (as a hex string) of the request content, generated as it was received
+     */
+    private boolean isAuthorised(long workspaceId, String httpMethod, String path, String contentMd5, boolean bypassHMacValidation, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        long now = System.currentTimeMillis();
+        VerifiedCredentialCache.VerifiedCredentials verifiedCredentials = verifiedCredentialCache.getVerifiedCredentials(workspaceId);
+
         String key = request.getParameter("key");
         String secret = request.getParameter("secret");
+        if (key != null && secret != null && verifiedCredentials.containsApiKeyAndSecret(key, secret, now)) {
+            return true;
+        }
+
         if (UUID.isUUID(key) && UUID.isUUID(secret) && key.equals(getWorkspaceComponent().getApiKey(workspaceId)) && secret.equals(getWorkspaceComponent().getApiSecret(workspaceId))) {
+            verifiedCredentials.addApiKeyAndSecret(key, secret, now);
             return true;
         }
 
         String authorizationHeaderAsString = request.getHeader(HttpHeaders.AUTHORIZATION);
 
+        if (bypassHMacValidation && verifiedCredentials.containsApiKey(authorizationHeaderAsString, now)) {
+            return true;
+        }
+
         if (authorizationHeaderAsString == null || authorizationHeaderAsString.trim().length() == 0) {
             send(new ApiAuthorizationError("Authorization header must be provided"), response);
             return false;
@@ -237,6 +513,7 @@ public class ApiServlet extends AbstractServlet {
         } else {
             if (bypassHMacValidation) {
                 // this makes the workspace accessible by only providing the API key
+                verifiedCredentials.addApiKey(apiKey, now);
                 return true;
             }
         }
@@ -252,44 +529,49 @@ public class ApiServlet extends AbstractServlet {
             return false;
         }
 
-        String contentMd5InRequest;
         String contentMd5Header = request.getHeader(HttpHeaders.CONTENT_MD5);
         if (contentMd5Header == null || contentMd5Header.length() == 0) {
             send(new ApiAuthorizationError("Request header missing: " + HttpHeaders.CONTENT_MD5), response);
             return false;
         }
 
-        contentMd5InRequest = new String(Base64.getDecoder().decode(contentMd5Header));
+        byte[] contentMd5InRequest = Base64.getDecoder().decode(contentMd5Header);
 
         String apiSecret = getWorkspaceComponent().getApiSecret(workspaceId);
 
-        try {
-            String generatedContentMd5 = new Md5Digest().generate(content);
-            if (!contentMd5InRequest.equals(generatedContentMd5)) {
-                // the content has been tampered with?
-                send(new ApiAuthorizationError("MD5 hash doesn't match content"), response);
-                return false;
-            }
-        } catch (Exception e) {
-            send(new ApiError(e), response);
+        if (!Digests.isEqual(contentMd5InRequest, contentMd5)) {
+            // the content has been tampered with?
+            send(new ApiAuthorizationError("MD5 hash doesn't match content"), response);
             return false;
         }
 
         HashBasedMessageAuthenticationCode code = new HashBasedMessageAuthenticationCode(apiSecret);
         try {
-            String hmacInRequest = hmacAuthorizationHeader.getHmac();
-            HmacContent hmacContent = new HmacContent(httpMethod, path, contentMd5InRequest, contentType, nonce);
-            String generatedHmac = code.generate(hmacContent.toString());
-            if (!hmacInRequest.equals(generatedHmac)) {
+            // the content MD5 in the request is the same as the one generated, so the latter is used rather than decoding it into a string
+            HmacContent hmacContent = new HmacContent(httpMethod, path, contentMd5, contentType, nonce);
+            if (!code.verify(hmacContent, hmacAuthorizationHeader.getHmacAsBytes())) {
                 send(new ApiAuthorizationError("Authorization header doesn't match"), response);
                 return false;
-            } else {
-                return true;
             }
         } catch (Exception e) {
             send(new ApiError(e), response);
             return false;
         }
+
+        // nonces are only recorded for requests that have been signed with the API secret
+        switch (nonceReplayCache.check(apiKey, nonce, System.currentTimeMillis())) {
+            case ACCEPTED:
+                return true;
+            case INVALID:
+                send(new ApiAuthorizationError("Nonce must be a timestamp (the number of milliseconds since the epoch)"), response);
+                return false;
+            case OUTSIDE_WINDOW:
+                send(new ApiAuthorizationError("Nonce is more than " + nonceReplayCache.getWindowInMilliseconds() + "ms from the server time; is the client clock correct?"), response);
+                return false;
+            default:
+                send(new ApiAuthorizationError("Nonce has already been used"), response);
+                return false;
+        }
     }
 
 }
\ No newline at end of file
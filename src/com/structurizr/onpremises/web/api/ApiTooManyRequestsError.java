@@ -0,0 +1,9 @@
+package com.structurizr.onpremises.web.api;
+
+class ApiTooManyRequestsError extends ApiMessageResponse {
+
+    ApiTooManyRequestsError(String message) {
+        super(message, 429);
+    }
+
+}
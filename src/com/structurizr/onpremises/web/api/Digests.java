@@ -0,0 +1,51 @@
+package com.structurizr.onpremises.web.api;
+
+import com.structurizr.onpremises.workspace.Md5Hash;
+
+/**
+ * Helpers for comparing digests without creating intermediate strings (digests are encoded with
+ * {@link Md5Hash#toHex(byte[])}). The comparisons are constant time (for inputs of the same length),
+ * so they don't reveal how much of a digest matched.
+ */
+final class Digests {
+
+    // the lowercase hex characters that Md5Hash.toHex encodes with, indexed by value
+    private static final char[] HEX_CHARACTERS = "0123456789abcdef".toCharArray();
+
+    private Digests() {
+    }
+
+    /**
+     * Compares some ASCII encoded bytes with a string, in constant time.
+     */
+    static boolean isEqual(byte[] ascii, String s) {
+        if (ascii == null || s == null || ascii.length != s.length()) {
+            return false;
+        }
+
+        int result = 0;
+        for (int i = 0; i < ascii.length; i++) {
+            result |= ascii[i] ^ s.charAt(i);
+        }
+
+        return result == 0;
+    }
+
+    /**
+     * Compares a lowercase hex encoded (as ASCII bytes) digest with the raw bytes of another, in constant time.
+     */
+    static boolean isEqualToHex(byte[] hex, byte[] bytes, int length) {
+        if (hex == null || bytes == null || hex.length != length * 2) {
+            return false;
+        }
+
+        int result = 0;
+        for (int i = 0; i < length; i++) {
+            result |= hex[i * 2] ^ HEX_CHARACTERS[(bytes[i] >> 4) & 0xf];
+            result |= hex[i * 2 + 1] ^ HEX_CHARACTERS[bytes[i] & 0xf];
+        }
+
+        return result == 0;
+    }
+
+}
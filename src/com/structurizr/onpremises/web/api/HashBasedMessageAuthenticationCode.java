@@ -1,13 +1,34 @@
 package com.structurizr.onpremises.web.api;
 
+import com.structurizr.onpremises.workspace.Md5Hash;
+
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.StandardCharsets;
 
 class HashBasedMessageAuthenticationCode {
 
     private static final String HMAC_SHA256_ALGORITHM = "HmacSHA256";
 
+    /**
+     * A Mac, along with the API secret it was last initialised with; clients tend to send a number of requests
+     * for the same workspace, so the Mac only needs to be initialised again when the API secret changes.
+     */
+    private static final class KeyedMac {
+
+        private final Mac mac;
+        private final byte[] output;
+        private String apiSecret;
+
+        private KeyedMac() throws Exception {
+            this.mac = Mac.getInstance(HMAC_SHA256_ALGORITHM);
+            this.output = new byte[mac.getMacLength()];
+        }
+
+    }
+
+    private static final ThreadLocal<KeyedMac> MACS = new ThreadLocal<>();
+
     private String apiSecret;
 
     HashBasedMessageAuthenticationCode(String apiSecret) {
@@ -15,11 +36,44 @@ class HashBasedMessageAuthenticationCode {
     }
 
     String generate(String content) throws Exception {
-        SecretKeySpec signingKey = new SecretKeySpec(apiSecret.getBytes(), HMAC_SHA256_ALGORITHM);
-        Mac mac = Mac.getInstance(HMAC_SHA256_ALGORITHM);
-        mac.init(signingKey);
-        byte[] rawHmac = mac.doFinal(content.getBytes());
-        return DatatypeConverter.printHexBinary(rawHmac).toLowerCase();
+        Mac mac = getKeyedMac().mac;
+        byte[] rawHmac = mac.doFinal(content.getBytes(StandardCharsets.UTF_8));
+        return Md5Hash.toHex(rawHmac);
+    }
+
+    /**
+     * Generates the HMAC of the given content, and compares it (in constant time) with the given one.
+     *
+     * @param hmac      the expected HMAC, as lowercase hex encoded ASCII bytes
+     */
+    boolean verify(HmacContent content, byte[] hmac) throws Exception {
+        KeyedMac keyedMac = getKeyedMac();
+        try {
+            content.update(keyedMac.mac);
+            keyedMac.mac.doFinal(keyedMac.output, 0);
+        } catch (Exception e) {
+            // leave the Mac in a known state for the next request on this thread
+            keyedMac.mac.reset();
+            throw e;
+        }
+
+        return Digests.isEqualToHex(hmac, keyedMac.output, keyedMac.output.length);
+    }
+
+    private KeyedMac getKeyedMac() throws Exception {
+        KeyedMac keyedMac = MACS.get();
+        if (keyedMac == null) {
+            keyedMac = new KeyedMac();
+            MACS.set(keyedMac);
+        }
+
+        if (!apiSecret.equals(keyedMac.apiSecret)) {
+            keyedMac.apiSecret = null;
+            keyedMac.mac.init(new SecretKeySpec(apiSecret.getBytes(StandardCharsets.UTF_8), HMAC_SHA256_ALGORITHM));
+            keyedMac.apiSecret = apiSecret;
+        }
+
+        return keyedMac;
     }
 
 }
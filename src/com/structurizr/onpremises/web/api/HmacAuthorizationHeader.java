@@ -1,13 +1,18 @@
 package com.structurizr.onpremises.web.api;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 
 class HmacAuthorizationHeader {
 
     private String apiKey;
-    private String hmac;
+    private byte[] hmac;
 
     HmacAuthorizationHeader(String apiKey, String hmac) {
+        this(apiKey, hmac.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private HmacAuthorizationHeader(String apiKey, byte[] hmac) {
         this.apiKey = apiKey;
         this.hmac = hmac;
     }
@@ -17,18 +22,26 @@ class HmacAuthorizationHeader {
     }
 
     public String getHmac() {
+        return new String(hmac, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return  the HMAC as it was sent, hex encoded (as ASCII bytes), for comparing without creating a string
+     */
+    byte[] getHmacAsBytes() {
         return hmac;
     }
 
     public String format() {
-        return apiKey + ":" + Base64.getEncoder().encodeToString(hmac.getBytes());
+        return apiKey + ":" + Base64.getEncoder().encodeToString(hmac);
     }
 
     static HmacAuthorizationHeader parse(String s) {
-        String parts[] = s.split(":");
-        if (parts.length == 2) {
-            String apiKey = parts[0];
-            String hmac = new String(Base64.getDecoder().decode(parts[1]));
+        // exactly one colon, with something either side of it
+        int colon = s.indexOf(':');
+        if (colon >= 0 && colon < s.length() - 1 && s.indexOf(':', colon + 1) == -1) {
+            String apiKey = s.substring(0, colon);
+            byte[] hmac = Base64.getDecoder().decode(s.substring(colon + 1));
 
             return new HmacAuthorizationHeader(apiKey, hmac);
         } else {
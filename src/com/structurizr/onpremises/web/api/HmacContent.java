@@ -1,13 +1,57 @@
 package com.structurizr.onpremises.web.api;
 
+import javax.crypto.Mac;
+import java.nio.charset.StandardCharsets;
+
 class HmacContent {
 
+    private static final int BUFFER_SIZE = 512;
+
+    // used to encode the strings before they're passed to a Mac, so that no intermediate strings or byte arrays are needed
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
     private String[] strings;
 
     public HmacContent(String... strings) {
         this.strings = strings;
     }
 
+    /**
+     * Passes the UTF-8 encoded content to the given Mac; this is equivalent to mac.update(toString().getBytes("UTF-8")).
+     */
+    void update(Mac mac) {
+        byte[] buffer = BUFFERS.get();
+        int length = 0;
+
+        for (String string : strings) {
+            int numberOfCharacters = string.length();
+            for (int i = 0; i < numberOfCharacters; i++) {
+                char c = string.charAt(i);
+                if (c >= 0x80) {
+                    // not ASCII, so fall back to encoding the rest of the string in one go
+                    mac.update(buffer, 0, length);
+                    length = 0;
+                    mac.update(string.substring(i).getBytes(StandardCharsets.UTF_8));
+                    break;
+                }
+
+                if (length == buffer.length) {
+                    mac.update(buffer, 0, length);
+                    length = 0;
+                }
+                buffer[length++] = (byte)c;
+            }
+
+            if (length == buffer.length) {
+                mac.update(buffer, 0, length);
+                length = 0;
+            }
+            buffer[length++] = '\n';
+        }
+
+        mac.update(buffer, 0, length);
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder();
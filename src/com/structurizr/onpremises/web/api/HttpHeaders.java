@@ -4,7 +4,15 @@ class HttpHeaders {
 
     public static final java.lang.String AUTHORIZATION = "Authorization";
     public static final java.lang.String CONTENT_TYPE = "Content-Type";
+    public static final java.lang.String CONTENT_LENGTH = "Content-Length";
     public static final java.lang.String CONTENT_MD5 = "Content-MD5";
     public static final java.lang.String NONCE = "Nonce";
+    public static final java.lang.String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final java.lang.String ETAG = "ETag";
+    public static final java.lang.String LAST_MODIFIED = "Last-Modified";
+    public static final java.lang.String CACHE_CONTROL = "Cache-Control";
+    public static final java.lang.String IF_NONE_MATCH = "If-None-Match";
+    public static final java.lang.String IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final java.lang.String RETRY_AFTER = "Retry-After";
 
 }
@@ -1,19 +1,58 @@
 package com.structurizr.onpremises.web.api;
 
-import javax.xml.bind.DatatypeConverter;
+import com.structurizr.onpremises.workspace.Md5Hash;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 class Md5Digest {
 
     private static final String ALGORITHM = "MD5";
 
+    // MessageDigest instances aren't thread-safe, and looking one up is relatively expensive, so each thread reuses its own
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[8192]);
+
     String generate(String content) throws Exception {
         if (content == null) {
             content = "";
         }
 
-        MessageDigest digest = MessageDigest.getInstance(ALGORITHM);
-        return DatatypeConverter.printHexBinary(digest.digest(content.getBytes("UTF-8"))).toLowerCase();
+        MessageDigest digest = getMessageDigest();
+        return Md5Hash.toHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Copies the content from the given input stream to the given output stream, generating
+     * the digest incrementally as it goes (so the content never needs to be held in memory).
+     */
+    String generate(InputStream in, OutputStream out) throws Exception {
+        MessageDigest digest = getMessageDigest();
+        byte[] buffer = BUFFERS.get();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            out.write(buffer, 0, read);
+        }
+
+        return Md5Hash.toHex(digest.digest());
+    }
+
+    private MessageDigest getMessageDigest() {
+        MessageDigest digest = DIGESTS.get();
+        digest.reset();
+
+        return digest;
     }
 
 }
@@ -0,0 +1,186 @@
+package com.structurizr.onpremises.web.api;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers the (API key, nonce) pairs of the requests that have been authorised, so that a captured request can't
+ * be replayed. Nonces are timestamps (milliseconds since the epoch, as sent by the Structurizr client libraries), and
+ * only those within a window either side of the current time are accepted, so each pair only needs to be remembered
+ * until its nonce falls outside of that window.
+ *
+ * Pairs are held (as 64-bit hashes) in buckets by nonce, in a ring of buckets that covers the window; a whole bucket
+ * is discarded at once, by being replaced, when its slot in the ring is needed for a newer one. Each bucket is split
+ * into stripes with their own locks, so there's no global lock. Memory is bounded by the number of requests
+ * authorised within the window, since nothing is recorded until a request's HMAC has been verified.
+ */
+class NonceReplayCache {
+
+    enum Result {
+        ACCEPTED, INVALID, OUTSIDE_WINDOW, REPLAYED
+    }
+
+    static final long DEFAULT_WINDOW_IN_MILLISECONDS = 5 * 60 * 1000;
+
+    private static final int BUCKETS_PER_WINDOW = 8;
+    private static final int NUMBER_OF_STRIPES = 64; // a power of two
+    private static final int INITIAL_STRIPE_CAPACITY = 16; // a power of two
+
+    private final long windowInMilliseconds;
+    private final long bucketWidthInMilliseconds;
+
+    // covers the window either side of the current time, plus a bucket at each end for requests racing a bucket change
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(2 * BUCKETS_PER_WINDOW + 2);
+
+    NonceReplayCache() {
+        this(DEFAULT_WINDOW_IN_MILLISECONDS);
+    }
+
+    /**
+     * @param windowInMilliseconds  how far a nonce can be either side of the current time
+     */
+    NonceReplayCache(long windowInMilliseconds) {
+        if (windowInMilliseconds < BUCKETS_PER_WINDOW) {
+            throw new IllegalArgumentException("The nonce window must be at least " + BUCKETS_PER_WINDOW + " milliseconds");
+        }
+
+        this.windowInMilliseconds = windowInMilliseconds;
+        this.bucketWidthInMilliseconds = windowInMilliseconds / BUCKETS_PER_WINDOW;
+    }
+
+    long getWindowInMilliseconds() {
+        return windowInMilliseconds;
+    }
+
+    /**
+     * Checks the nonce of an authorised request, and records it if it's accepted.
+     *
+     * @param now   the current time, in milliseconds since the epoch
+     */
+    Result check(String apiKey, String nonce, long now) {
+        long timestamp;
+        try {
+            timestamp = Long.parseLong(nonce);
+        } catch (NumberFormatException e) {
+            return Result.INVALID;
+        }
+
+        if (timestamp < now - windowInMilliseconds || timestamp > now + windowInMilliseconds) {
+            return Result.OUTSIDE_WINDOW;
+        }
+
+        Bucket bucket = getBucket(Math.floorDiv(timestamp, bucketWidthInMilliseconds));
+        if (bucket == null) {
+            // the slot has already moved on to a newer bucket, so the nonce is (only just) too old
+            return Result.OUTSIDE_WINDOW;
+        }
+
+        return bucket.add(hash(apiKey, timestamp)) ? Result.ACCEPTED : Result.REPLAYED;
+    }
+
+    private Bucket getBucket(long index) {
+        int slot = (int)Math.floorMod(index, (long)buckets.length());
+        while (true) {
+            Bucket bucket = buckets.get(slot);
+            if (bucket != null && bucket.index == index) {
+                return bucket;
+            } else if (bucket != null && bucket.index > index) {
+                return null;
+            }
+
+            // the slot is empty, or holds a bucket whose nonces are all outside of the window, so it's replaced
+            Bucket newBucket = new Bucket(index);
+            if (buckets.compareAndSet(slot, bucket, newBucket)) {
+                return newBucket;
+            }
+        }
+    }
+
+    /**
+     * A 64-bit hash of the API key and nonce, which is never zero (zero marks an empty slot in a stripe).
+     */
+    private static long hash(String apiKey, long timestamp) {
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < apiKey.length(); i++) {
+            hash ^= apiKey.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash = mix(hash ^ mix(timestamp));
+        return hash != 0 ? hash : 1;
+    }
+
+    // the finaliser from MurmurHash3, which spreads the bits of the input over the whole of the output
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+
+        return value;
+    }
+
+    private static final class Bucket {
+
+        private final long index;
+        private final Stripe[] stripes = new Stripe[NUMBER_OF_STRIPES];
+
+        private Bucket(long index) {
+            this.index = index;
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        private boolean add(long hash) {
+            // the high bits choose the stripe, and the low bits the slot within it
+            return stripes[(int)(hash >>> 58) & (NUMBER_OF_STRIPES - 1)].add(hash);
+        }
+
+    }
+
+    /**
+     * An open addressing set of hashes, kept at most half full.
+     */
+    private static final class Stripe {
+
+        private long[] hashes = new long[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        private synchronized boolean add(long hash) {
+            if (!add(hashes, hash)) {
+                return false;
+            }
+
+            size++;
+            if (size * 2 > hashes.length) {
+                long[] resized = new long[hashes.length * 2];
+                for (long existing : hashes) {
+                    if (existing != 0) {
+                        add(resized, existing);
+                    }
+                }
+                hashes = resized;
+            }
+
+            return true;
+        }
+
+        private static boolean add(long[] hashes, long hash) {
+            int mask = hashes.length - 1;
+            int i = (int)hash & mask;
+            while (hashes[i] != 0) {
+                if (hashes[i] == hash) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+
+            hashes[i] = hash;
+            return true;
+        }
+
+    }
+
+}
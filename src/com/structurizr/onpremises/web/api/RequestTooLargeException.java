@@ -0,0 +1,14 @@
+package com.structurizr.onpremises.web.api;
+
+import java.io.IOException;
+
+/**
+ * Thrown when more of a request body has been read than is allowed.
+ */
+class RequestTooLargeException extends IOException {
+
+    RequestTooLargeException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.structurizr.onpremises.web.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that fails as soon as more than a maximum number of bytes have been read from it, so that
+ * the size of a request body is limited even when it has no Content-Length header (or an incorrect one).
+ */
+class SizeLimitedInputStream extends FilterInputStream {
+
+    private final long maximumSize;
+    private long size;
+
+    SizeLimitedInputStream(InputStream in, long maximumSize) {
+        super(in);
+
+        this.maximumSize = maximumSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count(1);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            count(read);
+        }
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            count(skipped);
+        }
+
+        return skipped;
+    }
+
+    private void count(long bytes) throws RequestTooLargeException {
+        size += bytes;
+        if (size > maximumSize) {
+            throw new RequestTooLargeException("The request is larger than the maximum size of " + maximumSize + " bytes");
+        }
+    }
+
+}
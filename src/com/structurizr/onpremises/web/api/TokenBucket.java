@@ -0,0 +1,60 @@
+package com.structurizr.onpremises.web.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket. Rather than a number of tokens (which would need to be updated along with the time
+ * the bucket was last refilled), only the time at which the bucket will be full again is stored; taking a token
+ * moves that time forward by the time it takes to refill one token, and is refused if that would put it more than
+ * the capacity's worth of tokens into the future. This is the generic cell rate algorithm, and needs a single
+ * compare-and-set per request.
+ */
+class TokenBucket {
+
+    private final long nanosecondsPerToken;
+    private final long capacityInNanoseconds;
+    private final AtomicLong fullAt;
+
+    /**
+     * @param now   the current time, from System.nanoTime()
+     */
+    TokenBucket(double tokensPerSecond, int capacity, long now) {
+        if (tokensPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("A token bucket must have a positive rate and a capacity of at least 1");
+        }
+
+        this.nanosecondsPerToken = Math.max(1, (long)(TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+        this.capacityInNanoseconds = nanosecondsPerToken * capacity;
+        this.fullAt = new AtomicLong(now);
+    }
+
+    /**
+     * Takes a token, if one is available.
+     *
+     * @param now   the current time, from System.nanoTime()
+     * @return  0 if a token was taken, otherwise the number of nanoseconds until one will be available
+     */
+    long tryTake(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - now > 0 ? current : now) + nanosecondsPerToken;
+            long wait = next - now - capacityInNanoseconds;
+            if (wait > 0) {
+                return wait;
+            }
+
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Whether the bucket is full, in which case it's no different to a new bucket.
+     */
+    boolean isFull(long now) {
+        return fullAt.get() - now <= 0;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.structurizr.onpremises.web.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A short-lived cache of the API credentials that have been verified for each workspace (the API key in an Authorization
+ * header, or the key and secret parameters), so that repeated requests from the same client don't need to parse the
+ * header or look up and compare the stored credentials again. Everything cached for a workspace is discarded when it's
+ * invalidated (i.e. its API key or secret has changed).
+ */
+class VerifiedCredentialCache {
+
+    // the same as the interval at which the API credentials of a workspace are checked for changes
+    static final long DEFAULT_TIME_TO_LIVE_IN_MILLISECONDS = 5000;
+
+    private final ConcurrentHashMap<Long,VerifiedCredentials> verifiedCredentials = new ConcurrentHashMap<>();
+    private final long timeToLiveInMilliseconds;
+
+    VerifiedCredentialCache() {
+        this(DEFAULT_TIME_TO_LIVE_IN_MILLISECONDS);
+    }
+
+    VerifiedCredentialCache(long timeToLiveInMilliseconds) {
+        this.timeToLiveInMilliseconds = timeToLiveInMilliseconds;
+    }
+
+    /**
+     * Gets the credentials verified for the given workspace; this should be called before the stored credentials are
+     * read, so that anything then verified against them is discarded if the workspace is invalidated in the meantime.
+     */
+    VerifiedCredentials getVerifiedCredentials(long workspaceId) {
+        return verifiedCredentials.computeIfAbsent(workspaceId, id -> new VerifiedCredentials());
+    }
+
+    void invalidate(long workspaceId) {
+        verifiedCredentials.remove(workspaceId);
+    }
+
+    private static final class Verified {
+
+        private final String key;
+        private final String secret;
+        private final long expiryTime;
+
+        private Verified(String key, String secret, long expiryTime) {
+            this.key = key;
+            this.secret = secret;
+            this.expiryTime = expiryTime;
+        }
+
+    }
+
+    /**
+     * A workspace only has one API key and secret, so only the most recently verified are held.
+     */
+    final class VerifiedCredentials {
+
+        private volatile Verified apiKey;
+        private volatile Verified apiKeyAndSecret;
+
+        private VerifiedCredentials() {
+        }
+
+        /**
+         * Whether the given Authorization header (in the format apiKey:HMAC) has the verified API key.
+         */
+        boolean containsApiKey(String authorizationHeader, long now) {
+            Verified verified = apiKey;
+            if (verified == null || now >= verified.expiryTime || authorizationHeader == null) {
+                return false;
+            }
+
+            int length = verified.key.length();
+            return authorizationHeader.length() > length + 1 &&
+                    authorizationHeader.startsWith(verified.key) &&
+                    authorizationHeader.charAt(length) == ':' &&
+                    authorizationHeader.indexOf(':', length + 1) == -1;
+        }
+
+        void addApiKey(String key, long now) {
+            apiKey = new Verified(key, null, now + timeToLiveInMilliseconds);
+        }
+
+        boolean containsApiKeyAndSecret(String key, String secret, long now) {
+            Verified verified = apiKeyAndSecret;
+            return verified != null && now < verified.expiryTime && verified.key.equals(key) && verified.secret.equals(secret);
+        }
+
+        void addApiKeyAndSecret(String key, String secret, long now) {
+            apiKeyAndSecret = new Verified(key, secret, now + timeToLiveInMilliseconds);
+        }
+
+    }
+
+}
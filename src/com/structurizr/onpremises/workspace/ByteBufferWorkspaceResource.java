@@ -0,0 +1,66 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A resource held in memory (e.g. in a direct buffer, by the workspace cache).
+ */
+class ByteBufferWorkspaceResource extends WorkspaceResource {
+
+    private ByteBuffer buffer;
+    private String contentEncoding;
+
+    ByteBufferWorkspaceResource(ByteBuffer buffer, String contentEncoding) {
+        this.buffer = buffer;
+        this.contentEncoding = contentEncoding;
+    }
+
+    ByteBufferWorkspaceResource(byte[] bytes, String contentEncoding) {
+        this(ByteBuffer.wrap(bytes), contentEncoding);
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    @Override
+    public long getContentLength() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        ByteBuffer buffer = this.buffer.duplicate();
+
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+
+                length = Math.min(length, buffer.remaining());
+                buffer.get(bytes, offset, length);
+                return length;
+            }
+        };
+    }
+
+    @Override
+    public void transferTo(WritableByteChannel target) throws IOException {
+        ByteBuffer buffer = this.buffer.duplicate();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+package com.structurizr.onpremises.workspace;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * A workspace component that keeps recently used workspace definitions (as stored, so possibly
+ * compressed) in direct memory buffers, in front of the file system implementation. The cache is
+ * bounded by the number of bytes stored on disk, and the least recently used workspaces are evicted
+ * first. Each cached workspace is validated against the content hash in the workspace index, and
+ * the last modified timestamp and size of the underlying file, so that changes made outside of
+ * the API are still picked up.
+ */
+class CachingWorkspaceComponent implements WorkspaceComponent, WorkspaceCacheMBean {
+
+    private static final String OBJECT_NAME = "com.structurizr.onpremises:type=WorkspaceCache";
+
+    private final FileSystemWorkspaceComponent workspaceComponent;
+    private final long maximumSize;
+
+    private final LinkedHashMap<Long,CachedWorkspace> workspaces = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    CachingWorkspaceComponent(FileSystemWorkspaceComponent workspaceComponent, long maximumSize) {
+        this.workspaceComponent = workspaceComponent;
+        this.maximumSize = maximumSize;
+
+        workspaceComponent.addInvalidationListener(this::invalidate);
+    }
+
+    @Override
+    public Collection<WorkspaceSummary> getWorkspaces() {
+        return workspaceComponent.getWorkspaces();
+    }
+
+    @Override
+    public boolean workspaceExists(long workspaceId) throws WorkspaceComponentException {
+        return workspaceComponent.workspaceExists(workspaceId);
+    }
+
+    @Override
+    public boolean createWorkspace(long workspaceId, String key, String secret) throws WorkspaceComponentException {
+        return workspaceComponent.createWorkspace(workspaceId, key, secret);
+    }
+
+    @Override
+    public String getWorkspace(long workspaceId) throws WorkspaceComponentException {
+        try {
+            try (WorkspaceResource workspaceResource = getWorkspaceResource(workspaceId)) {
+                return new String(WorkspaceResource.toByteArray(workspaceResource.getDecodedInputStream()), "UTF-8");
+            }
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
+        }
+    }
+
+    @Override
+    public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+        if (!workspaceComponent.workspaceExists(workspaceId)) {
+            return workspaceComponent.getWorkspaceResource(workspaceId);
+        }
+
+        // the hash is read before the workspace, so the workspace that's read is never older than the hash it's cached with
+        String hash = getHash(workspaceId);
+        File file = workspaceComponent.getWorkspaceFile(workspaceId);
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        CachedWorkspace cachedWorkspace;
+        synchronized (workspaces) {
+            cachedWorkspace = workspaces.get(workspaceId);
+        }
+
+        if (cachedWorkspace != null && cachedWorkspace.isValid(hash, file, lastModified, length)) {
+            hits.incrementAndGet();
+            return cachedWorkspace.getWorkspaceResource();
+        }
+
+        misses.incrementAndGet();
+        WorkspaceResource workspaceResource = workspaceComponent.getWorkspaceResource(workspaceId);
+
+        // lastModified is zero when the workspace hasn't been stored yet, in which case there's nothing to cache
+        if (hash != null && lastModified != 0 && length <= maximumSize) {
+            try (WorkspaceResource resource = workspaceResource) {
+                ByteBuffer buffer = read(resource);
+                cachedWorkspace = new CachedWorkspace(buffer, resource.getContentEncoding(), hash, file, lastModified, length);
+
+                // a put may have been committed (and the cache invalidated) while the workspace was being read
+                if (hash.equals(getHash(workspaceId))) {
+                    put(workspaceId, cachedWorkspace);
+                }
+
+                return cachedWorkspace.getWorkspaceResource();
+            } catch (IOException ioe) {
+                throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
+            }
+        } else {
+            invalidate(workspaceId);
+            return workspaceResource;
+        }
+    }
+
+    private String getHash(long workspaceId) throws WorkspaceComponentException {
+        WorkspaceSummary workspaceSummary = workspaceComponent.getWorkspaceSummary(workspaceId);
+        return workspaceSummary != null ? workspaceSummary.getHash() : null;
+    }
+
+    @Override
+    public void putWorkspace(long workspaceId, String json) throws WorkspaceComponentException {
+        try {
+            workspaceComponent.putWorkspace(workspaceId, json);
+        } finally {
+            invalidate(workspaceId);
+        }
+    }
+
+    @Override
+    public void putWorkspace(long workspaceId, File file) throws WorkspaceComponentException {
+        try {
+            workspaceComponent.putWorkspace(workspaceId, file);
+        } finally {
+            invalidate(workspaceId);
+        }
+    }
+
+    @Override
+    public void putWorkspace(long workspaceId, File file, String hash) throws WorkspaceComponentException {
+        try {
+            workspaceComponent.putWorkspace(workspaceId, file, hash);
+        } finally {
+            invalidate(workspaceId);
+        }
+    }
+
+    @Override
+    public WorkspaceSummary getWorkspaceSummary(long workspaceId) throws WorkspaceComponentException {
+        return workspaceComponent.getWorkspaceSummary(workspaceId);
+    }
+
+    @Override
+    public String getApiKey(long workspaceId) throws WorkspaceComponentException {
+        return workspaceComponent.getApiKey(workspaceId);
+    }
+
+    @Override
+    public String getApiSecret(long workspaceId) throws WorkspaceComponentException {
+        return workspaceComponent.getApiSecret(workspaceId);
+    }
+
+    @Override
+    public WorkspaceResource getImage(long workspaceId, String name) throws WorkspaceComponentException {
+        return workspaceComponent.getImage(workspaceId, name);
+    }
+
+    @Override
+    public void start() throws WorkspaceComponentException {
+        workspaceComponent.start();
+    }
+
+    @Override
+    public void stop() {
+        unregisterMBean();
+
+        synchronized (workspaces) {
+            workspaces.clear();
+            size = 0;
+        }
+
+        workspaceComponent.stop();
+    }
+
+    private ByteBuffer read(WorkspaceResource workspaceResource) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int)workspaceResource.getContentLength());
+        try (ReadableByteChannel channel = Channels.newChannel(workspaceResource.getInputStream())) {
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // keep reading until the buffer is full
+            }
+        }
+        buffer.flip();
+
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private void put(long workspaceId, CachedWorkspace cachedWorkspace) {
+        synchronized (workspaces) {
+            CachedWorkspace previous = workspaces.put(workspaceId, cachedWorkspace);
+            if (previous != null) {
+                size -= previous.getSize();
+            }
+            size += cachedWorkspace.getSize();
+
+            Iterator<Map.Entry<Long,CachedWorkspace>> iterator = workspaces.entrySet().iterator();
+            while (size > maximumSize && iterator.hasNext()) {
+                Map.Entry<Long,CachedWorkspace> eldest = iterator.next();
+                if (eldest.getKey() != workspaceId) {
+                    size -= eldest.getValue().getSize();
+                    iterator.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addInvalidationListener(LongConsumer listener) {
+        workspaceComponent.addInvalidationListener(listener);
+    }
+
+    void invalidate(long workspaceId) {
+        synchronized (workspaces) {
+            CachedWorkspace previous = workspaces.remove(workspaceId);
+            if (previous != null) {
+                size -= previous.getSize();
+            }
+        }
+    }
+
+    void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new StandardMBean(this, WorkspaceCacheMBean.class), objectName);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public int getNumberOfWorkspaces() {
+        synchronized (workspaces) {
+            return workspaces.size();
+        }
+    }
+
+    @Override
+    public long getSize() {
+        synchronized (workspaces) {
+            return size;
+        }
+    }
+
+    @Override
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    private static final class CachedWorkspace {
+
+        private final ByteBuffer buffer;
+        private final String contentEncoding;
+        private final String hash;
+        private final File file;
+        private final long lastModified;
+        private final long size;
+
+        CachedWorkspace(ByteBuffer buffer, String contentEncoding, String hash, File file, long lastModified, long size) {
+            this.buffer = buffer;
+            this.contentEncoding = contentEncoding;
+            this.hash = hash;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        WorkspaceResource getWorkspaceResource() {
+            return new ByteBufferWorkspaceResource(buffer, contentEncoding);
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        boolean isValid(String hash, File file, long lastModified, long size) {
+            return this.hash.equals(hash) && this.file.equals(file) && this.lastModified == lastModified && this.size == size;
+        }
+
+    }
+
+}
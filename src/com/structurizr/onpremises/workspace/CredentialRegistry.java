@@ -0,0 +1,94 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory registry of workspace API keys and secrets, so that authenticating a request
+ * doesn't need to read the key.txt and secret.txt files. The credentials for a workspace are
+ * loaded on first use, and the files are checked for changes (via their last modified timestamps)
+ * at most once per refresh interval.
+ */
+class CredentialRegistry {
+
+    private static final long DEFAULT_REFRESH_INTERVAL_IN_MILLISECONDS = 5000;
+
+    private final ConcurrentHashMap<Long,Credentials> credentials = new ConcurrentHashMap<>();
+    private final long refreshIntervalInMilliseconds;
+
+    CredentialRegistry() {
+        this(DEFAULT_REFRESH_INTERVAL_IN_MILLISECONDS);
+    }
+
+    CredentialRegistry(long refreshIntervalInMilliseconds) {
+        this.refreshIntervalInMilliseconds = refreshIntervalInMilliseconds;
+    }
+
+    Credentials getCredentials(long workspaceId, File keyFile, File secretFile) throws IOException {
+        long now = System.currentTimeMillis();
+        Credentials current = credentials.get(workspaceId);
+
+        if (current != null && now - current.validatedAt < refreshIntervalInMilliseconds) {
+            return current;
+        }
+
+        // the timestamps are read before the files, so a concurrent change is picked up on the next refresh
+        long keyLastModified = keyFile.lastModified();
+        long secretLastModified = secretFile.lastModified();
+
+        if (current != null && current.keyLastModified == keyLastModified && current.secretLastModified == secretLastModified) {
+            current.validatedAt = now;
+            return current;
+        }
+
+        Credentials loaded = new Credentials(read(keyFile, keyLastModified), read(secretFile, secretLastModified), keyLastModified, secretLastModified, now);
+        credentials.put(workspaceId, loaded);
+
+        return loaded;
+    }
+
+    void putCredentials(long workspaceId, String key, String secret, File keyFile, File secretFile) {
+        credentials.put(workspaceId, new Credentials(key, secret, keyFile.lastModified(), secretFile.lastModified(), System.currentTimeMillis()));
+    }
+
+    void invalidate(long workspaceId) {
+        credentials.remove(workspaceId);
+    }
+
+    private String read(File file, long lastModified) throws IOException {
+        if (lastModified == 0) {
+            return null;
+        }
+
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8").trim();
+    }
+
+    static final class Credentials {
+
+        private final String key;
+        private final String secret;
+        private final long keyLastModified;
+        private final long secretLastModified;
+        private volatile long validatedAt;
+
+        private Credentials(String key, String secret, long keyLastModified, long secretLastModified, long validatedAt) {
+            this.key = key;
+            this.secret = secret;
+            this.keyLastModified = keyLastModified;
+            this.secretLastModified = secretLastModified;
+            this.validatedAt = validatedAt;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        String getSecret() {
+            return secret;
+        }
+
+    }
+
+}
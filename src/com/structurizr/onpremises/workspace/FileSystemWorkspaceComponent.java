@@ -1,79 +1,312 @@
 package com.structurizr.onpremises.workspace;
 
-import com.structurizr.Workspace;
 import com.structurizr.annotation.UsesContainer;
 import com.structurizr.onpremises.domain.UUID;
-import com.structurizr.util.WorkspaceUtils;
 
-import javax.imageio.ImageIO;
-import java.awt.image.RenderedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A simple workspace component implementation that uses the local file system.
+ *
+ * Workspace definitions are written to a temporary file and atomically renamed into place, so readers
+ * always see a complete version without taking any locks. Changes to a workspace (the rename, plus the
+ * corresponding index and summary updates) are serialised using a lock striped by workspace ID, and
+ * puts are committed (synced to disk, then renamed) by a single writer per workspace.
  */
 @UsesContainer(name = "File System", description = "Gets information from")
 class FileSystemWorkspaceComponent implements WorkspaceComponent {
 
+    private static final String WORKSPACE_FILENAME = "workspace.json";
+    private static final String COMPRESSED_WORKSPACE_FILENAME = "workspace.json.gz";
+    private static final byte[] EMPTY_WORKSPACE = "{}".getBytes(StandardCharsets.UTF_8);
+    private static final long SHUTDOWN_TIMEOUT_IN_SECONDS = 30;
+
     private File dataDirectory;
+    private boolean compressWorkspaces;
+    private WorkspaceDirectoryLayout layout;
+    private CredentialRegistry credentialRegistry = new CredentialRegistry();
+    private WorkspaceIndex workspaceIndex;
+    private WorkspaceSummaryUpdater workspaceSummaryUpdater = new WorkspaceSummaryUpdater(this::updateWorkspaceSummary);
+    private StripedLock locks = new StripedLock(Runtime.getRuntime().availableProcessors() * 4);
+    private WorkspaceWriter workspaceWriter = new WorkspaceWriter(Runtime.getRuntime().availableProcessors());
+
+    // the number of puts in progress for each workspace, which prevents its directory from being migrated
+    private ConcurrentHashMap<Long,Integer> putsInProgress = new ConcurrentHashMap<>();
+    private Thread migrationThread;
+    private WorkspaceWarmUp warmUp;
+    private WorkspaceDirectoryWatcher workspaceDirectoryWatcher;
+
+    // the fingerprints of the files written by the component (while holding the workspace lock), by workspace ID and
+    // filename, so that the changes the watcher reports for them aren't mistaken for changes made outside of the API
+    private final ConcurrentHashMap<Long,Map<String,Long>> writtenFiles = new ConcurrentHashMap<>();
+    private final List<LongConsumer> invalidationListeners = new CopyOnWriteArrayList<>();
 
     FileSystemWorkspaceComponent(File dataDirectory) {
+        this(dataDirectory, false);
+    }
+
+    /**
+     * @param compressWorkspaces    whether workspace definitions should be stored gzip compressed
+     */
+    FileSystemWorkspaceComponent(File dataDirectory, boolean compressWorkspaces) {
+        this(dataDirectory, compressWorkspaces, false);
+    }
+
+    /**
+     * @param compressWorkspaces    whether workspace definitions should be stored gzip compressed
+     * @param shardDirectories      whether workspace directories should be stored in hash buckets, rather than
+     *                              directly in the data directory (existing workspaces are migrated in the background)
+     */
+    FileSystemWorkspaceComponent(File dataDirectory, boolean compressWorkspaces, boolean shardDirectories) {
         this.dataDirectory = dataDirectory;
+        this.compressWorkspaces = compressWorkspaces;
+        this.layout = new WorkspaceDirectoryLayout(dataDirectory, shardDirectories);
+        this.workspaceIndex = new WorkspaceIndex(dataDirectory, layout, this::createWorkspaceSummary);
+
+        if (shardDirectories && !layout.getFlatWorkspaceIds().isEmpty()) {
+            migrationThread = new Thread(this::migrateWorkspaceDirectories, "structurizr-workspace-migration");
+            migrationThread.setDaemon(true);
+            migrationThread.start();
+        }
+    }
+
+    /**
+     * Sets the warm-up to run on startup, instead of just loading the workspace index.
+     */
+    void setWarmUp(WorkspaceWarmUp warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Watches the data directory for changes made outside of the API once the component has been started.
+     *
+     * @param polling   whether to poll the workspace directories, rather than using a WatchService
+     */
+    void watchDataDirectory(boolean polling) {
+        this.workspaceDirectoryWatcher = new WorkspaceDirectoryWatcher(dataDirectory, layout, this::workspaceChanged, polling);
+    }
+
+    /**
+     * Invalidates a workspace that the watcher has reported as changed, unless the file that changed is still as the
+     * component wrote it. The workspace lock is held while files are written and their fingerprints are recorded, so
+     * the fingerprint of a write has always been recorded by the time the change it made can be checked.
+     */
+    void workspaceChanged(long workspaceId, String filename) {
+        if (filename != null) {
+            Lock lock = locks.get(workspaceId);
+            lock.lock();
+            try {
+                Map<String,Long> fingerprints = writtenFiles.get(workspaceId);
+                Long fingerprint = fingerprints != null ? fingerprints.get(filename) : null;
+                if (fingerprint != null && fingerprint == WorkspaceDirectoryWatcher.fingerprint(new File(getPathToWorkspace(workspaceId), filename))) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        invalidate(workspaceId);
+    }
+
+    /**
+     * Records the fingerprint of a file that has just been written (or deleted), while holding the workspace lock.
+     * Without a change time, a file restored with the same timestamp and size can't be told apart from the one that
+     * was written, so nothing is recorded and every change is reported.
+     */
+    private void recordWrite(long workspaceId, File file) {
+        if (workspaceDirectoryWatcher != null && WorkspaceDirectoryWatcher.supportsChangeTime(file)) {
+            writtenFiles.computeIfAbsent(workspaceId, id -> new ConcurrentHashMap<>()).put(file.getName(), WorkspaceDirectoryWatcher.fingerprint(file));
+        }
+    }
+
+    @Override
+    public void addInvalidationListener(LongConsumer listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * Discards the API credentials and summary held in memory for the given workspace.
+     */
+    void invalidate(long workspaceId) {
+        credentialRegistry.invalidate(workspaceId);
+        workspaceIndex.invalidate(workspaceId);
+        for (LongConsumer listener : invalidationListeners) {
+            listener.accept(workspaceId);
+        }
+    }
+
+    @Override
+    public void start() throws WorkspaceComponentException {
+        if (warmUp != null) {
+            warmUp.run();
+        } else {
+            try {
+                workspaceIndex.getWorkspaces();
+            } catch (IOException ioe) {
+                throw new WorkspaceComponentException("Could not load the workspace index from " + dataDirectory.getAbsolutePath(), ioe);
+            }
+        }
+
+        if (workspaceDirectoryWatcher != null) {
+            workspaceDirectoryWatcher.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (workspaceDirectoryWatcher != null) {
+            workspaceDirectoryWatcher.stop();
+        }
+
+        try {
+            // puts that have been submitted are committed, and then the summary updates they've queued are applied
+            workspaceWriter.shutdown();
+            if (!workspaceWriter.awaitTermination(SHUTDOWN_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Timed out waiting for workspace puts to be committed");
+            }
+
+            if (!workspaceSummaryUpdater.awaitCompletion(SHUTDOWN_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Timed out waiting for workspace summaries to be updated");
+            }
+            workspaceSummaryUpdater.shutdown();
+
+            // a migration can be stopped between workspaces, and is resumed on the next startup
+            if (migrationThread != null) {
+                migrationThread.interrupt();
+                migrationThread.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_IN_SECONDS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            workspaceIndex.close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
     }
 
     @Override
     public Collection<WorkspaceSummary> getWorkspaces() {
-        Collection<WorkspaceSummary> workspaces = new ArrayList<>();
-
-        File[] files = dataDirectory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file != null && file.isDirectory() && file.getName().matches("\\d*")) {
-                    long workspaceId = Long.parseLong(file.getName());
-                    WorkspaceSummary workspace = new WorkspaceSummary(workspaceId);
-
-                    try {
-                        workspace.setKey(UUID.isUUID(getApiKey(workspaceId)));
-                    } catch (WorkspaceComponentException e) {
-                        workspace.setKey(false);
-                    }
+        try {
+            return workspaceIndex.getWorkspaces();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
 
-                    try {
-                        workspace.setSecret(UUID.isUUID(getApiSecret(workspaceId)));
-                    } catch (WorkspaceComponentException e) {
-                        workspace.setSecret(false);
-                    }
+    /**
+     * Creates a summary for the given workspace from the files in its directory; this is only
+     * used to add workspaces to the index that it doesn't know about.
+     */
+    private WorkspaceSummary createWorkspaceSummary(long workspaceId) {
+        WorkspaceSummary workspace = new WorkspaceSummary(workspaceId);
 
-                    try {
-                        workspace.setData(!getWorkspace(workspaceId).equals("{}"));
-                    } catch (WorkspaceComponentException e) {
-                        workspace.setData(false);
-                    };
+        // the files are read directly, because the workspace isn't in the index yet
+        try {
+            CredentialRegistry.Credentials credentials = getCredentials(workspaceId, getPathToWorkspace(workspaceId));
+            workspace.setKey(credentials.getKey() != null && UUID.isUUID(credentials.getKey()));
+            workspace.setSecret(credentials.getSecret() != null && UUID.isUUID(credentials.getSecret()));
+        } catch (IOException ioe) {
+            workspace.setKey(false);
+            workspace.setSecret(false);
+        }
 
-                    workspaces.add(workspace);
+        File file = getWorkspaceFile(workspaceId);
+        try {
+            // only a small file could contain an empty workspace ("{}"), so larger files don't need to be read
+            if (file.exists() && file.length() <= 64) {
+                try (WorkspaceResource workspaceResource = getWorkspaceResource(file)) {
+                    workspace.setData(!new String(WorkspaceResource.toByteArray(workspaceResource.getDecodedInputStream()), "UTF-8").equals("{}"));
                 }
+            } else {
+                workspace.setData(file.exists());
             }
+        } catch (IOException ioe) {
+            workspace.setData(false);
         }
+        workspace.setSize(file.length());
+        workspace.setLastModified(file.lastModified());
+
+        File workspacePropertiesFile = new File(getPathToWorkspace(workspaceId), "workspace.properties");
+        if (workspacePropertiesFile.exists()) {
+            try (FileReader fileReader = new FileReader(workspacePropertiesFile)) {
+                Properties properties = new Properties();
+                properties.load(fileReader);
+                workspace.setName(properties.getProperty("name"));
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+
+        return workspace;
+    }
 
-        return workspaces;
+    /**
+     * Answered from the workspace index, so that requests for unknown workspaces don't touch the file system.
+     */
+    @Override
+    public boolean workspaceExists(long workspaceId) throws WorkspaceComponentException {
+        try {
+            return workspaceIndex.contains(workspaceId);
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
+        }
     }
 
     @Override
     public boolean createWorkspace(long workspaceId, String key, String secret) throws WorkspaceComponentException {
+        Lock lock = locks.get(workspaceId);
+        lock.lock();
         try {
-            File path = getPathToWorkspace(workspaceId);
+            File path = createPathToWorkspace(workspaceId);
             File keyPath = new File(path, "key.txt");
             File secretPath = new File(path, "secret.txt");
 
             if (!keyPath.exists() && !secretPath.exists()) {
                 Files.write(keyPath.toPath(), key.getBytes("UTF-8"));
                 Files.write(secretPath.toPath(), secret.getBytes("UTF-8"));
+                recordWrite(workspaceId, keyPath);
+                recordWrite(workspaceId, secretPath);
+                credentialRegistry.putCredentials(workspaceId, key, secret, keyPath, secretPath);
+                workspaceIndex.update(workspaceId, workspace -> {
+                    workspace.setKey(UUID.isUUID(key));
+                    workspace.setSecret(UUID.isUUID(secret));
+                });
 
                 return true;
             } else {
@@ -81,45 +314,395 @@ class FileSystemWorkspaceComponent implements WorkspaceComponent {
             }
         } catch (IOException ioe) {
             throw new WorkspaceComponentException("Could not create workspace " + workspaceId, ioe);
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public String getWorkspace(long workspaceId) throws WorkspaceComponentException {
         try {
-            File path = getPathToWorkspace(workspaceId);
-            File file = new File(path, "workspace.json");
-            if (file.exists()) {
-                return new String(Files.readAllBytes(file.toPath()), "UTF-8");
-            } else {
-                return "{}";
+            try (WorkspaceResource workspaceResource = getWorkspaceResource(workspaceId)) {
+                return new String(WorkspaceResource.toByteArray(workspaceResource.getDecodedInputStream()), "UTF-8");
             }
         } catch (IOException ioe) {
             throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
         }
     }
 
+    @Override
+    public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+        // the file is opened straight away, so it can still be read if the workspace directory is then migrated
+        if (!workspaceExists(workspaceId)) {
+            return new ByteBufferWorkspaceResource(EMPTY_WORKSPACE, null);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            File file = getWorkspaceFile(workspaceId);
+            if (!file.exists()) {
+                if (attempt == 1) {
+                    // the workspace directory may have been migrated since its location was resolved
+                    continue;
+                }
+
+                return new ByteBufferWorkspaceResource(EMPTY_WORKSPACE, null);
+            }
+
+            try {
+                return getWorkspaceResource(file).open();
+            } catch (NoSuchFileException e) {
+                if (attempt > 1) {
+                    throw new WorkspaceComponentException("Could not get workspace " + workspaceId, e);
+                }
+            } catch (IOException ioe) {
+                throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
+            }
+        }
+    }
+
+    private FileWorkspaceResource getWorkspaceResource(File file) {
+        return new FileWorkspaceResource(file, file.getName().equals(COMPRESSED_WORKSPACE_FILENAME) ? WorkspaceResource.GZIP : null);
+    }
+
     @Override
     public void putWorkspace(long workspaceId, String json) throws WorkspaceComponentException {
+        startPut(workspaceId);
         try {
-            File path = getPathToWorkspace(workspaceId);
-            File file = new File(path, "workspace.json");
+            byte[] bytes = json.getBytes("UTF-8");
+            storeWorkspace(workspaceId, new ByteArrayInputStream(bytes), bytes.length, !json.equals("{}"));
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not put workspace " + workspaceId, ioe);
+        } finally {
+            endPut(workspaceId);
+        }
+    }
 
-            Files.write(file.toPath(), json.getBytes("UTF-8"));
+    @Override
+    public void putWorkspace(long workspaceId, File file) throws WorkspaceComponentException {
+        putWorkspace(workspaceId, file, null);
+    }
 
-            try {
-                Workspace workspace = WorkspaceUtils.loadWorkspaceFromJson(file);
-                writeWorkspaceSummary(workspaceId, workspace.getName(), workspace.getDescription(), workspace.getThumbnail());
-            } catch (Exception e) {
-                e.printStackTrace();
+    @Override
+    public void putWorkspace(long workspaceId, File file, String hash) throws WorkspaceComponentException {
+        startPut(workspaceId);
+        try {
+            long size = file.length();
+            boolean data = size > 64 || !new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).equals("{}");
+
+            if (!compressWorkspaces) {
+                File path = createPathToWorkspace(workspaceId);
+                File temporaryFile = File.createTempFile(WORKSPACE_FILENAME, ".tmp", path);
+                try {
+                    if (hash == null) {
+                        try (InputStream in = new FileInputStream(file)) {
+                            hash = hash(in);
+                        }
+                    }
+
+                    // the file can be moved into the workspace directory as-is if it's on the same file system
+                    Files.move(file.toPath(), temporaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    writeWorkspace(workspaceId, temporaryFile, new File(path, WORKSPACE_FILENAME), size, data, hash);
+                    return;
+                } catch (AtomicMoveNotSupportedException e) {
+                    // fall back to copying it
+                    Files.deleteIfExists(temporaryFile.toPath());
+                }
+            }
+
+            try (InputStream in = new FileInputStream(file)) {
+                storeWorkspace(workspaceId, in, size, data);
             }
         } catch (IOException ioe) {
             throw new WorkspaceComponentException("Could not put workspace " + workspaceId, ioe);
+        } finally {
+            endPut(workspaceId);
+        }
+    }
+
+    /**
+     * Records that a put has started, holding the workspace lock so that the workspace directory isn't
+     * being migrated; it then stays where it is until the put has completed.
+     */
+    private void startPut(long workspaceId) {
+        Lock lock = locks.get(workspaceId);
+        lock.lock();
+        try {
+            putsInProgress.merge(workspaceId, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void endPut(long workspaceId) {
+        putsInProgress.computeIfPresent(workspaceId, (id, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Moves the workspace directories in the flat layout to the sharded layout, one at a time, while the
+     * component is in use. Each directory is moved with a single rename while holding the workspace lock,
+     * and workspaces with puts in progress are retried later.
+     *
+     * @return  the number of workspace directories that were moved
+     */
+    int migrateWorkspaceDirectories() {
+        int numberOfWorkspacesMigrated = 0;
+        Set<Long> workspaceIds = layout.getFlatWorkspaceIds();
+
+        while (!workspaceIds.isEmpty()) {
+            Iterator<Long> iterator = workspaceIds.iterator();
+            while (iterator.hasNext() && !Thread.currentThread().isInterrupted()) {
+                long workspaceId = iterator.next();
+                Lock lock = locks.get(workspaceId);
+                lock.lock();
+                try {
+                    if (!putsInProgress.containsKey(workspaceId)) {
+                        File source = layout.getFlatDirectory(workspaceId);
+                        File target = layout.getShardedDirectory(workspaceId);
+                        if (target.exists()) {
+                            System.err.println("Workspace " + workspaceId + " exists in both " + source.getCanonicalPath() + " and " + target.getCanonicalPath() + ", so it has not been migrated");
+                        } else if (source.exists()) {
+                            Files.createDirectories(target.getParentFile().toPath());
+                            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                            syncDirectory(target.getParentFile());
+                            numberOfWorkspacesMigrated++;
+                        }
+                        iterator.remove();
+                    }
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    iterator.remove();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            if (!workspaceIds.isEmpty()) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        syncDirectory(dataDirectory);
+        return numberOfWorkspacesMigrated;
+    }
+
+    /**
+     * Writes the workspace definition to a temporary file in the workspace directory (without holding the lock,
+     * so concurrent puts can write in parallel), which is then renamed over the existing definition.
+     */
+    private void storeWorkspace(long workspaceId, InputStream in, long size, boolean data) throws IOException {
+        File path = createPathToWorkspace(workspaceId);
+        File file = new File(path, compressWorkspaces ? COMPRESSED_WORKSPACE_FILENAME : WORKSPACE_FILENAME);
+        File temporaryFile = File.createTempFile(file.getName(), ".tmp", path);
+        MessageDigest digest = Md5Hash.createMessageDigest();
+
+        try {
+            try (OutputStream out = compressWorkspaces ? new GZIPOutputStream(new FileOutputStream(temporaryFile)) : new FileOutputStream(temporaryFile)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+        } catch (IOException ioe) {
+            Files.deleteIfExists(temporaryFile.toPath());
+            throw ioe;
+        }
+
+        writeWorkspace(workspaceId, temporaryFile, file, size, data, Md5Hash.toHex(digest.digest()));
+    }
+
+    /**
+     * Hands the temporary file to the workspace writer, and waits for it to be durably committed
+     * (or superseded by a later put of the same workspace, which is then committed instead).
+     */
+    private void writeWorkspace(long workspaceId, File temporaryFile, File file, long size, boolean data, String hash) throws IOException {
+        workspaceWriter.write(workspaceId, new WorkspaceWriter.Write() {
+            @Override
+            public void apply() throws IOException {
+                try {
+                    sync(temporaryFile);
+                    commitWorkspace(workspaceId, temporaryFile, file, size, data, hash);
+                    syncDirectory(file.getParentFile());
+                } finally {
+                    Files.deleteIfExists(temporaryFile.toPath());
+                }
+            }
+
+            @Override
+            public void discard() {
+                temporaryFile.delete();
+            }
+        });
+    }
+
+    /**
+     * Renames the given file over the workspace definition and updates the index, holding the workspace lock
+     * so that the index always describes the definition that was renamed into place last.
+     */
+    private void commitWorkspace(long workspaceId, File source, File file, long size, boolean data, String hash) throws IOException {
+        Lock lock = locks.get(workspaceId);
+        lock.lock();
+        try {
+            Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // remove the workspace stored in the other format, if the storage mode has been changed
+            File otherFile = new File(file.getParentFile(), compressWorkspaces ? WORKSPACE_FILENAME : COMPRESSED_WORKSPACE_FILENAME);
+            Files.deleteIfExists(otherFile.toPath());
+            recordWrite(workspaceId, file);
+            recordWrite(workspaceId, otherFile);
+
+            long lastModified = file.lastModified();
+            workspaceIndex.update(workspaceId, workspace -> {
+                workspace.setData(data);
+                workspace.setSize(size);
+                workspace.setLastModified(lastModified);
+                workspace.setHash(hash);
+                workspace.setVersion(workspace.getVersion() + 1);
+            });
+        } finally {
+            lock.unlock();
+        }
+
+        workspaceSummaryUpdater.submit(workspaceId);
+    }
+
+    private static void sync(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Syncs a directory, so that a rename within it is durable.
+     */
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ioe) {
+            // directories can't be opened (or synced) on all platforms (e.g. Windows)
+        }
+    }
+
+    @Override
+    public WorkspaceSummary getWorkspaceSummary(long workspaceId) throws WorkspaceComponentException {
+        try {
+            if (!workspaceIndex.contains(workspaceId)) {
+                return null;
+            }
+
+            WorkspaceSummary workspaceSummary = workspaceIndex.getWorkspace(workspaceId);
+            File file = getWorkspaceFile(workspaceId);
+            long lastModified = file.lastModified();
+
+            if (workspaceSummary == null || workspaceSummary.getLastModified() != lastModified || (workspaceSummary.getHash() == null && file.exists())) {
+                // the workspace has been added or changed outside of the API, so its hash is (re)generated on first use
+                Lock lock = locks.get(workspaceId);
+                lock.lock();
+                try {
+                    WorkspaceSummary reloaded = createWorkspaceSummary(workspaceId);
+                    String hash = hash(getWorkspaceFile(workspaceId));
+                    workspaceIndex.update(workspaceId, workspace -> {
+                        workspace.setData(reloaded.isData());
+                        workspace.setSize(reloaded.getSize());
+                        workspace.setLastModified(reloaded.getLastModified());
+                        workspace.setHash(hash);
+                        workspace.setVersion(workspace.getVersion() + 1);
+                    });
+                    workspaceSummary = workspaceIndex.getWorkspace(workspaceId);
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            return workspaceSummary;
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
+        }
+    }
+
+    private String hash(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (WorkspaceResource workspaceResource = getWorkspaceResource(file)) {
+            return hash(workspaceResource.getDecodedInputStream());
+        }
+    }
+
+    private String hash(InputStream in) throws IOException {
+        MessageDigest digest = Md5Hash.createMessageDigest();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+
+        return Md5Hash.toHex(digest.digest());
+    }
+
+    /**
+     * Extracts the summary from the definition that's currently stored, without holding the workspace lock while it's
+     * scanned; the lock is only taken to write the summary, if the definition hasn't been changed in the meantime.
+     */
+    private void updateWorkspaceSummary(long workspaceId) {
+        try {
+            // the version is read before the file is opened, so a definition committed in between is never written
+            // with the summary of an earlier one (the versions then differ)
+            long version = getVersion(workspaceId);
+            File file = getWorkspaceFile(workspaceId);
+            if (!file.exists()) {
+                return;
+            }
+
+            WorkspaceSummaryScanner workspace;
+            try (WorkspaceResource workspaceResource = getWorkspaceResource(file).open();
+                 Reader reader = new BufferedReader(new InputStreamReader(workspaceResource.getDecodedInputStream(), "UTF-8"))) {
+                workspace = WorkspaceSummaryScanner.scan(reader);
+            }
+
+            Lock lock = locks.get(workspaceId);
+            lock.lock();
+            try {
+                if (getVersion(workspaceId) == version) {
+                    writeWorkspaceSummary(workspaceId, workspace.getName(), workspace.getDescription(), workspace.getThumbnail());
+                    workspaceIndex.update(workspaceId, workspaceSummary -> workspaceSummary.setName(workspace.getName()));
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // superseded while it was being scanned, so the summary is extracted again from the latest definition
+            workspaceSummaryUpdater.submit(workspaceId);
+        } catch (NoSuchFileException e) {
+            // the workspace directory has been migrated since its location was resolved
+            workspaceSummaryUpdater.submit(workspaceId);
+        } catch (Exception e) {
+            e.printStackTrace();
         }
     }
 
+    private long getVersion(long workspaceId) throws IOException {
+        WorkspaceSummary workspaceSummary = workspaceIndex.getWorkspace(workspaceId);
+        return workspaceSummary != null ? workspaceSummary.getVersion() : 0;
+    }
+
+    /**
+     * Waits for any pending workspace summary updates to complete (used by tests).
+     */
+    boolean awaitWorkspaceSummaryUpdates(long timeout, TimeUnit unit) throws InterruptedException {
+        return workspaceSummaryUpdater.awaitCompletion(timeout, unit);
+    }
+
     private void writeWorkspaceSummary(long workspaceId, String name, String description, String thumbnail) throws Exception {
-        File path = getPathToWorkspace(workspaceId);
+        File path = createPathToWorkspace(workspaceId);
         File workspacePropertiesFile = new File(path, "workspace.properties");
         Properties properties = new Properties();
 
@@ -135,10 +718,19 @@ class FileSystemWorkspaceComponent implements WorkspaceComponent {
             properties.setProperty("thumbnail", thumbnail);
         }
 
-        FileWriter fileWriter = new FileWriter(workspacePropertiesFile);
-        properties.store(fileWriter, null);
-        fileWriter.flush();
-        fileWriter.close();
+        // written to a temporary file and renamed, so the summary is never seen partially written
+        File temporaryFile = File.createTempFile(workspacePropertiesFile.getName(), ".tmp", path);
+        try {
+            FileWriter fileWriter = new FileWriter(temporaryFile);
+            properties.store(fileWriter, null);
+            fileWriter.flush();
+            fileWriter.close();
+
+            Files.move(temporaryFile.toPath(), workspacePropertiesFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            recordWrite(workspaceId, workspacePropertiesFile);
+        } finally {
+            Files.deleteIfExists(temporaryFile.toPath());
+        }
     }
 
     @Override
@@ -146,8 +738,9 @@ class FileSystemWorkspaceComponent implements WorkspaceComponent {
         try {
             File path = getPathToWorkspace(workspaceId);
             File file = new File(path, "key.txt");
-            if (file.exists()) {
-                return new String(Files.readAllBytes(file.toPath()), "UTF-8").trim();
+            String key = workspaceExists(workspaceId) ? getCredentials(workspaceId, path).getKey() : null;
+            if (key != null) {
+                return key;
             } else {
                 throw new WorkspaceComponentException("Could not find API key at " + file.getCanonicalPath());
             }
@@ -161,8 +754,9 @@ class FileSystemWorkspaceComponent implements WorkspaceComponent {
         try {
             File path = getPathToWorkspace(workspaceId);
             File file = new File(path, "secret.txt");
-            if (file.exists()) {
-                return new String(Files.readAllBytes(file.toPath()), "UTF-8").trim();
+            String secret = workspaceExists(workspaceId) ? getCredentials(workspaceId, path).getSecret() : null;
+            if (secret != null) {
+                return secret;
             } else {
                 throw new WorkspaceComponentException("Could not find API secret at " + file.getCanonicalPath());
             }
@@ -171,24 +765,64 @@ class FileSystemWorkspaceComponent implements WorkspaceComponent {
         }
     }
 
-    @Override
-    public RenderedImage getImage(long workspaceId, String name) throws WorkspaceComponentException {
+    private CredentialRegistry.Credentials getCredentials(long workspaceId, File path) throws IOException {
         try {
-            File path = getPathToWorkspace(workspaceId);
-            File[] files = path.listFiles(file -> file.getName().equals(name));
-
-            if (files != null && files.length == 1) {
-                return ImageIO.read(files[0]);
-            } else {
-                return null;
+            CredentialRegistry.Credentials credentials = credentialRegistry.getCredentials(workspaceId, new File(path, "key.txt"), new File(path, "secret.txt"));
+            if (path.exists()) {
+                return credentials;
+            }
+        } catch (NoSuchFileException e) {
+            if (path.exists()) {
+                throw e;
             }
-        } catch (IOException ioe) {
-            throw new WorkspaceComponentException("Error getting resource named " + name + " from workspace " + workspaceId, ioe);
         }
+
+        // the workspace directory may have been migrated since its location was resolved, so what was read is discarded
+        credentialRegistry.invalidate(workspaceId);
+        path = getPathToWorkspace(workspaceId);
+        return credentialRegistry.getCredentials(workspaceId, new File(path, "key.txt"), new File(path, "secret.txt"));
     }
 
+    @Override
+    public WorkspaceResource getImage(long workspaceId, String name) throws WorkspaceComponentException {
+        if (name == null || name.contains("/") || name.contains("\\")) {
+            // only files directly inside the workspace directory can be served
+            return null;
+        }
+
+        if (!workspaceExists(workspaceId)) {
+            return null;
+        }
+
+        File file = new File(getPathToWorkspace(workspaceId), name);
+        if (file.isFile()) {
+            return new FileWorkspaceResource(file, null);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the file that the workspace definition is stored in, which may be compressed
+     * (if the storage mode has been changed, the file in the current format is preferred).
+     */
+    File getWorkspaceFile(long workspaceId) {
+        File path = getPathToWorkspace(workspaceId);
+        File preferred = new File(path, compressWorkspaces ? COMPRESSED_WORKSPACE_FILENAME : WORKSPACE_FILENAME);
+        File alternative = new File(path, compressWorkspaces ? WORKSPACE_FILENAME : COMPRESSED_WORKSPACE_FILENAME);
+
+        return preferred.exists() || !alternative.exists() ? preferred : alternative;
+    }
+
+    /**
+     * Gets the directory for the given workspace, which may not exist; reads never create it.
+     */
     private File getPathToWorkspace(long workspaceId) {
-        File path = new File(dataDirectory, "" + workspaceId);
+        return layout.getDirectory(workspaceId);
+    }
+
+    private File createPathToWorkspace(long workspaceId) {
+        File path = layout.getDirectory(workspaceId);
         if (!path.exists()) {
             path.mkdirs();
         }
@@ -0,0 +1,130 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A resource stored in a file, or in a region of a file. The file is opened on first use, and its
+ * length and content are then read from the same open channel, so they remain consistent if the
+ * file is replaced.
+ */
+class FileWorkspaceResource extends WorkspaceResource {
+
+    private File file;
+    private String contentEncoding;
+    private long offset;
+    private long length;
+    private FileChannel channel;
+
+    FileWorkspaceResource(File file, String contentEncoding) {
+        this(file, contentEncoding, 0, -1);
+    }
+
+    /**
+     * @param offset    the offset of the resource within the file
+     * @param length    the length of the resource, or -1 if it extends to the end of the file
+     */
+    FileWorkspaceResource(File file, String contentEncoding, long offset, long length) {
+        this.file = file;
+        this.contentEncoding = contentEncoding;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Opens the file now, rather than on first use, so that it can still be read if it's later deleted.
+     */
+    FileWorkspaceResource open() throws IOException {
+        getChannel();
+        return this;
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        // each stream reads from the start of the resource, using positional reads so the channel stays open
+        FileChannel channel = getChannel();
+        long end = offset + getContentLength();
+
+        return new InputStream() {
+            private long position = offset;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                } else if (position >= end) {
+                    return -1;
+                }
+
+                int read = channel.read(ByteBuffer.wrap(b, off, (int)Math.min(len, end - position)), position);
+                if (read > 0) {
+                    position += read;
+                }
+
+                return read;
+            }
+
+            @Override
+            public int available() {
+                return (int)Math.min(Integer.MAX_VALUE, Math.max(0, end - position));
+            }
+        };
+    }
+
+    @Override
+    public long getContentLength() throws IOException {
+        return length >= 0 ? length : getChannel().size() - offset;
+    }
+
+    @Override
+    public long getLastModified() {
+        return file.lastModified();
+    }
+
+    @Override
+    public void transferTo(WritableByteChannel target) throws IOException {
+        FileChannel channel = getChannel();
+        long end = offset + getContentLength();
+        long position = offset;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred == 0 && position >= channel.size()) {
+                throw new EOFException(file.getName() + " has been truncated");
+            }
+            position += transferred;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        return channel;
+    }
+
+}
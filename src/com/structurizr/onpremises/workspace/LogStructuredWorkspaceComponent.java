@@ -0,0 +1,1036 @@
+package com.structurizr.onpremises.workspace;
+
+import com.structurizr.onpremises.domain.UUID;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A workspace component that stores all workspaces (credentials, definitions and summaries) as records
+ * appended to a single file, rather than as a directory of files per workspace. The location of the
+ * latest records for each workspace is held in memory, and is rebuilt by reading the file on startup.
+ *
+ * Each record consists of the length and CRC-32 checksum of its body, followed by the body itself
+ * (the record type, the workspace ID and the record content). Records are prepared (and their checksums
+ * calculated) before they're appended, and workspace definitions are streamed into the file from a temporary file.
+ * Appends are synced to disk before they return (appends written while the file is being synced are synced
+ * together, by the next sync), and a partially written record at the end of the file (e.g. after a crash) is
+ * truncated on startup.
+ * Once more than half of the file consists of superseded records, the live records are copied to a new
+ * file in the background, which is then renamed over the existing file.
+ */
+class LogStructuredWorkspaceComponent implements WorkspaceComponent {
+
+    static final String FILENAME = "workspaces.log";
+    static final long DEFAULT_MINIMUM_COMPACTION_SIZE = 16 * 1024 * 1024;
+
+    private static final int MAGIC_NUMBER = 0x53574c53;
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final String STAGING_FILENAME_SUFFIX = ".staging";
+
+    private static final byte CREDENTIALS_RECORD = 1;
+    private static final byte WORKSPACE_RECORD = 2;
+
+    private static final byte[] EMPTY_WORKSPACE = "{}".getBytes(StandardCharsets.UTF_8);
+    private static final long SHUTDOWN_TIMEOUT_IN_SECONDS = 30;
+
+    /**
+     * The latest records for a single workspace; entries are replaced rather than modified.
+     */
+    private static class Entry {
+
+        private final WorkspaceSummary workspaceSummary;
+
+        private String key;
+        private String secret;
+        private long credentialsPosition = -1;
+        private int credentialsLength;
+
+        private long workspacePosition = -1;
+        private int workspaceLength;
+        private long definitionOffset;
+        private long definitionLength;
+        private String contentEncoding;
+
+        private Entry(WorkspaceSummary workspaceSummary) {
+            this.workspaceSummary = workspaceSummary;
+        }
+
+        private Entry copy() {
+            Entry entry = new Entry(new WorkspaceSummary(workspaceSummary));
+            entry.key = key;
+            entry.secret = secret;
+            entry.credentialsPosition = credentialsPosition;
+            entry.credentialsLength = credentialsLength;
+            entry.workspacePosition = workspacePosition;
+            entry.workspaceLength = workspaceLength;
+            entry.definitionOffset = definitionOffset;
+            entry.definitionLength = definitionLength;
+            entry.contentEncoding = contentEncoding;
+
+            return entry;
+        }
+
+        private long getLiveBytes() {
+            return (credentialsPosition >= 0 ? credentialsLength : 0) + (workspacePosition >= 0 ? workspaceLength : 0);
+        }
+
+    }
+
+    private final File dataDirectory;
+    private final File file;
+    private final WorkspaceDirectoryLayout layout;
+    private final boolean compressWorkspaces;
+    private final long minimumCompactionSize;
+
+    private final ConcurrentSkipListMap<Long,Entry> entries = new ConcurrentSkipListMap<>();
+    private final StripedLock locks = new StripedLock(Runtime.getRuntime().availableProcessors() * 4);
+
+    // reads and appends share the file, while compaction replaces it
+    private final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock();
+    private final Object appendLock = new Object();
+    private FileChannel channel;
+    private long liveBytes = 0;
+    private boolean importing = false;
+
+    // the number of bytes appended, and how many of those have been synced to disk
+    private long appendedBytes = 0;
+    private final Object syncLock = new Object();
+    private long syncedBytes = 0;
+    private boolean syncInProgress = false;
+
+    private final ExecutorService executorService;
+    private final AtomicBoolean compactionPending = new AtomicBoolean(false);
+
+    LogStructuredWorkspaceComponent(File dataDirectory, boolean compressWorkspaces) throws IOException {
+        this(dataDirectory, compressWorkspaces, DEFAULT_MINIMUM_COMPACTION_SIZE);
+    }
+
+    /**
+     * @param minimumCompactionSize     the size (in bytes) that the file needs to reach before it's compacted
+     */
+    LogStructuredWorkspaceComponent(File dataDirectory, boolean compressWorkspaces, long minimumCompactionSize) throws IOException {
+        this.dataDirectory = dataDirectory;
+        this.file = new File(dataDirectory, FILENAME);
+        this.layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        this.compressWorkspaces = compressWorkspaces;
+        this.minimumCompactionSize = minimumCompactionSize;
+        this.executorService = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "structurizr-workspace-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Files.createDirectories(dataDirectory.toPath());
+
+        // workspace definitions that were being prepared when the server stopped were never appended
+        File[] stagingFiles = dataDirectory.listFiles((dir, name) -> name.endsWith(STAGING_FILENAME_SUFFIX));
+        if (stagingFiles != null) {
+            for (File stagingFile : stagingFiles) {
+                Files.deleteIfExists(stagingFile.toPath());
+            }
+        }
+
+        if (file.exists()) {
+            open();
+        } else {
+            create();
+        }
+    }
+
+    private void create() throws IOException {
+        File temporaryFile = new File(dataDirectory, FILENAME + ".tmp");
+        channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writeFileHeader(channel);
+
+        // workspaces stored in the directory per workspace layout are copied into the new file, which is synced once at the end
+        importing = true;
+        for (long workspaceId : layout.getWorkspaceIds()) {
+            File directory = layout.getDirectory(workspaceId);
+            try {
+                importWorkspace(workspaceId, directory);
+            } catch (IOException ioe) {
+                System.err.println("Workspace " + workspaceId + " in " + directory.getCanonicalPath() + " could not be read, so it has not been imported");
+                ioe.printStackTrace();
+            }
+        }
+
+        importing = false;
+
+        channel.force(true);
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dataDirectory);
+    }
+
+    /**
+     * Imports a workspace directory, whatever it contains; the credentials record is always appended (with a missing
+     * API key or secret recorded as such), so the workspace exists even if it has no credentials or definition.
+     */
+    private void importWorkspace(long workspaceId, File directory) throws IOException {
+        // everything is read before anything is appended, so a workspace that can't be read isn't partially imported
+        String key = readCredential(new File(directory, "key.txt"));
+        String secret = readCredential(new File(directory, "secret.txt"));
+
+        byte[] json = null;
+        File workspaceFile = new File(directory, "workspace.json");
+        File compressedWorkspaceFile = new File(directory, "workspace.json.gz");
+        if (workspaceFile.exists() || compressedWorkspaceFile.exists()) {
+            try (WorkspaceResource workspaceResource = workspaceFile.exists() ? new FileWorkspaceResource(workspaceFile, null) : new FileWorkspaceResource(compressedWorkspaceFile, WorkspaceResource.GZIP)) {
+                json = WorkspaceResource.toByteArray(workspaceResource.getDecodedInputStream());
+            }
+        }
+
+        appendCredentials(workspaceId, key, secret);
+        if (json != null) {
+            appendWorkspace(workspaceId, json);
+        }
+    }
+
+    private static String readCredential(File file) throws IOException {
+        if (file.exists()) {
+            // trimmed in the same way as the credentials read by the file system component
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        } else {
+            return null;
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+        if (!readFully(channel, header, 0) || header.getInt(0) != MAGIC_NUMBER || header.getInt(4) != FORMAT_VERSION) {
+            channel.close();
+            throw new IOException(file.getCanonicalPath() + " is not a workspace log");
+        }
+
+        long size = channel.size();
+        long position = FILE_HEADER_LENGTH;
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        RecordBodyInputStream body = new RecordBodyInputStream(channel);
+        DataInputStream in = new DataInputStream(body);
+        while (position < size) {
+            recordHeader.clear();
+            boolean complete = readFully(channel, recordHeader, position);
+            int length = complete ? recordHeader.getInt(0) : 0;
+            complete = complete && length > 0 && position + RECORD_HEADER_LENGTH + length <= size;
+
+            if (!complete) {
+                // a partially written record, from a crash during an append that was never acknowledged
+                truncate(position);
+                break;
+            }
+
+            // only the record metadata is kept; the rest of the body (e.g. a workspace definition) is just checksummed
+            body.start(position + RECORD_HEADER_LENGTH, length);
+            Entry entry;
+            long metadataLength = 0;
+            IOException invalidRecord = null;
+            try {
+                entry = read(position, in);
+                metadataLength = body.getBytesRead();
+            } catch (IOException ioe) {
+                entry = null;
+                invalidRecord = ioe;
+            }
+
+            if (body.getChecksum() != recordHeader.getInt(4)) {
+                if (position + RECORD_HEADER_LENGTH + length == size) {
+                    truncate(position);
+                    break;
+                } else {
+                    channel.close();
+                    throw new IOException(file.getCanonicalPath() + " is corrupt at position " + position);
+                }
+            }
+
+            if (entry == null) {
+                channel.close();
+                throw invalidRecord;
+            }
+
+            apply(entry, position, length, metadataLength);
+            position += RECORD_HEADER_LENGTH + length;
+        }
+
+        channel.position(position);
+    }
+
+    private void truncate(long position) throws IOException {
+        channel.truncate(position);
+        channel.force(true);
+    }
+
+    /**
+     * Updates the in-memory entry for the workspace described by a record.
+     *
+     * @param body          the start of the record body, including at least the record metadata
+     * @param bodyLength    the length of the whole record body
+     */
+    private void apply(long position, byte[] body, int bodyLength) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(body);
+        Entry entry = read(position, new DataInputStream(in));
+        apply(entry, position, bodyLength, body.length - in.available());
+    }
+
+    /**
+     * @param entry             the entry returned by reading the record metadata
+     * @param bodyLength        the length of the whole record body
+     * @param metadataLength    the length of the record metadata at the start of the body
+     */
+    private void apply(Entry entry, long position, int bodyLength, long metadataLength) {
+        if (entry.credentialsPosition == position) {
+            entry.credentialsLength = RECORD_HEADER_LENGTH + bodyLength;
+        } else {
+            entry.workspaceLength = RECORD_HEADER_LENGTH + bodyLength;
+            entry.definitionOffset = position + RECORD_HEADER_LENGTH + metadataLength;
+            entry.definitionLength = bodyLength - metadataLength;
+        }
+
+        put(entry.workspaceSummary.getId(), entry);
+    }
+
+    /**
+     * Reads the metadata at the start of a record body, returning the in-memory entry for the workspace as it will be
+     * once the record has been applied (it isn't stored until then).
+     */
+    private Entry read(long position, DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long workspaceId = in.readLong();
+
+        Entry entry = getEntryForUpdate(workspaceId);
+        if (type == CREDENTIALS_RECORD) {
+            entry.key = readString(in);
+            entry.secret = readString(in);
+            entry.credentialsPosition = position;
+            entry.workspaceSummary.setKey(UUID.isUUID(entry.key));
+            entry.workspaceSummary.setSecret(UUID.isUUID(entry.secret));
+        } else if (type == WORKSPACE_RECORD) {
+            entry.contentEncoding = readString(in);
+            entry.workspaceSummary.setVersion(in.readLong());
+            entry.workspaceSummary.setLastModified(in.readLong());
+            entry.workspaceSummary.setSize(in.readLong());
+            entry.workspaceSummary.setData(in.readBoolean());
+            entry.workspaceSummary.setHash(readString(in));
+            entry.workspaceSummary.setName(readString(in));
+            readString(in); // description
+            readString(in); // thumbnail
+            entry.workspacePosition = position;
+        } else {
+            throw new IOException("Unknown record type " + type + " at position " + position);
+        }
+
+        return entry;
+    }
+
+    private Entry getEntryForUpdate(long workspaceId) {
+        Entry entry = entries.get(workspaceId);
+        return entry != null ? entry.copy() : new Entry(new WorkspaceSummary(workspaceId));
+    }
+
+    private void put(long workspaceId, Entry entry) {
+        Entry previousEntry = entries.put(workspaceId, entry);
+        synchronized (appendLock) {
+            liveBytes += entry.getLiveBytes() - (previousEntry != null ? previousEntry.getLiveBytes() : 0);
+        }
+    }
+
+    @Override
+    public Collection<WorkspaceSummary> getWorkspaces() {
+        Collection<WorkspaceSummary> workspaces = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            workspaces.add(new WorkspaceSummary(entry.workspaceSummary));
+        }
+
+        return workspaces;
+    }
+
+    @Override
+    public boolean workspaceExists(long workspaceId) {
+        return entries.containsKey(workspaceId);
+    }
+
+    @Override
+    public boolean createWorkspace(long workspaceId, String key, String secret) throws WorkspaceComponentException {
+        Lock lock = locks.get(workspaceId);
+        lock.lock();
+        try {
+            Entry entry = entries.get(workspaceId);
+            if (entry == null || entry.key == null) {
+                appendCredentials(workspaceId, key, secret);
+                return true;
+            } else {
+                return false;
+            }
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not create workspace " + workspaceId, ioe);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getWorkspace(long workspaceId) throws WorkspaceComponentException {
+        try {
+            try (WorkspaceResource workspaceResource = getWorkspaceResource(workspaceId)) {
+                return new String(WorkspaceResource.toByteArray(workspaceResource.getDecodedInputStream()), StandardCharsets.UTF_8);
+            }
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
+        }
+    }
+
+    @Override
+    public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+        // the file is opened while holding the lock, so the region can still be read if the file is then compacted
+        fileLock.readLock().lock();
+        try {
+            Entry entry = entries.get(workspaceId);
+            if (entry == null || entry.workspacePosition < 0) {
+                return new ByteBufferWorkspaceResource(EMPTY_WORKSPACE, null);
+            }
+
+            return new FileWorkspaceResource(file, entry.contentEncoding, entry.definitionOffset, entry.definitionLength).open();
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void putWorkspace(long workspaceId, String json) throws WorkspaceComponentException {
+        Lock lock = locks.get(workspaceId);
+        lock.lock();
+        try {
+            appendWorkspace(workspaceId, json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not put workspace " + workspaceId, ioe);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putWorkspace(long workspaceId, File file) throws WorkspaceComponentException {
+        putWorkspace(workspaceId, file, null);
+    }
+
+    @Override
+    public void putWorkspace(long workspaceId, File file, String hash) throws WorkspaceComponentException {
+        // the definition is streamed from the file, which belongs to this component, so it can't change in the meantime
+        Lock lock = locks.get(workspaceId);
+        lock.lock();
+        try {
+            appendWorkspace(workspaceId, file, hash);
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not put workspace " + workspaceId, ioe);
+        } finally {
+            lock.unlock();
+            file.delete();
+        }
+    }
+
+    @Override
+    public WorkspaceSummary getWorkspaceSummary(long workspaceId) {
+        Entry entry = entries.get(workspaceId);
+        return entry != null ? new WorkspaceSummary(entry.workspaceSummary) : null;
+    }
+
+    @Override
+    public String getApiKey(long workspaceId) throws WorkspaceComponentException {
+        Entry entry = entries.get(workspaceId);
+        if (entry != null && entry.key != null) {
+            return entry.key;
+        } else {
+            throw new WorkspaceComponentException("Could not find API key for workspace " + workspaceId);
+        }
+    }
+
+    @Override
+    public String getApiSecret(long workspaceId) throws WorkspaceComponentException {
+        Entry entry = entries.get(workspaceId);
+        if (entry != null && entry.secret != null) {
+            return entry.secret;
+        } else {
+            throw new WorkspaceComponentException("Could not find API secret for workspace " + workspaceId);
+        }
+    }
+
+    @Override
+    public WorkspaceResource getImage(long workspaceId, String name) throws WorkspaceComponentException {
+        if (name == null || name.contains("/") || name.contains("\\")) {
+            // only files directly inside the workspace directory can be served
+            return null;
+        }
+
+        // images aren't stored in the log, but can still be placed in a directory per workspace
+        File file = new File(layout.getDirectory(workspaceId), name);
+        if (file.isFile()) {
+            return new FileWorkspaceResource(file, null);
+        } else {
+            return null;
+        }
+    }
+
+    private void appendCredentials(long workspaceId, String key, String secret) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, key);
+        writeString(out, secret);
+
+        append(stage(workspaceId, CREDENTIALS_RECORD, bytes.toByteArray(), null));
+    }
+
+    private void appendWorkspace(long workspaceId, byte[] json) throws IOException {
+        WorkspaceSummaryScanner scanner = null;
+        try (Reader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8))) {
+            scanner = WorkspaceSummaryScanner.scan(reader);
+        } catch (IOException ioe) {
+            // the workspace is stored regardless, but without a name
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length + 256);
+        bytes.write(createWorkspaceMetadata(workspaceId, json.length, !Arrays.equals(json, EMPTY_WORKSPACE), Md5Hash.generate(json), scanner));
+        if (compressWorkspaces) {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(json);
+            }
+        } else {
+            bytes.write(json);
+        }
+
+        append(stage(workspaceId, WORKSPACE_RECORD, bytes.toByteArray(), null));
+    }
+
+    /**
+     * Appends the workspace definition in the given file, which is streamed into the log (via a temporary file
+     * when it's compressed), rather than being read into memory.
+     */
+    private void appendWorkspace(long workspaceId, File file, String hash) throws IOException {
+        long size = file.length();
+        boolean data = size != EMPTY_WORKSPACE.length || !Arrays.equals(Files.readAllBytes(file.toPath()), EMPTY_WORKSPACE);
+
+        // the summary is scanned, and the hash generated (if it hasn't been already), while reading the file once
+        WorkspaceSummaryScanner scanner = null;
+        MessageDigest digest = hash == null ? Md5Hash.createMessageDigest() : null;
+        try (InputStream in = digest != null ? new DigestInputStream(new FileInputStream(file), digest) : new FileInputStream(file)) {
+            try {
+                scanner = WorkspaceSummaryScanner.scan(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+            } catch (IOException ioe) {
+                // the workspace is stored regardless, but without a name
+            }
+
+            if (digest != null) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // the rest of the file is read for the hash
+                }
+                hash = Md5Hash.toHex(digest.digest());
+            }
+        }
+
+        byte[] metadata = createWorkspaceMetadata(workspaceId, size, data, hash, scanner);
+        if (compressWorkspaces) {
+            File stagingFile = File.createTempFile("workspace-" + workspaceId + "-", STAGING_FILENAME_SUFFIX, dataDirectory);
+            try {
+                try (InputStream in = new FileInputStream(file); OutputStream out = new GZIPOutputStream(new FileOutputStream(stagingFile))) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+
+                append(stage(workspaceId, WORKSPACE_RECORD, metadata, FileChannel.open(stagingFile.toPath(), StandardOpenOption.READ)));
+            } finally {
+                Files.deleteIfExists(stagingFile.toPath());
+            }
+        } else {
+            append(stage(workspaceId, WORKSPACE_RECORD, metadata, FileChannel.open(file.toPath(), StandardOpenOption.READ)));
+        }
+    }
+
+    private byte[] createWorkspaceMetadata(long workspaceId, long size, boolean data, String hash, WorkspaceSummaryScanner scanner) throws IOException {
+        Entry entry = entries.get(workspaceId);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, compressWorkspaces ? WorkspaceResource.GZIP : null);
+        out.writeLong(entry != null ? entry.workspaceSummary.getVersion() + 1 : 1);
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(size);
+        out.writeBoolean(data);
+        writeString(out, hash);
+        writeString(out, scanner != null ? scanner.getName() : null);
+        writeString(out, scanner != null ? scanner.getDescription() : null);
+        writeString(out, scanner != null ? scanner.getThumbnail() : null);
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Prepares a record to be appended, calculating its checksum; the record body consists of the given content,
+     * followed by everything in the (optional) payload file, which is closed along with the staged record.
+     */
+    private StagedRecord stage(long workspaceId, byte type, byte[] content, FileChannel payload) throws IOException {
+        try {
+            long payloadLength = payload != null ? payload.size() : 0;
+            if (1 + 8 + content.length + payloadLength > Integer.MAX_VALUE) {
+                throw new IOException("Workspace " + workspaceId + " is too large to be stored");
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + 1 + 8 + content.length);
+            record.putInt(1 + 8 + content.length + (int)payloadLength);
+            record.putInt(0);
+            record.put(type);
+            record.putLong(workspaceId);
+            record.put(content);
+
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), RECORD_HEADER_LENGTH, record.capacity() - RECORD_HEADER_LENGTH);
+            if (payload != null) {
+                ByteBuffer buffer = ByteBuffer.allocate(8192);
+                long position = 0;
+                while (position < payloadLength) {
+                    buffer.clear();
+                    int read = payload.read(buffer, position);
+                    if (read == -1) {
+                        throw new IOException("Workspace " + workspaceId + " changed while it was being stored");
+                    }
+                    crc.update(buffer.array(), 0, read);
+                    position += read;
+                }
+            }
+            record.putInt(4, (int)crc.getValue());
+            record.flip();
+
+            return new StagedRecord(record, payload, payloadLength);
+        } catch (IOException | RuntimeException e) {
+            if (payload != null) {
+                payload.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a record, returning once it has been synced to disk; the append lock is only held while it's written.
+     */
+    private void append(StagedRecord stagedRecord) throws IOException {
+        boolean compact;
+        try (StagedRecord record = stagedRecord) {
+            fileLock.readLock().lock();
+            try {
+                long position;
+                long bytes;
+                synchronized (appendLock) {
+                    position = channel.position();
+                    try {
+                        record.writeTo(channel);
+                    } catch (IOException ioe) {
+                        // remove anything that was written, so the next append starts at a record boundary
+                        channel.truncate(position);
+                        channel.position(position);
+                        throw ioe;
+                    }
+
+                    appendedBytes += record.getLength();
+                    bytes = appendedBytes;
+                }
+
+                // the read lock is held while syncing, so the file isn't replaced by a compaction in the meantime
+                if (!importing) {
+                    sync(bytes);
+                }
+
+                apply(position, record.getBody(), record.getBodyLength());
+
+                synchronized (appendLock) {
+                    long size = channel.position();
+                    compact = size >= minimumCompactionSize && size - FILE_HEADER_LENGTH - liveBytes > liveBytes;
+                }
+            } finally {
+                fileLock.readLock().unlock();
+            }
+        }
+
+        if (compact && compactionPending.compareAndSet(false, true)) {
+            executorService.execute(() -> {
+                try {
+                    compactionPending.set(false);
+                    compact();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until the file has been synced to disk up to the given number of appended bytes. Only one appender
+     * syncs the file at a time, which covers everything written so far; appends written in the meantime wait
+     * for that sync to finish, and are then synced together by the next one.
+     */
+    private void sync(long bytes) throws IOException {
+        synchronized (syncLock) {
+            while (syncedBytes < bytes && syncInProgress) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the workspace log to be synced");
+                }
+            }
+
+            if (syncedBytes >= bytes) {
+                return;
+            }
+            syncInProgress = true;
+        }
+
+        try {
+            FileChannel channelToSync;
+            long bytesToSync;
+            synchronized (appendLock) {
+                channelToSync = channel;
+                bytesToSync = appendedBytes;
+            }
+
+            channelToSync.force(false);
+
+            synchronized (syncLock) {
+                syncedBytes = Math.max(syncedBytes, bytesToSync);
+            }
+        } finally {
+            synchronized (syncLock) {
+                syncInProgress = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Copies the live records to a new file, which is then renamed over the existing file.
+     */
+    void compact() throws IOException {
+        fileLock.writeLock().lock();
+        try {
+            File temporaryFile = new File(dataDirectory, FILENAME + ".compacting");
+            FileChannel compactedChannel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Map<Long,Entry> compactedEntries = new ConcurrentSkipListMap<>();
+
+            try {
+                writeFileHeader(compactedChannel);
+                for (Entry entry : entries.values()) {
+                    Entry compactedEntry = entry.copy();
+                    if (entry.credentialsPosition >= 0) {
+                        compactedEntry.credentialsPosition = copy(entry.credentialsPosition, entry.credentialsLength, compactedChannel);
+                    }
+                    if (entry.workspacePosition >= 0) {
+                        compactedEntry.workspacePosition = copy(entry.workspacePosition, entry.workspaceLength, compactedChannel);
+                        compactedEntry.definitionOffset = entry.definitionOffset - entry.workspacePosition + compactedEntry.workspacePosition;
+                    }
+                    compactedEntries.put(entry.workspaceSummary.getId(), compactedEntry);
+                }
+                compactedChannel.force(true);
+
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                syncDirectory(dataDirectory);
+            } catch (IOException ioe) {
+                compactedChannel.close();
+                Files.deleteIfExists(temporaryFile.toPath());
+                throw ioe;
+            }
+
+            synchronized (appendLock) {
+                channel.close();
+                channel = compactedChannel;
+                entries.putAll(compactedEntries);
+            }
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    private long copy(long position, long length, FileChannel target) throws IOException {
+        long targetPosition = target.position();
+        long transferred = 0;
+        while (transferred < length) {
+            transferred += channel.transferTo(position + transferred, length - transferred, target);
+        }
+
+        return targetPosition;
+    }
+
+    long getSize() throws IOException {
+        synchronized (appendLock) {
+            return channel.size();
+        }
+    }
+
+    @Override
+    public void addInvalidationListener(LongConsumer listener) {
+        // everything is read from the log, which is only changed through this component
+    }
+
+    @Override
+    public void start() {
+        // the log is read when the component is created
+    }
+
+    @Override
+    public void stop() {
+        try {
+            close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    void close() throws IOException {
+        executorService.shutdown();
+        try {
+            // let a compaction in progress finish, rather than closing the file underneath it
+            executorService.awaitTermination(SHUTDOWN_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (appendLock) {
+            channel.close();
+        }
+    }
+
+    private static void writeFileHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+        header.putInt(MAGIC_NUMBER);
+        header.putInt(FORMAT_VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read == -1) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Syncs a directory, so that a rename within it is durable.
+     */
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ioe) {
+            // directories can't be opened (or synced) on all platforms (e.g. Windows)
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a record body from the file in fixed-size chunks, calculating the checksum of the whole body as it goes,
+     * so that a record can be checked without holding its body in memory. The same buffer is used for every record.
+     */
+    private static class RecordBodyInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        private final CRC32 crc = new CRC32();
+        private long start;
+        private long position;
+        private long end;
+
+        private RecordBodyInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void start(long position, int length) {
+            this.start = position;
+            this.position = position;
+            this.end = position + length;
+            buffer.clear();
+            buffer.limit(0);
+            crc.reset();
+        }
+
+        private long getBytesRead() {
+            return position - start - buffer.remaining();
+        }
+
+        /**
+         * The checksum of the whole body, including anything that hasn't been read.
+         */
+        private int getChecksum() throws IOException {
+            while (position < end) {
+                buffer.position(buffer.limit());
+                fill();
+            }
+
+            return (int)crc.getValue();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            } else if (!fill()) {
+                return -1;
+            }
+
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int)Math.min(buffer.remaining() + end - position, Integer.MAX_VALUE);
+        }
+
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            } else if (position >= end) {
+                return false;
+            }
+
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), end - position));
+            if (!readFully(channel, buffer, position)) {
+                throw new EOFException();
+            }
+            buffer.flip();
+
+            crc.update(buffer.array(), 0, buffer.limit());
+            position += buffer.limit();
+            return true;
+        }
+
+    }
+
+    /**
+     * A record that's ready to be appended: the record header and the start of the body are held in memory,
+     * and the rest of the body (a workspace definition) may be in a file.
+     */
+    private static class StagedRecord implements Closeable {
+
+        private final ByteBuffer record;
+        private final FileChannel payload;
+        private final long payloadLength;
+
+        private StagedRecord(ByteBuffer record, FileChannel payload, long payloadLength) {
+            this.record = record;
+            this.payload = payload;
+            this.payloadLength = payloadLength;
+        }
+
+        private byte[] getBody() {
+            return Arrays.copyOfRange(record.array(), RECORD_HEADER_LENGTH, record.capacity());
+        }
+
+        private int getBodyLength() {
+            return record.getInt(0);
+        }
+
+        private long getLength() {
+            return RECORD_HEADER_LENGTH + getBodyLength();
+        }
+
+        private void writeTo(FileChannel channel) throws IOException {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+
+            long position = 0;
+            while (position < payloadLength) {
+                long transferred = payload.transferTo(position, payloadLength - position, channel);
+                if (transferred == 0 && position >= payload.size()) {
+                    throw new IOException("The workspace definition has been truncated");
+                }
+                position += transferred;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (payload != null) {
+                payload.close();
+            }
+        }
+
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        } else if (length > in.available()) {
+            // the record is corrupt, so the string would run past the end of it
+            throw new EOFException();
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.structurizr.onpremises.workspace;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers for generating the MD5 hashes of workspace definitions, as lowercase hex strings. The API encodes
+ * its digests (and HMACs) with the same encoder, so a digest generated there can be stored as-is.
+ */
+public final class Md5Hash {
+
+    private static final char[] HEX_CHARACTERS = "0123456789abcdef".toCharArray();
+
+    private Md5Hash() {
+    }
+
+    static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String generate(byte[] bytes) {
+        return toHex(createMessageDigest().digest(bytes));
+    }
+
+    /**
+     * Encodes the given bytes as a lowercase hex string.
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_CHARACTERS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_CHARACTERS[bytes[i] & 0xf];
+        }
+
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.structurizr.onpremises.workspace;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks that are shared between workspaces by hashing the workspace ID, so that
+ * writes to the same workspace are serialised, while writes to different workspaces can (almost
+ * always) proceed in parallel. Readers don't take these locks.
+ */
+class StripedLock {
+
+    private final Lock[] locks;
+
+    /**
+     * @param minimumNumberOfStripes    the minimum number of locks (rounded up to a power of two)
+     */
+    StripedLock(int minimumNumberOfStripes) {
+        int numberOfStripes = 1;
+        while (numberOfStripes < minimumNumberOfStripes) {
+            numberOfStripes <<= 1;
+        }
+
+        locks = new Lock[numberOfStripes];
+        for (int i = 0; i < numberOfStripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    Lock get(long workspaceId) {
+        // spread the bits, so that sequential workspace IDs don't cluster
+        long hash = workspaceId * 0x9E3779B97F4A7C15L;
+        return locks[(int)(hash ^ (hash >>> 32)) & (locks.length - 1)];
+    }
+
+    int getNumberOfStripes() {
+        return locks.length;
+    }
+
+}
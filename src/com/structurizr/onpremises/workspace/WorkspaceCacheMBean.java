@@ -0,0 +1,20 @@
+package com.structurizr.onpremises.workspace;
+
+/**
+ * Exposes the workspace cache statistics via JMX, so that the cache can be sized.
+ */
+public interface WorkspaceCacheMBean {
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    int getNumberOfWorkspaces();
+
+    long getSize();
+
+    long getMaximumSize();
+
+}
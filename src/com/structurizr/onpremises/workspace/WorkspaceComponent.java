@@ -2,9 +2,11 @@ package com.structurizr.onpremises.workspace;
 
 import com.structurizr.annotation.Component;
 
-import java.awt.image.RenderedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collection;
+import java.util.function.LongConsumer;
 
 /**
  * Responsible for managing workspace information (workspace definitions plus API keys and secrets).
@@ -14,23 +16,130 @@ public interface WorkspaceComponent {
 
     public Collection<WorkspaceSummary> getWorkspaces();
 
+    /**
+     * Whether the given workspace has been created (or has been stored outside of the API), without touching the disk where possible.
+     */
+    public boolean workspaceExists(long workspaceId) throws WorkspaceComponentException;
+
     public boolean createWorkspace(long workspaceId, String key, String secret) throws WorkspaceComponentException;
 
     public String getWorkspace(long workspaceId) throws WorkspaceComponentException;
 
+    public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException;
+
     public void putWorkspace(long workspaceId, String json) throws WorkspaceComponentException;
 
+    /**
+     * Puts the JSON workspace definition in the given file, which is moved (or copied and deleted) into place.
+     */
+    public void putWorkspace(long workspaceId, File file) throws WorkspaceComponentException;
+
+    /**
+     * Puts the JSON workspace definition in the given file, as above, along with its MD5 hash (as a lowercase hex string)
+     * that has already been generated as it was received, so that the file doesn't need to be read again to hash it.
+     */
+    default void putWorkspace(long workspaceId, File file, String hash) throws WorkspaceComponentException {
+        putWorkspace(workspaceId, file);
+    }
+
+    /**
+     * Gets the summary of a single workspace (including the hash and version of its definition), from metadata alone.
+     */
+    public WorkspaceSummary getWorkspaceSummary(long workspaceId) throws WorkspaceComponentException;
+
     public String getApiKey(long workspaceId) throws WorkspaceComponentException;
 
     public String getApiSecret(long workspaceId) throws WorkspaceComponentException;
 
-    public RenderedImage getImage(long workspaceId, String name) throws WorkspaceComponentException;
+    /**
+     * Gets an image stored alongside the workspace definition, as-is.
+     *
+     * @return  a WorkspaceResource, or null if the image doesn't exist
+     */
+    public WorkspaceResource getImage(long workspaceId, String name) throws WorkspaceComponentException;
+
+    /**
+     * Adds a listener that's called with the ID of each workspace changed outside of the API (e.g. a key.txt file
+     * being rotated), so that anything derived from its API credentials or definition can be discarded.
+     */
+    public void addInvalidationListener(LongConsumer listener);
+
+    /**
+     * Prepares the component for use (e.g. by loading the workspace index), so that the first requests don't have to;
+     * called once, before the component is shared between servlets.
+     */
+    public void start() throws WorkspaceComponentException;
+
+    /**
+     * Completes any outstanding work (e.g. queued writes and summary updates), and releases the resources held
+     * by the component; called once, after the servlets have been taken out of service.
+     */
+    public void stop();
 
     /**
      * A simple factory method to create a component instance.
      */
     static WorkspaceComponent create(String dataDirectory) {
-        return new FileSystemWorkspaceComponent(new File(dataDirectory));
+        return create(new WorkspaceComponentConfiguration(dataDirectory));
+    }
+
+    /**
+     * Creates a component instance for the configured storage; file system storage is wrapped with an
+     * in-memory cache if one has been configured, and with a write-ahead log if that has been configured.
+     */
+    static WorkspaceComponent create(WorkspaceComponentConfiguration configuration) {
+        File dataDirectory = new File(configuration.getDataDirectory());
+
+        if (WorkspaceComponentConfiguration.LOG_STRUCTURED_STORAGE.equals(configuration.getStorage())) {
+            try {
+                return new LogStructuredWorkspaceComponent(dataDirectory, configuration.isCompressWorkspaces());
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Could not open the workspace log in " + dataDirectory.getAbsolutePath(), ioe);
+            }
+        } else if (!WorkspaceComponentConfiguration.FILE_SYSTEM_STORAGE.equals(configuration.getStorage()) && !WorkspaceComponentConfiguration.WRITE_AHEAD_LOG_STORAGE.equals(configuration.getStorage())) {
+            throw new IllegalArgumentException("Unknown storage: " + configuration.getStorage());
+        }
+
+        boolean shardDirectories;
+        if (WorkspaceComponentConfiguration.SHARDED_LAYOUT.equals(configuration.getDataDirectoryLayout())) {
+            shardDirectories = true;
+        } else if (WorkspaceComponentConfiguration.FLAT_LAYOUT.equals(configuration.getDataDirectoryLayout())) {
+            shardDirectories = false;
+        } else {
+            throw new IllegalArgumentException("Unknown data directory layout: " + configuration.getDataDirectoryLayout());
+        }
+
+        FileSystemWorkspaceComponent fileSystemWorkspaceComponent = new FileSystemWorkspaceComponent(dataDirectory, configuration.isCompressWorkspaces(), shardDirectories);
+        WorkspaceComponent workspaceComponent = fileSystemWorkspaceComponent;
+        CachingWorkspaceComponent cachingWorkspaceComponent = null;
+
+        if (configuration.getWorkspaceCacheSize() > 0) {
+            cachingWorkspaceComponent = new CachingWorkspaceComponent(fileSystemWorkspaceComponent, configuration.getWorkspaceCacheSize());
+            cachingWorkspaceComponent.registerMBean();
+            workspaceComponent = cachingWorkspaceComponent;
+        }
+
+        if (WorkspaceComponentConfiguration.WATCH_DATA_DIRECTORY.equals(configuration.getDataDirectoryWatcher())) {
+            fileSystemWorkspaceComponent.watchDataDirectory(false);
+        } else if (WorkspaceComponentConfiguration.POLL_DATA_DIRECTORY.equals(configuration.getDataDirectoryWatcher())) {
+            fileSystemWorkspaceComponent.watchDataDirectory(true);
+        } else if (!WorkspaceComponentConfiguration.IGNORE_DATA_DIRECTORY.equals(configuration.getDataDirectoryWatcher())) {
+            throw new IllegalArgumentException("Unknown data directory watcher: " + configuration.getDataDirectoryWatcher());
+        }
+
+        if (configuration.getWarmUpSize() > 0) {
+            fileSystemWorkspaceComponent.setWarmUp(new WorkspaceWarmUp(fileSystemWorkspaceComponent, cachingWorkspaceComponent, configuration.getWarmUpSize()));
+        }
+
+        if (WorkspaceComponentConfiguration.WRITE_AHEAD_LOG_STORAGE.equals(configuration.getStorage())) {
+            try {
+                workspaceComponent = new WriteAheadLogWorkspaceComponent(workspaceComponent, dataDirectory);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Could not open the write-ahead log in " + dataDirectory.getAbsolutePath(), ioe);
+            }
+        }
+
+        return workspaceComponent;
     }
 
 }
@@ -0,0 +1,106 @@
+package com.structurizr.onpremises.workspace;
+
+/**
+ * The configuration used to create a workspace component.
+ */
+public class WorkspaceComponentConfiguration {
+
+    public static final String FILE_SYSTEM_STORAGE = "filesystem";
+    public static final String WRITE_AHEAD_LOG_STORAGE = "wal";
+    public static final String LOG_STRUCTURED_STORAGE = "log";
+
+    public static final String FLAT_LAYOUT = WorkspaceDirectoryLayout.FLAT;
+    public static final String SHARDED_LAYOUT = WorkspaceDirectoryLayout.SHARDED;
+
+    public static final String WATCH_DATA_DIRECTORY = "watch";
+    public static final String POLL_DATA_DIRECTORY = "poll";
+    public static final String IGNORE_DATA_DIRECTORY = "none";
+
+    private String dataDirectory;
+    private long workspaceCacheSize;
+    private boolean compressWorkspaces;
+    private String storage = FILE_SYSTEM_STORAGE;
+    private String dataDirectoryLayout = FLAT_LAYOUT;
+    private long warmUpSize;
+    private String dataDirectoryWatcher = IGNORE_DATA_DIRECTORY;
+
+    public WorkspaceComponentConfiguration(String dataDirectory) {
+        this.dataDirectory = dataDirectory;
+    }
+
+    public String getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * The maximum number of bytes of workspace data to hold in memory (0 disables the cache).
+     */
+    public long getWorkspaceCacheSize() {
+        return workspaceCacheSize;
+    }
+
+    public void setWorkspaceCacheSize(long workspaceCacheSize) {
+        this.workspaceCacheSize = workspaceCacheSize;
+    }
+
+    /**
+     * Whether workspace definitions are stored gzip compressed.
+     */
+    public boolean isCompressWorkspaces() {
+        return compressWorkspaces;
+    }
+
+    public void setCompressWorkspaces(boolean compressWorkspaces) {
+        this.compressWorkspaces = compressWorkspaces;
+    }
+
+    /**
+     * How workspaces are stored: "filesystem" (as a directory of files per workspace), "wal" (the same, with puts
+     * appended to a write-ahead log first) or "log" (as records in a single log-structured file).
+     */
+    public String getStorage() {
+        return storage;
+    }
+
+    public void setStorage(String storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * How workspace directories are laid out in the data directory: "flat" (one sub-directory per workspace)
+     * or "sharded" (in two levels of hash buckets, with existing workspaces migrated in the background).
+     */
+    public String getDataDirectoryLayout() {
+        return dataDirectoryLayout;
+    }
+
+    public void setDataDirectoryLayout(String dataDirectoryLayout) {
+        this.dataDirectoryLayout = dataDirectoryLayout;
+    }
+
+    /**
+     * The maximum number of bytes of the most recently modified workspaces to read into the cache on startup,
+     * after building the workspace index in parallel (0 disables the warm-up).
+     */
+    public long getWarmUpSize() {
+        return warmUpSize;
+    }
+
+    public void setWarmUpSize(long warmUpSize) {
+        this.warmUpSize = warmUpSize;
+    }
+
+    /**
+     * How changes made to the data directory outside of the API are detected, so that the workspace cache, API
+     * credentials and workspace index are updated: "watch" (using a WatchService, falling back to polling if that
+     * isn't supported), "poll" (checking every workspace directory periodically) or "none" (the default).
+     */
+    public String getDataDirectoryWatcher() {
+        return dataDirectoryWatcher;
+    }
+
+    public void setDataDirectoryWatcher(String dataDirectoryWatcher) {
+        this.dataDirectoryWatcher = dataDirectoryWatcher;
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Maps workspace IDs to workspace directories. The original (flat) layout has one sub-directory per workspace
+ * in the data directory, while the sharded layout spreads the workspace directories over two levels of hash
+ * buckets (e.g. workspaces/3f/a2/1234), so that no single directory becomes too large to list or search.
+ *
+ * When the sharded layout is used, workspaces that are still in the flat layout (i.e. haven't yet been
+ * migrated) are found there. A workspace directory is moved between the layouts with a single rename, so
+ * looking in the sharded layout again after the flat layout always finds a workspace that is being migrated.
+ */
+class WorkspaceDirectoryLayout {
+
+    static final String FLAT = "flat";
+    static final String SHARDED = "sharded";
+
+    static final String SHARDS_DIRECTORY_NAME = "workspaces";
+
+    private static final long MINIMUM_AGE_OF_RELIABLE_TIMESTAMPS_IN_MILLISECONDS = 2000;
+
+    private final File dataDirectory;
+    private final File shardsDirectory;
+    private final boolean sharded;
+
+    WorkspaceDirectoryLayout(File dataDirectory, boolean sharded) {
+        this.dataDirectory = dataDirectory;
+        this.shardsDirectory = new File(dataDirectory, SHARDS_DIRECTORY_NAME);
+        this.sharded = sharded;
+    }
+
+    boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Gets the directory for the given workspace; this is where the workspace is currently stored,
+     * or where it should be created if it doesn't exist.
+     */
+    File getDirectory(long workspaceId) {
+        File flatDirectory = getFlatDirectory(workspaceId);
+        if (!sharded) {
+            return flatDirectory;
+        }
+
+        File shardedDirectory = getShardedDirectory(workspaceId);
+        if (!shardedDirectory.exists() && flatDirectory.exists()) {
+            return flatDirectory;
+        } else {
+            // the workspace is in the sharded layout (or was migrated between the two checks), or doesn't exist yet
+            return shardedDirectory;
+        }
+    }
+
+    File getFlatDirectory(long workspaceId) {
+        return new File(dataDirectory, "" + workspaceId);
+    }
+
+    File getShardedDirectory(long workspaceId) {
+        int hash = hash(workspaceId);
+        String firstLevel = String.format("%02x", (hash >>> 24) & 0xff);
+        String secondLevel = String.format("%02x", (hash >>> 16) & 0xff);
+
+        return new File(new File(new File(shardsDirectory, firstLevel), secondLevel), "" + workspaceId);
+    }
+
+    /**
+     * Lists the IDs of the workspaces in both layouts.
+     */
+    Set<Long> getWorkspaceIds() {
+        Set<Long> workspaceIds = getFlatWorkspaceIds();
+
+        File[] firstLevelBuckets = shardsDirectory.listFiles(File::isDirectory);
+        if (firstLevelBuckets != null) {
+            // the buckets are listed in parallel, in the fork-join pool of the caller if it has one
+            workspaceIds.addAll(Arrays.stream(firstLevelBuckets).parallel()
+                    .flatMap(firstLevelBucket -> listDirectories(firstLevelBucket).stream())
+                    .flatMap(secondLevelBucket -> {
+                        Set<Long> bucketWorkspaceIds = new TreeSet<>();
+                        addWorkspaceIds(secondLevelBucket, bucketWorkspaceIds);
+                        return bucketWorkspaceIds.stream();
+                    })
+                    .collect(Collectors.toList()));
+        }
+
+        return workspaceIds;
+    }
+
+    private List<File> listDirectories(File directory) {
+        File[] directories = directory.listFiles(File::isDirectory);
+        return directories != null ? Arrays.asList(directories) : Collections.emptyList();
+    }
+
+    /**
+     * Lists the IDs of the workspaces in the flat layout.
+     */
+    Set<Long> getFlatWorkspaceIds() {
+        Set<Long> workspaceIds = new TreeSet<>();
+        addWorkspaceIds(dataDirectory, workspaceIds);
+
+        return workspaceIds;
+    }
+
+    private void addWorkspaceIds(File directory, Set<Long> workspaceIds) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file != null && file.getName().matches("\\d+") && file.isDirectory()) {
+                    workspaceIds.add(Long.parseLong(file.getName()));
+                }
+            }
+        }
+    }
+
+    /**
+     * A value that changes when workspaces are added to (or removed from) either layout, including by migration
+     * and outside of the API; used to avoid re-listing the workspace directories when the server is restarted.
+     * Adding a workspace directory only changes the last modified timestamp of the directory (or hash bucket) that
+     * it's in, so this combines the timestamps of the data directory and every bucket, which means listing the
+     * buckets (but not their contents); it's too slow to be used while the server is handling requests.
+     *
+     * @return  the combined timestamps, or -1 if any of them are too recent to rely on
+     */
+    long getLastModified() {
+        List<File> directories = new ArrayList<>();
+        directories.add(dataDirectory);
+        directories.add(shardsDirectory);
+        for (File firstLevelBucket : listDirectories(shardsDirectory)) {
+            directories.add(firstLevelBucket);
+            directories.addAll(listDirectories(firstLevelBucket));
+        }
+
+        // summed, rather than taking the latest, so a change to any bucket is seen even if it has an earlier timestamp
+        long lastModified = 0;
+        long now = System.currentTimeMillis();
+        for (File directory : directories) {
+            long directoryLastModified = directory.lastModified();
+            if (isTooRecent(directoryLastModified, now)) {
+                return -1;
+            }
+            lastModified += directoryLastModified;
+        }
+
+        return lastModified;
+    }
+
+    /**
+     * A value that changes when workspaces are added to (or removed from) the flat layout.
+     *
+     * @return  the last modified timestamp of the data directory, or -1 if it's too recent to rely on
+     */
+    long getDataDirectoryLastModified() {
+        long lastModified = dataDirectory.lastModified();
+        return isTooRecent(lastModified, System.currentTimeMillis()) ? -1 : lastModified;
+    }
+
+    /**
+     * Timestamps may only have a precision of a second, so a directory changed again in the same second as its
+     * timestamp was read would appear to be unchanged.
+     */
+    private static boolean isTooRecent(long lastModified, long now) {
+        return now - lastModified < MINIMUM_AGE_OF_RELIABLE_TIMESTAMPS_IN_MILLISECONDS;
+    }
+
+    private static int hash(long workspaceId) {
+        // spread sequential workspace IDs over the buckets
+        int hash = (int)(workspaceId ^ (workspaceId >>> 32));
+        return hash * 0x9e3779b1;
+    }
+
+}
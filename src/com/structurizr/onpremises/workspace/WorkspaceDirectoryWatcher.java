@@ -0,0 +1,367 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the data directory for changes made outside of the API (e.g. API keys being rotated, or workspace
+ * definitions being restored from a backup), and reports the IDs of the workspaces that have changed, so that
+ * anything held in memory for them can be invalidated. The data directory, the hash buckets and every workspace
+ * directory are registered with a WatchService; if that's not possible (e.g. the file system doesn't support it,
+ * or the limit on the number of watches has been reached), the workspace directories are polled instead. Both of
+ * these are done on the watcher's own thread, so that starting it doesn't hold up the server.
+ * Temporary files are ignored, as are the directories in the data directory that aren't workspaces (e.g. the
+ * workspace index and the write-ahead log).
+ */
+class WorkspaceDirectoryWatcher {
+
+    static final long DEFAULT_POLLING_INTERVAL_IN_MILLISECONDS = 10000;
+
+    private static final String[] POLLED_FILENAMES = { "key.txt", "secret.txt", "workspace.json", "workspace.json.gz", "workspace.properties" };
+
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    interface Listener {
+
+        /**
+         * @param filename  the name of the file in the workspace directory that has changed, or null if the
+         *                  workspace directory itself has been added, removed or moved (or anything may have changed)
+         */
+        void workspaceChanged(long workspaceId, String filename);
+
+    }
+
+    private enum DirectoryType {
+        DATA, SHARDS, FIRST_LEVEL_BUCKET, SECOND_LEVEL_BUCKET, WORKSPACE
+    }
+
+    private static final class WatchedDirectory {
+
+        private final DirectoryType type;
+        private final Path path;
+        private final long workspaceId;
+
+        private WatchedDirectory(DirectoryType type, Path path, long workspaceId) {
+            this.type = type;
+            this.path = path;
+            this.workspaceId = workspaceId;
+        }
+
+    }
+
+    private final File dataDirectory;
+    private final WorkspaceDirectoryLayout layout;
+    private final Listener listener;
+    private final long pollingIntervalInMilliseconds;
+
+    private volatile boolean polling;
+    private volatile boolean running;
+    private volatile WatchService watchService;
+    private final Map<WatchKey,WatchedDirectory> watchedDirectories = new ConcurrentHashMap<>();
+    private Map<Long,long[]> fingerprints;
+    private Thread thread;
+    private CountDownLatch started;
+
+    /**
+     * @param listener      called with each workspace file that has changed (possibly more than once per change)
+     * @param polling       whether to poll the workspace directories, rather than using a WatchService
+     */
+    WorkspaceDirectoryWatcher(File dataDirectory, WorkspaceDirectoryLayout layout, Listener listener, boolean polling) {
+        this(dataDirectory, layout, listener, polling, DEFAULT_POLLING_INTERVAL_IN_MILLISECONDS);
+    }
+
+    WorkspaceDirectoryWatcher(File dataDirectory, WorkspaceDirectoryLayout layout, Listener listener, boolean polling, long pollingIntervalInMilliseconds) {
+        this.dataDirectory = dataDirectory;
+        this.layout = layout;
+        this.listener = listener;
+        this.polling = polling;
+        this.pollingIntervalInMilliseconds = pollingIntervalInMilliseconds;
+    }
+
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        started = new CountDownLatch(1);
+
+        thread = new Thread(this::run, "structurizr-workspace-directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void stop() {
+        running = false;
+        closeWatchService();
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(pollingIntervalInMilliseconds);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    boolean isPolling() {
+        return polling;
+    }
+
+    /**
+     * Waits for the directories to be registered, or the first poll to have been made.
+     *
+     * @return  true if the watcher has started, false if the timeout elapsed first
+     */
+    boolean awaitStarted(long timeoutInMilliseconds) throws InterruptedException {
+        return started.await(timeoutInMilliseconds, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        if (!polling) {
+            try {
+                watchService = dataDirectory.toPath().getFileSystem().newWatchService();
+                registerAll();
+            } catch (IOException | UnsupportedOperationException e) {
+                startPolling(e);
+            }
+        }
+
+        if (polling) {
+            try {
+                poll();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        started.countDown();
+
+        while (running) {
+            try {
+                if (polling) {
+                    Thread.sleep(pollingIntervalInMilliseconds);
+                    poll();
+                } else {
+                    WatchKey watchKey = watchService.take();
+                    try {
+                        process(watchKey);
+                    } catch (IOException e) {
+                        // a new directory couldn't be watched, so everything is polled from now on
+                        startPolling(e);
+                        poll();
+                        reportAll();
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // stopped
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        // the watcher may have been stopped before the WatchService was created
+        closeWatchService();
+    }
+
+    private void reportAll() {
+        for (long workspaceId : layout.getWorkspaceIds()) {
+            listener.workspaceChanged(workspaceId, null);
+        }
+    }
+
+    private void startPolling(Exception e) {
+        System.err.println("Could not watch " + dataDirectory.getAbsolutePath() + " for changes (" + e + "), so every workspace directory will be polled every " + TimeUnit.MILLISECONDS.toSeconds(pollingIntervalInMilliseconds) + " second(s) instead; set dataDirectoryWatcher to poll or none to avoid this");
+        closeWatchService();
+        polling = true;
+    }
+
+    private void closeWatchService() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+        watchedDirectories.clear();
+    }
+
+    private void registerAll() throws IOException {
+        register(dataDirectory.toPath(), DirectoryType.DATA, 0, false);
+        for (long workspaceId : layout.getFlatWorkspaceIds()) {
+            register(layout.getFlatDirectory(workspaceId).toPath(), DirectoryType.WORKSPACE, workspaceId, false);
+        }
+
+        File shardsDirectory = new File(dataDirectory, WorkspaceDirectoryLayout.SHARDS_DIRECTORY_NAME);
+        if (shardsDirectory.isDirectory()) {
+            register(shardsDirectory.toPath(), DirectoryType.SHARDS, 0, false);
+        }
+    }
+
+    /**
+     * Registers a directory, and the directories inside it (so that any created before it was registered are found).
+     *
+     * @param created   whether the directory has just been created, in which case new workspace directories are reported
+     */
+    private void register(Path path, DirectoryType type, long workspaceId, boolean created) throws IOException {
+        WatchKey watchKey = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirectories.put(watchKey, new WatchedDirectory(type, path, workspaceId));
+        if (type == DirectoryType.WORKSPACE && created) {
+            listener.workspaceChanged(workspaceId, null);
+        }
+
+        if (type == DirectoryType.SHARDS || type == DirectoryType.FIRST_LEVEL_BUCKET || type == DirectoryType.SECOND_LEVEL_BUCKET) {
+            File[] directories = path.toFile().listFiles(File::isDirectory);
+            if (directories != null) {
+                for (File directory : directories) {
+                    registerChild(new WatchedDirectory(type, path, 0), directory.toPath(), created);
+                }
+            }
+        }
+    }
+
+    private void registerChild(WatchedDirectory parent, Path child, boolean created) throws IOException {
+        String name = child.getFileName().toString();
+
+        switch (parent.type) {
+            case DATA:
+                if (name.equals(WorkspaceDirectoryLayout.SHARDS_DIRECTORY_NAME)) {
+                    register(child, DirectoryType.SHARDS, 0, created);
+                } else if (name.matches("\\d+")) {
+                    register(child, DirectoryType.WORKSPACE, Long.parseLong(name), created);
+                }
+                break;
+            case SHARDS:
+                register(child, DirectoryType.FIRST_LEVEL_BUCKET, 0, created);
+                break;
+            case FIRST_LEVEL_BUCKET:
+                register(child, DirectoryType.SECOND_LEVEL_BUCKET, 0, created);
+                break;
+            case SECOND_LEVEL_BUCKET:
+                if (name.matches("\\d+")) {
+                    register(child, DirectoryType.WORKSPACE, Long.parseLong(name), created);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void process(WatchKey watchKey) throws IOException {
+        WatchedDirectory watchedDirectory = watchedDirectories.get(watchKey);
+
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (watchedDirectory == null) {
+                break;
+            }
+
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events have been lost, so anything could have changed
+                registerAll();
+                reportAll();
+                continue;
+            }
+
+            Path child = watchedDirectory.path.resolve((Path)event.context());
+            String name = child.getFileName().toString();
+            if (watchedDirectory.type == DirectoryType.WORKSPACE) {
+                // temporary files are only renamed into place (which is reported) once they've been written
+                if (!name.endsWith(TEMPORARY_FILE_SUFFIX)) {
+                    listener.workspaceChanged(watchedDirectory.workspaceId, name);
+                }
+            } else {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && child.toFile().isDirectory()) {
+                    registerChild(watchedDirectory, child, true);
+                }
+
+                if ((watchedDirectory.type == DirectoryType.DATA || watchedDirectory.type == DirectoryType.SECOND_LEVEL_BUCKET) && name.matches("\\d+")) {
+                    // a workspace directory has been added, removed or moved
+                    listener.workspaceChanged(Long.parseLong(name), null);
+                }
+            }
+        }
+
+        if (!watchKey.reset()) {
+            // the directory has been removed
+            watchedDirectories.remove(watchKey);
+        }
+    }
+
+    /**
+     * Compares the fingerprints of the files that matter in every workspace directory with the previous poll.
+     */
+    private void poll() {
+        Map<Long,long[]> currentFingerprints = new HashMap<>();
+        for (long workspaceId : layout.getWorkspaceIds()) {
+            File directory = layout.getDirectory(workspaceId);
+            long[] fingerprints = new long[POLLED_FILENAMES.length];
+            for (int i = 0; i < POLLED_FILENAMES.length; i++) {
+                fingerprints[i] = fingerprint(new File(directory, POLLED_FILENAMES[i]));
+            }
+            currentFingerprints.put(workspaceId, fingerprints);
+        }
+
+        if (fingerprints != null) {
+            Set<Long> workspaceIds = new HashSet<>(fingerprints.keySet());
+            workspaceIds.addAll(currentFingerprints.keySet());
+            for (long workspaceId : workspaceIds) {
+                long[] previous = fingerprints.get(workspaceId);
+                long[] current = currentFingerprints.get(workspaceId);
+                if (previous == null || current == null) {
+                    listener.workspaceChanged(workspaceId, null);
+                } else {
+                    for (int i = 0; i < POLLED_FILENAMES.length; i++) {
+                        if (previous[i] != current[i]) {
+                            listener.workspaceChanged(workspaceId, POLLED_FILENAMES[i]);
+                        }
+                    }
+                }
+            }
+        }
+
+        fingerprints = currentFingerprints;
+    }
+
+    /**
+     * A fingerprint of the given file (its last modified timestamp and size, and its change time where the file system
+     * has one), so that a file restored with the same last modified timestamp and size is still seen to have changed.
+     */
+    static long fingerprint(File file) {
+        long fingerprint = 31 * file.lastModified() + file.length();
+        if (supportsChangeTime(file)) {
+            try {
+                FileTime changeTime = (FileTime)Files.getAttribute(file.toPath(), "unix:ctime");
+                fingerprint = 31 * fingerprint + changeTime.to(TimeUnit.NANOSECONDS);
+            } catch (IOException e) {
+                // the file doesn't exist
+            }
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * Whether the file system records when each file was last changed (unlike the last modified timestamp, this can't
+     * be set, so it changes when a file is restored from a backup).
+     */
+    static boolean supportsChangeTime(File file) {
+        return file.toPath().getFileSystem().supportedFileAttributeViews().contains("unix");
+    }
+
+}
@@ -0,0 +1,501 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * A persistent index of workspace summaries, so that listing the workspaces doesn't require
+ * reading the files for every workspace.
+ *
+ * The index is stored as an append-only journal of summary records in a sub-directory of the data directory
+ * (so that writing it doesn't change the last modified timestamp of the data directory), and is read sequentially
+ * on startup (the last record for a given workspace wins). When the journal contains too many superseded records,
+ * or the index is closed, it's compacted by rewriting it as a snapshot. While the index is open, it learns about
+ * new workspaces from the API and from invalidations (e.g. a workspace directory reported by the watcher); the
+ * workspace directories in the data directory itself (the flat layout) are also re-listed whenever its last
+ * modified timestamp changes, but the hash buckets are only listed when the index is loaded and closed.
+ *
+ * The snapshot written when the index is closed records the last modified timestamps of the data directory and
+ * the hash buckets, so that a restart doesn't need to list the workspace directories if nothing has been added or
+ * removed in the meantime. Each record includes the
+ * last modified timestamp of the workspace directory, and summaries read on startup are re-validated against it
+ * when they're first used, so a restart doesn't need to read every workspace directory either.
+ */
+class WorkspaceIndex {
+
+    static final String DIRECTORY_NAME = "index";
+    static final String FILENAME = "workspaces.index";
+
+    private static final int MAGIC_NUMBER = 0x53495758;
+    private static final int FORMAT_VERSION = 3;
+
+    private static final int KEY = 1;
+    private static final int SECRET = 2;
+    private static final int DATA = 4;
+    private static final int NAME = 8;
+    private static final int HASH = 16;
+    private static final int DELETED = 128;
+
+    private static final int MAXIMUM_NAME_LENGTH = 1000;
+    private static final int MINIMUM_RECORDS_BEFORE_COMPACTION = 100;
+    private static final long DEFAULT_REFRESH_INTERVAL_IN_MILLISECONDS = 5000;
+
+    private final File dataDirectory;
+    private final WorkspaceDirectoryLayout layout;
+    private final File directory;
+    private final File file;
+    private final LongFunction<WorkspaceSummary> loader;
+
+    private final ConcurrentSkipListMap<Long,WorkspaceSummary> workspaces = new ConcurrentSkipListMap<>();
+    private DataOutputStream journal;
+    private int numberOfRecords;
+    private volatile boolean loaded = false;
+
+    // the last modified timestamp(s) of the layout as a whole, when it was last listed (or -1 if they couldn't be relied on)
+    private long layoutLastModified;
+
+    // the last modified timestamp of the data directory, and the workspace directories in it, when it was last listed
+    // (the IDs are null until the layout as a whole has been listed, or found to be unchanged, after loading the index)
+    private long dataDirectoryLastModified;
+    private Set<Long> flatWorkspaceIds;
+
+    // the workspaces that have been invalidated while not in the index (e.g. because their directories have been added)
+    private final Set<Long> addedWorkspaceIds = ConcurrentHashMap.newKeySet();
+
+    // the workspaces read from the journal that haven't yet been checked against their directories
+    private final Set<Long> unvalidatedWorkspaceIds = ConcurrentHashMap.newKeySet();
+
+    private final long refreshIntervalInMilliseconds;
+    private volatile long refreshedAt;
+
+    /**
+     * @param dataDirectory     the data directory, which the index is stored in (in a sub-directory)
+     * @param layout            where the workspace directories are
+     * @param loader            used to create the summary for a workspace that isn't in the index
+     */
+    WorkspaceIndex(File dataDirectory, WorkspaceDirectoryLayout layout, LongFunction<WorkspaceSummary> loader) {
+        this(dataDirectory, layout, loader, DEFAULT_REFRESH_INTERVAL_IN_MILLISECONDS);
+    }
+
+    /**
+     * @param refreshIntervalInMilliseconds     how often an unknown workspace ID can cause the workspace directories to be checked for changes
+     */
+    WorkspaceIndex(File dataDirectory, WorkspaceDirectoryLayout layout, LongFunction<WorkspaceSummary> loader, long refreshIntervalInMilliseconds) {
+        this.dataDirectory = dataDirectory;
+        this.layout = layout;
+        this.directory = new File(dataDirectory, DIRECTORY_NAME);
+        this.file = new File(directory, FILENAME);
+        this.loader = loader;
+        this.refreshIntervalInMilliseconds = refreshIntervalInMilliseconds;
+    }
+
+    synchronized Collection<WorkspaceSummary> getWorkspaces() throws IOException {
+        load();
+        refresh();
+        for (long workspaceId : new ArrayList<>(unvalidatedWorkspaceIds)) {
+            validate(workspaceId);
+        }
+
+        return new ArrayList<>(workspaces.values());
+    }
+
+    /**
+     * Gets the summary for a single workspace, without re-listing the data directory.
+     *
+     * @return  a WorkspaceSummary, or null if the workspace isn't in the index
+     */
+    WorkspaceSummary getWorkspace(long workspaceId) throws IOException {
+        if (!loaded) {
+            synchronized (this) {
+                load();
+            }
+        }
+        validate(workspaceId);
+
+        return workspaces.get(workspaceId);
+    }
+
+    /**
+     * Whether the given workspace exists, answered from memory. The data directory is checked for changes (and
+     * re-listed if it has changed) at most once per refresh interval, so that workspaces added outside of the API
+     * are still found, while requests for unknown workspace IDs don't touch the file system.
+     */
+    boolean contains(long workspaceId) throws IOException {
+        if (!loaded) {
+            synchronized (this) {
+                load();
+            }
+        }
+        validate(workspaceId);
+
+        if (workspaces.containsKey(workspaceId)) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - refreshedAt >= refreshIntervalInMilliseconds) {
+            synchronized (this) {
+                if (now - refreshedAt >= refreshIntervalInMilliseconds) {
+                    refresh();
+                }
+            }
+        }
+
+        return workspaces.containsKey(workspaceId);
+    }
+
+    synchronized void update(long workspaceId, Consumer<WorkspaceSummary> update) throws IOException {
+        load();
+        validate(workspaceId);
+
+        WorkspaceSummary current = workspaces.get(workspaceId);
+        WorkspaceSummary workspaceSummary = current != null ? new WorkspaceSummary(current) : new WorkspaceSummary(workspaceId);
+        update.accept(workspaceSummary);
+        workspaceSummary.setDirectoryLastModified(getDirectoryLastModified(workspaceId));
+
+        workspaces.put(workspaceId, workspaceSummary);
+        append(workspaceSummary, false);
+    }
+
+    /**
+     * Marks the summary for the given workspace as out of date (e.g. because its files have been changed outside of
+     * the API), so that it's re-validated against the workspace directory when it's next used. If the workspace isn't
+     * in the index, it's added if its workspace directory exists when the workspace directories are next checked.
+     */
+    synchronized void invalidate(long workspaceId) {
+        WorkspaceSummary current = workspaces.get(workspaceId);
+        if (current != null) {
+            WorkspaceSummary workspaceSummary = new WorkspaceSummary(current);
+            workspaceSummary.setDirectoryLastModified(-1);
+            workspaces.put(workspaceId, workspaceSummary);
+            unvalidatedWorkspaceIds.add(workspaceId);
+        } else {
+            addedWorkspaceIds.add(workspaceId);
+            refreshedAt = 0;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the index (after listing the workspace directories, so that the next startup doesn't
+     * need to) and closes the journal; the index is loaded again if it's used afterwards.
+     */
+    synchronized void close() throws IOException {
+        if (loaded) {
+            // the layout is listed again, so the timestamp in the snapshot covers everything that's in it
+            layoutLastModified = -1;
+            flatWorkspaceIds = null;
+            refresh();
+            compact(layoutLastModified);
+        }
+
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+
+        workspaces.clear();
+        unvalidatedWorkspaceIds.clear();
+        addedWorkspaceIds.clear();
+        numberOfRecords = 0;
+        layoutLastModified = 0;
+        dataDirectoryLastModified = 0;
+        flatWorkspaceIds = null;
+        refreshedAt = 0;
+        loaded = false;
+    }
+
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+
+        // the index was previously stored in the data directory itself
+        File previousFile = new File(dataDirectory, FILENAME);
+        if (!file.exists() && previousFile.exists()) {
+            Files.createDirectories(directory.toPath());
+            Files.move(previousFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        boolean compact = true;
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() == MAGIC_NUMBER && in.readInt() == FORMAT_VERSION) {
+                    layoutLastModified = in.readLong();
+                    while (hasMoreRecords(in)) {
+                        read(in);
+                    }
+                    compact = false;
+                } else {
+                    // an unrecognised format, so rebuild the index from scratch (refresh() will add every workspace directory)
+                    workspaces.clear();
+                    unvalidatedWorkspaceIds.clear();
+                    layoutLastModified = -1;
+                }
+            } catch (EOFException eof) {
+                // a partially written record at the end of the journal, which is dropped by compacting the journal
+            }
+        }
+
+        if (compact) {
+            layoutLastModified = -1;
+            compact(layoutLastModified);
+        } else {
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+
+        loaded = true;
+    }
+
+    private boolean hasMoreRecords(DataInputStream in) throws IOException {
+        in.mark(1);
+        boolean hasMoreRecords = in.read() != -1;
+        in.reset();
+
+        return hasMoreRecords;
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        int flags = in.readUnsignedByte();
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        long version = in.readLong();
+        String name = (flags & NAME) != 0 ? in.readUTF() : null;
+        String hash = (flags & HASH) != 0 ? in.readUTF() : null;
+        long directoryLastModified = in.readLong();
+
+        if ((flags & DELETED) != 0) {
+            workspaces.remove(id);
+            unvalidatedWorkspaceIds.remove(id);
+        } else {
+            WorkspaceSummary workspaceSummary = new WorkspaceSummary(id);
+            workspaceSummary.setKey((flags & KEY) != 0);
+            workspaceSummary.setSecret((flags & SECRET) != 0);
+            workspaceSummary.setData((flags & DATA) != 0);
+            workspaceSummary.setSize(size);
+            workspaceSummary.setLastModified(lastModified);
+            workspaceSummary.setName(name);
+            workspaceSummary.setHash(hash);
+            workspaceSummary.setVersion(version);
+            workspaceSummary.setDirectoryLastModified(directoryLastModified);
+            workspaces.put(id, workspaceSummary);
+            unvalidatedWorkspaceIds.add(id);
+        }
+
+        numberOfRecords++;
+    }
+
+    /**
+     * Checks the workspace directories for workspaces that have been added or removed. The whole layout is only
+     * listed the first time after the index has been loaded (if it's changed since the snapshot was written) and
+     * when it's closed; otherwise only the data directory is listed, and only if it has changed.
+     */
+    private void refresh() throws IOException {
+        refreshedAt = System.currentTimeMillis();
+
+        if (flatWorkspaceIds == null) {
+            // the timestamps are read before the directories are listed, so a concurrent change is seen next time
+            long lastModified = layout.getLastModified();
+            dataDirectoryLastModified = layout.getDataDirectoryLastModified();
+            flatWorkspaceIds = layout.getFlatWorkspaceIds();
+            if (lastModified == -1 || lastModified != layoutLastModified) {
+                Set<Long> workspaceIds = layout.getWorkspaceIds();
+                add(workspaceIds);
+                for (WorkspaceSummary workspaceSummary : workspaces.values()) {
+                    if (!workspaceIds.contains(workspaceSummary.getId())) {
+                        remove(workspaceSummary);
+                    }
+                }
+            }
+            layoutLastModified = lastModified;
+            addedWorkspaceIds.clear();
+
+            return;
+        }
+
+        for (long workspaceId : new ArrayList<>(addedWorkspaceIds)) {
+            addedWorkspaceIds.remove(workspaceId);
+            if (layout.getDirectory(workspaceId).isDirectory()) {
+                add(Collections.singleton(workspaceId));
+            }
+        }
+
+        long lastModified = layout.getDataDirectoryLastModified();
+        if (lastModified == -1 || lastModified != dataDirectoryLastModified) {
+            Set<Long> workspaceIds = layout.getFlatWorkspaceIds();
+            add(workspaceIds);
+            for (long workspaceId : flatWorkspaceIds) {
+                // a workspace directory that's no longer in the data directory may have been migrated
+                WorkspaceSummary workspaceSummary = workspaces.get(workspaceId);
+                if (workspaceSummary != null && !workspaceIds.contains(workspaceId) && !layout.getDirectory(workspaceId).isDirectory()) {
+                    remove(workspaceSummary);
+                }
+            }
+
+            dataDirectoryLastModified = lastModified;
+            flatWorkspaceIds = workspaceIds;
+        }
+    }
+
+    /**
+     * Adds the summaries for the given workspaces that the index doesn't know about.
+     */
+    private void add(Set<Long> workspaceIds) throws IOException {
+        // creating a summary means reading the workspace directory, so the summaries for workspaces that the index
+        // doesn't know about (e.g. all of them, when the index is rebuilt) are created in parallel, in the fork-join
+        // pool of the caller if it has one
+        List<WorkspaceSummary> workspaceSummaries = workspaceIds.stream()
+                .filter(workspaceId -> !workspaces.containsKey(workspaceId))
+                .collect(Collectors.toList())
+                .parallelStream()
+                .map(this::createWorkspaceSummary)
+                .collect(Collectors.toList());
+
+        for (WorkspaceSummary workspaceSummary : workspaceSummaries) {
+            workspaces.put(workspaceSummary.getId(), workspaceSummary);
+            append(workspaceSummary, false);
+        }
+    }
+
+    private void remove(WorkspaceSummary workspaceSummary) throws IOException {
+        workspaces.remove(workspaceSummary.getId());
+        unvalidatedWorkspaceIds.remove(workspaceSummary.getId());
+        append(workspaceSummary, true);
+    }
+
+    private long getDirectoryLastModified(long workspaceId) {
+        long lastModified = layout.getDirectory(workspaceId).lastModified();
+        if (lastModified == 0) {
+            // the workspace directory may have been migrated between finding it and reading the timestamp
+            lastModified = layout.getDirectory(workspaceId).lastModified();
+        }
+
+        return lastModified;
+    }
+
+    private WorkspaceSummary createWorkspaceSummary(long workspaceId) {
+        // the timestamp is read before the files, so a concurrent change is picked up when the summary is next validated
+        long directoryLastModified = getDirectoryLastModified(workspaceId);
+        WorkspaceSummary workspaceSummary = loader.apply(workspaceId);
+        workspaceSummary.setDirectoryLastModified(directoryLastModified);
+
+        return workspaceSummary;
+    }
+
+    /**
+     * Checks a summary read from the journal against its workspace directory, the first time that it's used.
+     * If files have been added, replaced or removed since the summary was written (e.g. the API credentials or
+     * workspace properties were changed while the server was stopped), the API credentials and name are read
+     * again; changes to the workspace definition itself are picked up by comparing its last modified timestamp.
+     */
+    private void validate(long workspaceId) throws IOException {
+        if (!unvalidatedWorkspaceIds.contains(workspaceId)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!unvalidatedWorkspaceIds.remove(workspaceId)) {
+                return;
+            }
+
+            WorkspaceSummary current = workspaces.get(workspaceId);
+            long directoryLastModified = getDirectoryLastModified(workspaceId);
+            if (current == null || current.getDirectoryLastModified() == directoryLastModified) {
+                return;
+            }
+
+            if (directoryLastModified == 0) {
+                // the workspace directory has been removed
+                workspaces.remove(workspaceId);
+                append(current, true);
+                return;
+            }
+
+            WorkspaceSummary reloaded = createWorkspaceSummary(workspaceId);
+            WorkspaceSummary workspaceSummary = new WorkspaceSummary(current);
+            workspaceSummary.setKey(reloaded.isKey());
+            workspaceSummary.setSecret(reloaded.isSecret());
+            workspaceSummary.setName(reloaded.getName());
+            workspaceSummary.setDirectoryLastModified(reloaded.getDirectoryLastModified());
+
+            workspaces.put(workspaceId, workspaceSummary);
+            append(workspaceSummary, false);
+        }
+    }
+
+    private void append(WorkspaceSummary workspaceSummary, boolean deleted) throws IOException {
+        write(journal, workspaceSummary, deleted);
+        journal.flush();
+        numberOfRecords++;
+
+        if (numberOfRecords > MINIMUM_RECORDS_BEFORE_COMPACTION && numberOfRecords > workspaces.size() * 2) {
+            compact(-1);
+        }
+    }
+
+    /**
+     * @param layoutLastModified    the last modified timestamp(s) of the layout to record in the snapshot, which is -1
+     *                              (so the next startup lists the workspace directories) unless the index is being closed
+     */
+    private void compact(long layoutLastModified) throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+
+        directory.mkdirs();
+        File temporaryFile = new File(directory, FILENAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(layoutLastModified);
+            for (WorkspaceSummary workspaceSummary : workspaces.values()) {
+                write(out, workspaceSummary, false);
+            }
+        }
+
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        numberOfRecords = workspaces.size();
+
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private void write(DataOutputStream out, WorkspaceSummary workspaceSummary, boolean deleted) throws IOException {
+        String name = workspaceSummary.getName();
+        if (name != null && name.length() > MAXIMUM_NAME_LENGTH) {
+            name = name.substring(0, MAXIMUM_NAME_LENGTH);
+        }
+
+        int flags = 0;
+        flags |= workspaceSummary.isKey() ? KEY : 0;
+        flags |= workspaceSummary.isSecret() ? SECRET : 0;
+        flags |= workspaceSummary.isData() ? DATA : 0;
+        flags |= name != null ? NAME : 0;
+        flags |= workspaceSummary.getHash() != null ? HASH : 0;
+        flags |= deleted ? DELETED : 0;
+
+        out.writeLong(workspaceSummary.getId());
+        out.writeByte(flags);
+        out.writeLong(workspaceSummary.getSize());
+        out.writeLong(workspaceSummary.getLastModified());
+        out.writeLong(workspaceSummary.getVersion());
+        if (name != null) {
+            out.writeUTF(name);
+        }
+        if (workspaceSummary.getHash() != null) {
+            out.writeUTF(workspaceSummary.getHash());
+        }
+        out.writeLong(workspaceSummary.getDirectoryLastModified());
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A stored resource (e.g. a workspace definition), which can be streamed as-is without
+ * being converted to a String. Resources should be closed after use.
+ */
+public abstract class WorkspaceResource implements Closeable {
+
+    public static final String GZIP = "gzip";
+
+    /**
+     * The encoding of the stored bytes (e.g. "gzip"), or null if they are not encoded.
+     */
+    public abstract String getContentEncoding();
+
+    /**
+     * Opens a stream to read the stored bytes, as-is.
+     */
+    public abstract InputStream getInputStream() throws IOException;
+
+    /**
+     * The number of stored bytes, or -1 if this isn't known.
+     */
+    public long getContentLength() throws IOException {
+        return -1;
+    }
+
+    /**
+     * The time that the resource was last modified, in milliseconds since the epoch, or -1 if this isn't known.
+     */
+    public long getLastModified() {
+        return -1;
+    }
+
+    /**
+     * Writes the stored bytes, as-is, to the given channel.
+     */
+    public void transferTo(WritableByteChannel target) throws IOException {
+        try (ReadableByteChannel source = Channels.newChannel(getInputStream())) {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Opens a stream to read the bytes, decoding them if necessary.
+     */
+    public InputStream getDecodedInputStream() throws IOException {
+        if (GZIP.equals(getContentEncoding())) {
+            return new GZIPInputStream(getInputStream());
+        } else {
+            return getInputStream();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    static byte[] toByteArray(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -6,11 +6,30 @@ public class WorkspaceSummary {
     private boolean key;
     private boolean secret;
     private boolean data;
+    private long size;
+    private String name;
+    private long lastModified;
+    private String hash;
+    private long version;
+    private long directoryLastModified;
 
     public WorkspaceSummary(long id) {
         this.id = id;
     }
 
+    WorkspaceSummary(WorkspaceSummary workspaceSummary) {
+        this.id = workspaceSummary.id;
+        this.key = workspaceSummary.key;
+        this.secret = workspaceSummary.secret;
+        this.data = workspaceSummary.data;
+        this.size = workspaceSummary.size;
+        this.name = workspaceSummary.name;
+        this.lastModified = workspaceSummary.lastModified;
+        this.hash = workspaceSummary.hash;
+        this.version = workspaceSummary.version;
+        this.directoryLastModified = workspaceSummary.directoryLastModified;
+    }
+
     public long getId() {
         return id;
     }
@@ -38,4 +57,68 @@ public class WorkspaceSummary {
     void setData(boolean data) {
         this.data = data;
     }
+
+    /**
+     * The size of the stored workspace definition, in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The time that the workspace definition was last stored, in milliseconds since the epoch.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * The MD5 hash (as a hex string) of the workspace definition, or null if it hasn't been stored.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    /**
+     * The number of times that the workspace definition has been stored.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * The last modified timestamp of the workspace directory when this summary was written (used to validate the index).
+     */
+    long getDirectoryLastModified() {
+        return directoryLastModified;
+    }
+
+    void setDirectoryLastModified(long directoryLastModified) {
+        this.directoryLastModified = directoryLastModified;
+    }
+
 }
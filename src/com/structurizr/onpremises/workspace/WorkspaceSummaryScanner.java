@@ -0,0 +1,240 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Scans a JSON workspace definition for the top-level name, description and thumbnail properties,
+ * without building the workspace model. Nested objects and arrays (e.g. the model and views) are
+ * skipped character by character, and scanning stops as soon as all three properties have been found.
+ */
+class WorkspaceSummaryScanner {
+
+    private static final String NAME = "name";
+    private static final String DESCRIPTION = "description";
+    private static final String THUMBNAIL = "thumbnail";
+
+    private final Reader reader;
+    private int position = 0;
+    private int last;
+    private int peeked = -2; // -2 means there's no unread character
+
+    private String name;
+    private String description;
+    private String thumbnail;
+
+    private WorkspaceSummaryScanner(Reader reader) {
+        this.reader = reader;
+    }
+
+    static WorkspaceSummaryScanner scan(Reader reader) throws IOException {
+        WorkspaceSummaryScanner scanner = new WorkspaceSummaryScanner(reader);
+        scanner.scan();
+
+        return scanner;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    String getThumbnail() {
+        return thumbnail;
+    }
+
+    private void scan() throws IOException {
+        expect('{');
+        if (nextNonWhitespace() == '}') {
+            return;
+        }
+        unread();
+
+        while (true) {
+            expect('"');
+            String key = readString();
+            expect(':');
+
+            int c = nextNonWhitespace();
+            if (c == '"' && isPropertyOfInterest(key)) {
+                String value = readString();
+                switch (key) {
+                    case NAME:
+                        name = value;
+                        break;
+                    case DESCRIPTION:
+                        description = value;
+                        break;
+                    case THUMBNAIL:
+                        thumbnail = value;
+                        break;
+                }
+
+                if (name != null && description != null && thumbnail != null) {
+                    return;
+                }
+            } else {
+                unread();
+                skipValue();
+            }
+
+            c = nextNonWhitespace();
+            if (c == '}') {
+                return;
+            } else if (c != ',') {
+                throw syntaxError("',' or '}'", c);
+            }
+        }
+    }
+
+    private boolean isPropertyOfInterest(String key) {
+        return NAME.equals(key) || DESCRIPTION.equals(key) || THUMBNAIL.equals(key);
+    }
+
+    private void skipValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '"':
+                skipString();
+                break;
+            case '{':
+            case '[':
+                skipNested();
+                break;
+            case -1:
+                throw syntaxError("a value", c);
+            default:
+                // a number, true, false or null
+                while (c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                    c = read();
+                }
+                unread();
+        }
+    }
+
+    private void skipNested() throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = read();
+            switch (c) {
+                case '"':
+                    skipString();
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                case -1:
+                    throw syntaxError("'}' or ']'", c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c = read();
+        while (c != '"') {
+            if (c == -1) {
+                throw syntaxError("'\"'", c);
+            } else if (c == '\\') {
+                read();
+            }
+            c = read();
+        }
+    }
+
+    private String readString() throws IOException {
+        StringBuilder buf = new StringBuilder();
+        int c = read();
+        while (c != '"') {
+            if (c == -1) {
+                throw syntaxError("'\"'", c);
+            } else if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b':
+                        buf.append('\b');
+                        break;
+                    case 'f':
+                        buf.append('\f');
+                        break;
+                    case 'n':
+                        buf.append('\n');
+                        break;
+                    case 'r':
+                        buf.append('\r');
+                        break;
+                    case 't':
+                        buf.append('\t');
+                        break;
+                    case 'u':
+                        char[] hex = new char[4];
+                        for (int i = 0; i < 4; i++) {
+                            hex[i] = (char)read();
+                        }
+                        try {
+                            buf.append((char)Integer.parseInt(new String(hex), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Invalid unicode escape sequence at character " + position);
+                        }
+                        break;
+                    case -1:
+                        throw syntaxError("an escaped character", c);
+                    default:
+                        buf.append((char)c);
+                }
+            } else {
+                buf.append((char)c);
+            }
+            c = read();
+        }
+
+        return buf.toString();
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = nextNonWhitespace();
+        if (c != expected) {
+            throw syntaxError("'" + expected + "'", c);
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = read();
+        while (c != -1 && Character.isWhitespace(c)) {
+            c = read();
+        }
+
+        return c;
+    }
+
+    private int read() throws IOException {
+        int c;
+        if (peeked != -2) {
+            c = peeked;
+            peeked = -2;
+        } else {
+            c = reader.read();
+        }
+
+        position++;
+        last = c;
+        return c;
+    }
+
+    private void unread() {
+        peeked = last;
+        position--;
+    }
+
+    private IOException syntaxError(String expected, int actual) {
+        return new IOException("Expected " + expected + " but found " + (actual == -1 ? "end of input" : "'" + (char)actual + "'") + " at character " + position);
+    }
+
+}
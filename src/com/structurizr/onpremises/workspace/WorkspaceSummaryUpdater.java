@@ -0,0 +1,83 @@
+package com.structurizr.onpremises.workspace;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Updates workspace summaries on a background thread, so that putting a workspace doesn't need to
+ * wait for the summary to be extracted. Updates are coalesced per workspace; if a workspace is put
+ * several times before its summary is updated, the summary is only extracted once, from the latest version.
+ */
+class WorkspaceSummaryUpdater {
+
+    private final LongConsumer update;
+    private final ExecutorService executorService;
+    private final Set<Long> pendingWorkspaceIds = ConcurrentHashMap.newKeySet();
+
+    private final Object lock = new Object();
+    private int numberOfUpdatesInProgress = 0;
+
+    /**
+     * @param update    extracts and stores the summary for a given workspace ID
+     */
+    WorkspaceSummaryUpdater(LongConsumer update) {
+        this.update = update;
+        this.executorService = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "structurizr-workspace-summary-updater");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void submit(long workspaceId) {
+        if (pendingWorkspaceIds.add(workspaceId)) {
+            synchronized (lock) {
+                numberOfUpdatesInProgress++;
+            }
+
+            executorService.execute(() -> {
+                try {
+                    // removed before the update starts, so that any later put results in another update
+                    pendingWorkspaceIds.remove(workspaceId);
+                    update.accept(workspaceId);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    synchronized (lock) {
+                        numberOfUpdatesInProgress--;
+                        lock.notifyAll();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits for all submitted updates to complete.
+     *
+     * @return  true if all updates completed, false if the timeout elapsed first
+     */
+    boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (numberOfUpdatesInProgress > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+        }
+
+        return true;
+    }
+
+    void shutdown() {
+        executorService.shutdown();
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.structurizr.onpremises.workspace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms up the workspace component on startup, so that the first requests after a restart don't pay for cold
+ * disk reads. The workspace directories are walked (and the workspace index and API credentials are built) in
+ * parallel, and then the most recently modified workspaces are read into the cache, up to the given budget.
+ * Reading from disk is I/O bound, so the fork-join pool is larger than the number of processors.
+ */
+class WorkspaceWarmUp {
+
+    private final FileSystemWorkspaceComponent workspaceComponent;
+    private final CachingWorkspaceComponent cachingWorkspaceComponent;
+    private final long budget;
+    private final int parallelism;
+
+    /**
+     * @param cachingWorkspaceComponent     the cache to preload, or null if there isn't one
+     * @param budget                        the maximum number of bytes (as stored) of workspace data to preload
+     */
+    WorkspaceWarmUp(FileSystemWorkspaceComponent workspaceComponent, CachingWorkspaceComponent cachingWorkspaceComponent, long budget) {
+        this(workspaceComponent, cachingWorkspaceComponent, budget, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    WorkspaceWarmUp(FileSystemWorkspaceComponent workspaceComponent, CachingWorkspaceComponent cachingWorkspaceComponent, long budget, int parallelism) {
+        this.workspaceComponent = workspaceComponent;
+        this.cachingWorkspaceComponent = cachingWorkspaceComponent;
+        this.budget = budget;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return  the number of workspaces that were read into the cache
+     */
+    int run() throws WorkspaceComponentException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // the index is built in the pool, so that the directory walk and summaries run in parallel
+            Collection<WorkspaceSummary> workspaces = pool.submit(workspaceComponent::getWorkspaces).get();
+
+            if (cachingWorkspaceComponent == null) {
+                return 0;
+            }
+
+            AtomicInteger numberOfWorkspacesCached = new AtomicInteger();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (WorkspaceSummary workspaceSummary : selectWorkspacesToCache(workspaces)) {
+                tasks.add(() -> {
+                    // getting the workspace is enough to cache it
+                    cachingWorkspaceComponent.getWorkspaceResource(workspaceSummary.getId()).close();
+                    numberOfWorkspacesCached.incrementAndGet();
+
+                    return null;
+                });
+            }
+
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+
+            return numberOfWorkspacesCached.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WorkspaceComponentException("The warm-up was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new WorkspaceComponentException("Could not warm up the workspace component", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Selects the most recently modified workspaces that fit within the budget (and the cache).
+     */
+    List<WorkspaceSummary> selectWorkspacesToCache(Collection<WorkspaceSummary> workspaces) {
+        long remaining = Math.min(budget, cachingWorkspaceComponent.getMaximumSize());
+
+        List<WorkspaceSummary> candidates = new ArrayList<>(workspaces);
+        candidates.sort(Comparator.comparingLong(WorkspaceSummary::getLastModified).reversed());
+
+        List<WorkspaceSummary> workspacesToCache = new ArrayList<>();
+        for (WorkspaceSummary workspaceSummary : candidates) {
+            if (workspaceSummary.isData() && workspaceSummary.getSize() <= remaining) {
+                workspacesToCache.add(workspaceSummary);
+                remaining -= workspaceSummary.getSize();
+            }
+        }
+
+        return workspacesToCache;
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies the writes for each workspace one at a time (a single writer per workspace), in the order
+ * they were submitted. Writes that arrive while another write to the same workspace is being applied
+ * are queued, and if several queue up, only the latest is applied; the others are superseded by it.
+ * The callers of superseded writes are acknowledged when the latest write has been applied, so a burst
+ * of writes to the same workspace results in far fewer (expensive, because they're synced to disk) writes.
+ */
+class WorkspaceWriter {
+
+    /**
+     * A write that has been prepared (e.g. to a temporary file) by the caller.
+     */
+    interface Write {
+
+        /**
+         * Applies the write, durably.
+         */
+        void apply() throws IOException;
+
+        /**
+         * Called instead of apply() when the write has been superseded by a later write to the same workspace.
+         */
+        void discard();
+
+    }
+
+    private final ExecutorService executorService;
+    private final Map<Long,WriteQueue> writeQueues = new HashMap<>();
+    private boolean shutdown = false;
+
+    private final AtomicLong numberOfWritesApplied = new AtomicLong();
+    private final AtomicLong numberOfWritesSuperseded = new AtomicLong();
+
+    /**
+     * @param numberOfThreads   the maximum number of workspaces that can be written to in parallel
+     */
+    WorkspaceWriter(int numberOfThreads) {
+        this.executorService = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+            Thread thread = new Thread(runnable, "structurizr-workspace-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits a write, and waits for it (or a later write to the same workspace) to be applied.
+     * Writes submitted after a shutdown are discarded, and fail.
+     */
+    void write(long workspaceId, Write write) throws IOException {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Write superseded;
+        boolean schedule = false;
+
+        synchronized (writeQueues) {
+            if (shutdown) {
+                write.discard();
+                throw new IOException("Workspace " + workspaceId + " can't be written, because the workspace writer has been shut down");
+            }
+
+            WriteQueue writeQueue = writeQueues.computeIfAbsent(workspaceId, id -> new WriteQueue());
+            superseded = writeQueue.pendingWrite;
+            writeQueue.pendingWrite = write;
+            writeQueue.waiters.add(future);
+
+            if (!writeQueue.scheduled) {
+                writeQueue.scheduled = true;
+                schedule = true;
+            }
+        }
+
+        if (superseded != null) {
+            superseded.discard();
+            numberOfWritesSuperseded.incrementAndGet();
+        }
+
+        if (schedule) {
+            try {
+                executorService.execute(() -> drain(workspaceId));
+            } catch (RejectedExecutionException e) {
+                // shut down since the write was queued, so nothing will drain the queue
+                reject(workspaceId, e);
+            }
+        }
+
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for workspace " + workspaceId + " to be written");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            } else {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private void drain(long workspaceId) {
+        while (true) {
+            Write write;
+            List<CompletableFuture<Void>> waiters;
+
+            synchronized (writeQueues) {
+                WriteQueue writeQueue = writeQueues.get(workspaceId);
+                if (writeQueue.pendingWrite == null) {
+                    writeQueues.remove(workspaceId);
+                    return;
+                }
+
+                write = writeQueue.pendingWrite;
+                waiters = writeQueue.waiters;
+                writeQueue.pendingWrite = null;
+                writeQueue.waiters = new ArrayList<>();
+            }
+
+            try {
+                write.apply();
+                numberOfWritesApplied.incrementAndGet();
+                waiters.forEach(waiter -> waiter.complete(null));
+            } catch (Throwable t) {
+                waiters.forEach(waiter -> waiter.completeExceptionally(t));
+            }
+        }
+    }
+
+    /**
+     * Fails the writes queued for a workspace whose queue couldn't be scheduled; other writes may have
+     * been queued behind the first, without being scheduled, in the meantime.
+     */
+    private void reject(long workspaceId, RejectedExecutionException e) {
+        WriteQueue writeQueue;
+        synchronized (writeQueues) {
+            writeQueue = writeQueues.remove(workspaceId);
+        }
+
+        if (writeQueue != null) {
+            if (writeQueue.pendingWrite != null) {
+                writeQueue.pendingWrite.discard();
+            }
+
+            IOException ioe = new IOException("Workspace " + workspaceId + " can't be written, because the workspace writer has been shut down", e);
+            writeQueue.waiters.forEach(waiter -> waiter.completeExceptionally(ioe));
+        }
+    }
+
+    long getNumberOfWritesApplied() {
+        return numberOfWritesApplied.get();
+    }
+
+    long getNumberOfWritesSuperseded() {
+        return numberOfWritesSuperseded.get();
+    }
+
+    void shutdown() {
+        synchronized (writeQueues) {
+            shutdown = true;
+        }
+        executorService.shutdown();
+    }
+
+    /**
+     * Waits for the writes that have already been submitted to be applied, after a shutdown.
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+
+    private static class WriteQueue {
+
+        private Write pendingWrite;
+        private List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        private boolean scheduled;
+
+    }
+
+}
@@ -0,0 +1,582 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of workspace definitions, split into numbered segment files.
+ *
+ * Each record consists of the length and CRC-32 checksum of its payload, followed by the payload itself
+ * (the workspace ID and the workspace definition). Appends are synced to disk before they return (appends
+ * that are written while the log is being synced are synced together, by the next sync), and a
+ * new segment is started once the current segment reaches the maximum size. Every record is "outstanding"
+ * until it has been released (i.e. the workspace definition has been stored elsewhere, or superseded),
+ * and a segment file is deleted once none of its records are outstanding (and it's no longer the current segment).
+ * If the log can't be synced, it's no longer known which appends are on disk, so no more appends are accepted;
+ * the log is replayed when the server is restarted.
+ */
+class WriteAheadLog {
+
+    private static final String SEGMENT_FILENAME_SUFFIX = ".log";
+    private static final String STAGING_FILENAME_SUFFIX = ".tmp";
+    private static final int MAGIC_NUMBER = 0x5357414c;
+    private static final int FORMAT_VERSION = 1;
+    private static final int SEGMENT_HEADER_LENGTH = 8;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final int WORKSPACE_ID_LENGTH = 8;
+
+    // records up to this size are staged in memory before they're appended, and larger records in a temporary file
+    private static final int MAXIMUM_BUFFERED_PAYLOAD_LENGTH = 1024 * 1024;
+
+    /**
+     * The location of a workspace definition in the log.
+     */
+    static class Record {
+
+        private final long workspaceId;
+        private final long segment;
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        private Record(long workspaceId, long segment, File file, long offset, long length) {
+            this.workspaceId = workspaceId;
+            this.segment = segment;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        long getWorkspaceId() {
+            return workspaceId;
+        }
+
+        long getSegment() {
+            return segment;
+        }
+
+        /**
+         * The workspace definition, which can be read until the record has been released.
+         */
+        FileWorkspaceResource getWorkspaceResource() {
+            return new FileWorkspaceResource(file, null, offset, length);
+        }
+
+    }
+
+    private final File directory;
+    private final long maximumSegmentSize;
+
+    // the number of outstanding records in each segment
+    private final TreeMap<Long,Integer> segments = new TreeMap<>();
+    private long currentSegment;
+    private FileChannel channel;
+
+    // the number of bytes appended (over all segments), and how many of those have been synced to disk
+    private long appendedBytes = 0;
+    private final Object syncLock = new Object();
+    private long syncedBytes = 0;
+    private boolean syncInProgress = false;
+    private IOException syncFailure;
+
+    /**
+     * @param directory             the directory in which segment files are stored
+     * @param maximumSegmentSize    the size (in bytes) at which a new segment is started
+     */
+    WriteAheadLog(File directory, long maximumSegmentSize) {
+        this.directory = directory;
+        this.maximumSegmentSize = maximumSegmentSize;
+    }
+
+    /**
+     * Opens the log, returning the records in the existing segments (in the order they were appended).
+     * A partially written or corrupt record at the end of the last segment (e.g. after a crash) is truncated.
+     */
+    synchronized List<Record> open() throws IOException {
+        Files.createDirectories(directory.toPath());
+
+        // records that were being staged when the server stopped were never appended
+        File[] stagingFiles = directory.listFiles((dir, name) -> name.endsWith(STAGING_FILENAME_SUFFIX));
+        if (stagingFiles != null) {
+            for (File stagingFile : stagingFiles) {
+                Files.deleteIfExists(stagingFile.toPath());
+            }
+        }
+
+        List<Long> segmentNumbers = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.matches("\\d+\\" + SEGMENT_FILENAME_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                segmentNumbers.add(Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_FILENAME_SUFFIX.length())));
+            }
+        }
+        segmentNumbers.sort(null);
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < segmentNumbers.size(); i++) {
+            long segment = segmentNumbers.get(i);
+            boolean lastSegment = i == segmentNumbers.size() - 1;
+
+            List<Record> recordsInSegment = replay(segment, lastSegment);
+            records.addAll(recordsInSegment);
+            if (recordsInSegment.isEmpty() && !lastSegment) {
+                Files.deleteIfExists(getSegmentFile(segment).toPath());
+            } else {
+                segments.put(segment, recordsInSegment.size());
+            }
+        }
+
+        if (segments.isEmpty()) {
+            startSegment(1);
+        } else {
+            currentSegment = segments.lastKey();
+            channel = FileChannel.open(getSegmentFile(currentSegment).toPath(), StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+
+        return records;
+    }
+
+    private List<Record> replay(long segment, boolean lastSegment) throws IOException {
+        List<Record> records = new ArrayList<>();
+        File file = getSegmentFile(segment);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_LENGTH);
+            if (!readFully(channel, header, 0) || header.getInt(0) != MAGIC_NUMBER || header.getInt(4) != FORMAT_VERSION) {
+                if (lastSegment) {
+                    // the segment was being created when the server stopped, so it's started again
+                    channel.truncate(0);
+                    writeSegmentHeader(channel);
+                    return records;
+                } else {
+                    throw new IOException(file.getCanonicalPath() + " is not a write-ahead log segment");
+                }
+            }
+
+            long position = SEGMENT_HEADER_LENGTH;
+            ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+            while (position < size) {
+                recordHeader.clear();
+                boolean valid = readFully(channel, recordHeader, position);
+                int length = valid ? recordHeader.getInt(0) : 0;
+                int checksum = valid ? recordHeader.getInt(4) : 0;
+                valid = valid && length >= WORKSPACE_ID_LENGTH && position + RECORD_HEADER_LENGTH + length <= size;
+
+                long workspaceId = 0;
+                if (valid) {
+                    ByteBuffer id = ByteBuffer.allocate(WORKSPACE_ID_LENGTH);
+                    readFully(channel, id, position + RECORD_HEADER_LENGTH);
+                    workspaceId = id.getLong(0);
+
+                    CRC32 crc = new CRC32();
+                    crc.update(id.array());
+                    try (WorkspaceResource payload = new FileWorkspaceResource(file, null, position + RECORD_HEADER_LENGTH + WORKSPACE_ID_LENGTH, length - WORKSPACE_ID_LENGTH);
+                         InputStream in = payload.getInputStream()) {
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            crc.update(buffer, 0, read);
+                        }
+                    }
+                    valid = (int)crc.getValue() == checksum;
+                }
+
+                if (!valid) {
+                    if (lastSegment) {
+                        // a partially written record, from a crash during an append that was never acknowledged
+                        channel.truncate(position);
+                        channel.force(true);
+                        break;
+                    } else {
+                        throw new IOException(file.getCanonicalPath() + " is corrupt at position " + position);
+                    }
+                }
+
+                long offset = position + RECORD_HEADER_LENGTH + WORKSPACE_ID_LENGTH;
+                records.add(new Record(workspaceId, segment, file, offset, length - WORKSPACE_ID_LENGTH));
+                position += RECORD_HEADER_LENGTH + length;
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Appends a workspace definition, returning once it has been synced to disk. The record is staged (and its checksum
+     * calculated) before the log is locked, so the lock is only held while the staged record is written to the log.
+     */
+    Record append(long workspaceId, WorkspaceResource workspaceResource) throws IOException {
+        long length = workspaceResource.getContentLength();
+        if (length > Integer.MAX_VALUE - WORKSPACE_ID_LENGTH) {
+            throw new IOException("Workspace " + workspaceId + " is too large to be logged");
+        }
+
+        Record record;
+        long bytes;
+        try (StagedRecord stagedRecord = stage(workspaceId, workspaceResource, length)) {
+            synchronized (this) {
+                checkSyncFailure();
+
+                long position = channel.position();
+                try {
+                    stagedRecord.writeTo(channel);
+                } catch (IOException ioe) {
+                    // remove anything that was written, so the next append starts at a record boundary
+                    channel.truncate(position);
+                    channel.position(position);
+                    throw ioe;
+                }
+
+                record = new Record(workspaceId, currentSegment, getSegmentFile(currentSegment), position + RECORD_HEADER_LENGTH + WORKSPACE_ID_LENGTH, length);
+                segments.merge(currentSegment, 1, Integer::sum);
+                appendedBytes += RECORD_HEADER_LENGTH + WORKSPACE_ID_LENGTH + length;
+                bytes = appendedBytes;
+
+                if (channel.size() >= maximumSegmentSize) {
+                    try {
+                        rotate();
+                        deleteReleasedSegments();
+                    } catch (IOException ioe) {
+                        // either the current segment is used until a new one can be started, or the previous segment
+                        // couldn't be synced, in which case the append fails (and the record is released) below
+                        ioe.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        try {
+            sync(bytes);
+        } catch (IOException ioe) {
+            // the append is reported as failed, so the record doesn't need to be kept
+            release(record);
+            throw ioe;
+        }
+
+        return record;
+    }
+
+    /**
+     * Copies the workspace definition into a private buffer (or temporary file), calculating the checksum of
+     * the record as it's copied, so the definition is only read once and can't change while it's being logged.
+     */
+    private StagedRecord stage(long workspaceId, WorkspaceResource workspaceResource, long length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH + WORKSPACE_ID_LENGTH);
+        header.putInt(0, (int)length + WORKSPACE_ID_LENGTH);
+        header.putLong(RECORD_HEADER_LENGTH, workspaceId);
+
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), RECORD_HEADER_LENGTH, WORKSPACE_ID_LENGTH);
+
+        StagedRecord stagedRecord;
+        if (length <= MAXIMUM_BUFFERED_PAYLOAD_LENGTH) {
+            stagedRecord = new StagedRecord(header, ByteBuffer.allocate((int)length), null);
+        } else {
+            File file = File.createTempFile("record-", STAGING_FILENAME_SUFFIX, directory);
+            stagedRecord = new StagedRecord(header, null, FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE));
+        }
+
+        try (InputStream in = workspaceResource.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            long staged = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                staged += read;
+                if (staged > length) {
+                    break;
+                }
+
+                crc.update(buffer, 0, read);
+                stagedRecord.write(buffer, read);
+            }
+
+            if (staged != length) {
+                throw new IOException("Workspace " + workspaceId + " changed while it was being logged");
+            }
+        } catch (IOException ioe) {
+            stagedRecord.close();
+            throw ioe;
+        }
+
+        header.putInt(4, (int)crc.getValue());
+        return stagedRecord;
+    }
+
+    /**
+     * Waits until the log has been synced to disk up to the given number of appended bytes. Only one appender
+     * syncs the log at a time, which covers everything written so far; appends written in the meantime wait
+     * for that sync to finish, and are then synced together by the next one.
+     */
+    private void sync(long bytes) throws IOException {
+        synchronized (syncLock) {
+            while (syncedBytes < bytes && syncInProgress && syncFailure == null) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the write-ahead log to be synced");
+                }
+            }
+
+            if (syncedBytes >= bytes) {
+                return;
+            }
+            checkSyncFailure();
+            syncInProgress = true;
+        }
+
+        try {
+            FileChannel channelToSync;
+            long bytesToSync;
+            synchronized (this) {
+                channelToSync = channel;
+                bytesToSync = appendedBytes;
+            }
+
+            try {
+                channelToSync.force(false);
+            } catch (ClosedChannelException e) {
+                // the segment has since been closed, which syncs it first, unless that failed
+                synchronized (syncLock) {
+                    if (syncedBytes < bytes) {
+                        checkSyncFailure();
+                        throw new IOException("The write-ahead log segment was closed before it was synced", e);
+                    }
+                }
+            } catch (IOException ioe) {
+                syncFailed(ioe);
+                throw ioe;
+            }
+
+            synced(bytesToSync);
+        } finally {
+            synchronized (syncLock) {
+                syncInProgress = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Records that the log couldn't be synced; a later sync of the same file may report success without the
+     * data having been written, so appends waiting to be synced (and any later appends) fail instead.
+     */
+    private void syncFailed(IOException ioe) {
+        synchronized (syncLock) {
+            if (syncFailure == null) {
+                syncFailure = ioe;
+            }
+            syncLock.notifyAll();
+        }
+    }
+
+    private void checkSyncFailure() throws IOException {
+        synchronized (syncLock) {
+            if (syncFailure != null) {
+                throw new IOException("The write-ahead log could not be synced to disk, and will be replayed when the server is restarted", syncFailure);
+            }
+        }
+    }
+
+    private void synced(long bytes) {
+        synchronized (syncLock) {
+            // after a failure, the bytes that were lost may be covered by a later sync of another segment
+            if (bytes > syncedBytes && syncFailure == null) {
+                syncedBytes = bytes;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Releases a record, which means it no longer needs to be kept. Segments without any outstanding records
+     * are deleted, apart from the current segment, which is only replaced once it reaches the maximum size
+     * (or when the log is closed), so after a crash, workspace definitions that have already been stored
+     * may be stored again.
+     */
+    synchronized void release(Record record) {
+        Integer outstanding = segments.get(record.getSegment());
+        if (outstanding != null) {
+            segments.put(record.getSegment(), outstanding - 1);
+        }
+
+        deleteReleasedSegments();
+    }
+
+    private void deleteReleasedSegments() {
+        for (Long segment : new ArrayList<>(segments.keySet())) {
+            if (segment != currentSegment && segments.get(segment) <= 0) {
+                try {
+                    Files.deleteIfExists(getSegmentFile(segment).toPath());
+                    segments.remove(segment);
+                } catch (IOException ioe) {
+                    // it will be deleted the next time a record is released
+                    ioe.printStackTrace();
+                }
+            }
+        }
+    }
+
+    synchronized List<Long> getSegments() {
+        return new ArrayList<>(segments.keySet());
+    }
+
+    /**
+     * Closes the log; if every record in the current segment has been released, a new (empty) segment is started
+     * first, so the log doesn't replay workspace definitions that have already been stored.
+     */
+    synchronized void close() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            if (segments.get(currentSegment) <= 0 && channel.position() > SEGMENT_HEADER_LENGTH) {
+                rotate();
+                deleteReleasedSegments();
+            }
+            closeSegment(channel);
+        }
+    }
+
+    /**
+     * Starts a new segment, and then syncs and closes the previous one. If the new segment can't be started, the
+     * current segment is left as it was.
+     */
+    private void rotate() throws IOException {
+        FileChannel previousChannel = channel;
+        startSegment(currentSegment + 1);
+        closeSegment(previousChannel);
+    }
+
+    /**
+     * Syncs and closes a segment, which completes any appends to it that are waiting to be synced.
+     */
+    private void closeSegment(FileChannel channel) throws IOException {
+        try {
+            channel.force(false);
+        } catch (IOException ioe) {
+            syncFailed(ioe);
+            throw ioe;
+        } finally {
+            channel.close();
+        }
+
+        // the log is locked, so nothing has been appended to the segment that replaces it yet
+        synced(appendedBytes);
+    }
+
+    private void startSegment(long segment) throws IOException {
+        File file = getSegmentFile(segment);
+        FileChannel newChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            writeSegmentHeader(newChannel);
+        } catch (IOException ioe) {
+            newChannel.close();
+            Files.deleteIfExists(file.toPath());
+            throw ioe;
+        }
+
+        channel = newChannel;
+        currentSegment = segment;
+        segments.put(segment, 0);
+
+        // make the new segment file itself durable
+        try (FileChannel directoryChannel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException ioe) {
+            // directories can't be opened (or synced) on all platforms (e.g. Windows)
+        }
+    }
+
+    private void writeSegmentHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_LENGTH);
+        header.putInt(MAGIC_NUMBER);
+        header.putInt(FORMAT_VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+    }
+
+    private boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read == -1) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private File getSegmentFile(long segment) {
+        return new File(directory, String.format("%020d", segment) + SEGMENT_FILENAME_SUFFIX);
+    }
+
+    /**
+     * A record that's ready to be appended, with its payload held in memory or in a temporary file.
+     */
+    private static class StagedRecord implements Closeable {
+
+        private final ByteBuffer header;
+        private final ByteBuffer payload;
+        private final FileChannel stagingChannel;
+
+        private StagedRecord(ByteBuffer header, ByteBuffer payload, FileChannel stagingChannel) {
+            this.header = header;
+            this.payload = payload;
+            this.stagingChannel = stagingChannel;
+        }
+
+        private void write(byte[] bytes, int length) throws IOException {
+            if (payload != null) {
+                payload.put(bytes, 0, length);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+                while (buffer.hasRemaining()) {
+                    stagingChannel.write(buffer);
+                }
+            }
+        }
+
+        private void writeTo(FileChannel channel) throws IOException {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+
+            if (payload != null) {
+                payload.flip();
+                while (payload.hasRemaining()) {
+                    channel.write(payload);
+                }
+            } else {
+                long size = stagingChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += stagingChannel.transferTo(position, size - position, channel);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (stagingChannel != null) {
+                stagingChannel.close();
+            }
+        }
+
+    }
+
+}
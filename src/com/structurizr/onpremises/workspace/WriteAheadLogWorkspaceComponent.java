@@ -0,0 +1,344 @@
+package com.structurizr.onpremises.workspace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongConsumer;
+
+/**
+ * A workspace component that appends each put to a write-ahead log, and acknowledges it once the log
+ * has been synced to disk. The workspace definitions are then stored by the underlying component on a
+ * background thread, and reads are answered from the log until that has happened. Any workspace definitions
+ * in the log are stored again on startup, so a put that has been acknowledged survives a crash. A workspace
+ * definition that can't be stored is retried, with an increasing delay, until it has been.
+ */
+class WriteAheadLogWorkspaceComponent implements WorkspaceComponent {
+
+    static final String DIRECTORY_NAME = "wal";
+    static final long DEFAULT_MAXIMUM_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long SHUTDOWN_TIMEOUT_IN_SECONDS = 30;
+    private static final long INITIAL_RETRY_DELAY_IN_MILLISECONDS = 1000;
+    private static final long MAXIMUM_RETRY_DELAY_IN_MILLISECONDS = 60000;
+
+    private final WorkspaceComponent workspaceComponent;
+    private final File directory;
+    private final WriteAheadLog writeAheadLog;
+
+    // the latest logged definition of each workspace that hasn't yet been stored by the underlying component
+    private final ConcurrentHashMap<Long,WriteAheadLog.Record> pendingRecords = new ConcurrentHashMap<>();
+    private final Set<Long> pendingWorkspaceIds = ConcurrentHashMap.newKeySet();
+    private final StripedLock locks = new StripedLock(Runtime.getRuntime().availableProcessors() * 4);
+    private final ScheduledThreadPoolExecutor executorService;
+
+    private final Object lock = new Object();
+    private int numberOfWritesInProgress = 0;
+
+    WriteAheadLogWorkspaceComponent(WorkspaceComponent workspaceComponent, File dataDirectory) throws IOException {
+        this(workspaceComponent, dataDirectory, DEFAULT_MAXIMUM_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param maximumSegmentSize    the size (in bytes) at which a new log segment is started
+     */
+    WriteAheadLogWorkspaceComponent(WorkspaceComponent workspaceComponent, File dataDirectory, long maximumSegmentSize) throws IOException {
+        this.workspaceComponent = workspaceComponent;
+        this.directory = new File(dataDirectory, DIRECTORY_NAME);
+        this.writeAheadLog = new WriteAheadLog(directory, maximumSegmentSize);
+        this.executorService = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "structurizr-workspace-log-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // retries that are still waiting when the component is stopped are made on the next startup instead
+        this.executorService.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        // replay the log, in order, so that only the latest definition of each workspace is stored again
+        List<WriteAheadLog.Record> records = writeAheadLog.open();
+        for (WriteAheadLog.Record record : records) {
+            WriteAheadLog.Record supersededRecord = pendingRecords.put(record.getWorkspaceId(), record);
+            if (supersededRecord != null) {
+                writeAheadLog.release(supersededRecord);
+            }
+        }
+        for (Long workspaceId : pendingRecords.keySet()) {
+            submit(workspaceId);
+        }
+    }
+
+    @Override
+    public Collection<WorkspaceSummary> getWorkspaces() {
+        return workspaceComponent.getWorkspaces();
+    }
+
+    @Override
+    public boolean workspaceExists(long workspaceId) throws WorkspaceComponentException {
+        return pendingRecords.containsKey(workspaceId) || workspaceComponent.workspaceExists(workspaceId);
+    }
+
+    @Override
+    public boolean createWorkspace(long workspaceId, String key, String secret) throws WorkspaceComponentException {
+        return workspaceComponent.createWorkspace(workspaceId, key, secret);
+    }
+
+    @Override
+    public String getWorkspace(long workspaceId) throws WorkspaceComponentException {
+        try {
+            try (WorkspaceResource workspaceResource = getWorkspaceResource(workspaceId)) {
+                return new String(WorkspaceResource.toByteArray(workspaceResource.getDecodedInputStream()), StandardCharsets.UTF_8);
+            }
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
+        }
+    }
+
+    @Override
+    public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+        while (true) {
+            WriteAheadLog.Record record = pendingRecords.get(workspaceId);
+            if (record == null) {
+                return workspaceComponent.getWorkspaceResource(workspaceId);
+            }
+
+            FileWorkspaceResource workspaceResource = record.getWorkspaceResource();
+            try {
+                return workspaceResource.open();
+            } catch (IOException ioe) {
+                // the segment has been deleted, because the record has since been stored or superseded
+                try {
+                    workspaceResource.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+
+                if (pendingRecords.get(workspaceId) == record) {
+                    throw new WorkspaceComponentException("Could not get workspace " + workspaceId, ioe);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void putWorkspace(long workspaceId, String json) throws WorkspaceComponentException {
+        putWorkspace(workspaceId, new ByteBufferWorkspaceResource(json.getBytes(StandardCharsets.UTF_8), null));
+    }
+
+    @Override
+    public void putWorkspace(long workspaceId, File file) throws WorkspaceComponentException {
+        try {
+            putWorkspace(workspaceId, new FileWorkspaceResource(file, null));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void putWorkspace(long workspaceId, WorkspaceResource workspaceResource) throws WorkspaceComponentException {
+        // the lock ensures that the order of records in the log matches the order they become pending
+        Lock lock = locks.get(workspaceId);
+        lock.lock();
+        try (WorkspaceResource resource = workspaceResource) {
+            WriteAheadLog.Record record = writeAheadLog.append(workspaceId, resource);
+            WriteAheadLog.Record supersededRecord = pendingRecords.put(workspaceId, record);
+            if (supersededRecord != null) {
+                writeAheadLog.release(supersededRecord);
+            }
+        } catch (IOException ioe) {
+            throw new WorkspaceComponentException("Could not put workspace " + workspaceId, ioe);
+        } finally {
+            lock.unlock();
+        }
+
+        submit(workspaceId);
+    }
+
+    /**
+     * Stores the latest logged definition of the given workspace using the underlying component, in the background.
+     * Writes are coalesced per workspace, in the same way as summary updates.
+     */
+    private void submit(long workspaceId) {
+        submit(workspaceId, 0);
+    }
+
+    /**
+     * @param attempt   the number of previous attempts that have failed, which determines how long to wait first
+     */
+    private void submit(long workspaceId, int attempt) {
+        if (pendingWorkspaceIds.add(workspaceId)) {
+            synchronized (lock) {
+                numberOfWritesInProgress++;
+            }
+
+            long delay = getRetryDelay(attempt);
+            try {
+                executorService.schedule(() -> {
+                    boolean stored = false;
+                    try {
+                        pendingWorkspaceIds.remove(workspaceId);
+                        store(workspaceId);
+                        stored = true;
+                    } catch (Exception e) {
+                        // the record stays in the log until it has been stored
+                        System.err.println("Could not store workspace " + workspaceId + " from the write-ahead log (attempt " + (attempt + 1) + "); retrying in " + getRetryDelay(attempt + 1) + "ms");
+                        e.printStackTrace();
+                    } finally {
+                        if (!stored) {
+                            // submitted before this write completes, so that waiting for writes includes the retry
+                            submit(workspaceId, attempt + 1);
+                        }
+
+                        synchronized (lock) {
+                            numberOfWritesInProgress--;
+                            lock.notifyAll();
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the component has been stopped, so the record stays in the log, and is stored on the next startup
+                pendingWorkspaceIds.remove(workspaceId);
+                synchronized (lock) {
+                    numberOfWritesInProgress--;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static long getRetryDelay(int attempt) {
+        if (attempt == 0) {
+            return 0;
+        }
+
+        return Math.min(INITIAL_RETRY_DELAY_IN_MILLISECONDS << Math.min(attempt - 1, 16), MAXIMUM_RETRY_DELAY_IN_MILLISECONDS);
+    }
+
+    private void store(long workspaceId) throws IOException, WorkspaceComponentException {
+        WriteAheadLog.Record record = pendingRecords.get(workspaceId);
+        if (record == null) {
+            return;
+        }
+
+        File file = File.createTempFile("workspace-" + workspaceId + "-", ".json", directory);
+        try {
+            try (WorkspaceResource workspaceResource = record.getWorkspaceResource().open();
+                 FileOutputStream out = new FileOutputStream(file)) {
+                FileChannel channel = out.getChannel();
+                workspaceResource.transferTo(channel);
+            } catch (IOException ioe) {
+                if (pendingRecords.get(workspaceId) != record) {
+                    // superseded (and released) in the meantime, so the later record will be stored instead
+                    return;
+                }
+                throw ioe;
+            }
+
+            workspaceComponent.putWorkspace(workspaceId, file);
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+
+        if (pendingRecords.remove(workspaceId, record)) {
+            writeAheadLog.release(record);
+        }
+    }
+
+    /**
+     * Waits for all logged workspace definitions to be stored by the underlying component.
+     *
+     * @return  true if all writes completed, false if the timeout elapsed first
+     */
+    boolean awaitWrites(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (numberOfWritesInProgress > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void addInvalidationListener(LongConsumer listener) {
+        workspaceComponent.addInvalidationListener(listener);
+    }
+
+    @Override
+    public void start() throws WorkspaceComponentException {
+        workspaceComponent.start();
+    }
+
+    /**
+     * Waits for the logged puts to be stored by the underlying component before stopping it; any that
+     * haven't been stored when the timeout expires stay in the log, and are stored again on the next startup.
+     */
+    @Override
+    public void stop() {
+        try {
+            if (!awaitWrites(SHUTDOWN_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Timed out waiting for logged workspace puts to be stored; they will be stored on the next startup");
+            }
+
+            executorService.shutdown();
+            executorService.awaitTermination(SHUTDOWN_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            writeAheadLog.close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+
+        workspaceComponent.stop();
+    }
+
+    int getNumberOfPendingWrites() {
+        return pendingRecords.size();
+    }
+
+    List<Long> getSegments() {
+        return writeAheadLog.getSegments();
+    }
+
+    @Override
+    public WorkspaceSummary getWorkspaceSummary(long workspaceId) throws WorkspaceComponentException {
+        if (pendingRecords.containsKey(workspaceId)) {
+            // the metadata describes the previous definition, so conditional requests can't be answered yet
+            return null;
+        }
+
+        return workspaceComponent.getWorkspaceSummary(workspaceId);
+    }
+
+    @Override
+    public String getApiKey(long workspaceId) throws WorkspaceComponentException {
+        return workspaceComponent.getApiKey(workspaceId);
+    }
+
+    @Override
+    public String getApiSecret(long workspaceId) throws WorkspaceComponentException {
+        return workspaceComponent.getApiSecret(workspaceId);
+    }
+
+    @Override
+    public WorkspaceResource getImage(long workspaceId, String name) throws WorkspaceComponentException {
+        return workspaceComponent.getImage(workspaceId, name);
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.structurizr.onpremises.web.api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Measures the work done to verify an authenticated PUT request (the content MD5, the Content-MD5 header and the
+ * Authorization header), before ("legacy") and after the verification pipeline was reworked. Run with "gradle jmh",
+ * which uses the GC profiler to report the bytes allocated per operation (gc.alloc.rate.norm) alongside ops/sec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorisationBenchmark {
+
+    private static final String API_KEY = "2b1a855d-3825-4659-8ad2-79c2d96f8be2";
+    private static final String API_SECRET = "5d2c8f3a-9e71-4b62-a0c4-7f1e3d9b6a58";
+    private static final String PATH = "/workspace/1234";
+    private static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+    private static final String NONCE = "1529225966174";
+
+    private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private byte[] content;
+    private String contentMd5Header;
+    private String authorizationHeader;
+
+    @Setup
+    public void setup() throws Exception {
+        content = "{\"id\":1234,\"name\":\"Workspace\",\"description\":\"Description\",\"model\":{},\"views\":{}}".getBytes(StandardCharsets.UTF_8);
+
+        String contentMd5 = new Md5Digest().generate(new String(content, StandardCharsets.UTF_8));
+        contentMd5Header = Base64.getEncoder().encodeToString(contentMd5.getBytes(StandardCharsets.UTF_8));
+
+        String hmac = new HashBasedMessageAuthenticationCode(API_SECRET).generate(new HmacContent("PUT", PATH, contentMd5, CONTENT_TYPE, NONCE).toString());
+        authorizationHeader = new HmacAuthorizationHeader(API_KEY, hmac).format();
+    }
+
+    @Benchmark
+    public boolean legacy() throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        byte[] buffer = new byte[8192];
+        ByteArrayInputStream in = new ByteArrayInputStream(content);
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            NULL_OUTPUT_STREAM.write(buffer, 0, read);
+        }
+        String contentMd5 = DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+
+        String[] parts = authorizationHeader.split(":");
+        if (parts.length != 2 || !parts[0].equals(API_KEY)) {
+            return false;
+        }
+        String hmacInRequest = new String(Base64.getDecoder().decode(parts[1]));
+
+        String contentMd5InRequest = new String(Base64.getDecoder().decode(contentMd5Header));
+        if (!contentMd5InRequest.equals(contentMd5)) {
+            return false;
+        }
+
+        StringBuilder buf = new StringBuilder();
+        for (String string : new String[] { "PUT", PATH, contentMd5InRequest, CONTENT_TYPE, NONCE }) {
+            buf.append(string);
+            buf.append("\n");
+        }
+
+        SecretKeySpec signingKey = new SecretKeySpec(API_SECRET.getBytes(), "HmacSHA256");
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(signingKey);
+        String generatedHmac = DatatypeConverter.printHexBinary(mac.doFinal(buf.toString().getBytes())).toLowerCase();
+
+        return hmacInRequest.equals(generatedHmac);
+    }
+
+    @Benchmark
+    public boolean current() throws Exception {
+        String contentMd5 = new Md5Digest().generate(new ByteArrayInputStream(content), NULL_OUTPUT_STREAM);
+
+        HmacAuthorizationHeader hmacAuthorizationHeader = HmacAuthorizationHeader.parse(authorizationHeader);
+        if (!hmacAuthorizationHeader.getApiKey().equals(API_KEY)) {
+            return false;
+        }
+
+        if (!Digests.isEqual(Base64.getDecoder().decode(contentMd5Header), contentMd5)) {
+            return false;
+        }
+
+        HmacContent hmacContent = new HmacContent("PUT", PATH, contentMd5, CONTENT_TYPE, NONCE);
+        return new HashBasedMessageAuthenticationCode(API_SECRET).verify(hmacContent, hmacAuthorizationHeader.getHmacAsBytes());
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.structurizr.onpremises.web.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTests {
+
+    @Test
+    public void test_tryAdmit_RejectsRequests_WhenTheConcurrencyLimitHasBeenReached() {
+        AdmissionController admissionController = new AdmissionController(2, 0, 0, 0, 0);
+        assertEquals(0, admissionController.tryAdmit());
+        assertEquals(0, admissionController.tryAdmit());
+        assertEquals(AdmissionController.CONCURRENCY_LIMIT_RETRY_AFTER_IN_SECONDS, admissionController.tryAdmit());
+
+        admissionController.release();
+        assertEquals(0, admissionController.tryAdmit());
+    }
+
+    @Test
+    public void test_tryCharge_RejectsRequests_WhenAnApiKeyHasUsedItsTokens() {
+        AdmissionController admissionController = new AdmissionController(0, 0.5, 2, 0, 0);
+        assertEquals(0, admissionController.tryCharge(1, "key1"));
+        assertEquals(0, admissionController.tryCharge(2, "key1"));
+        assertEquals(2, admissionController.tryCharge(3, "key1"));
+
+        assertEquals(0, admissionController.tryCharge(1, "key2"));
+        assertEquals(0, admissionController.tryCharge(1, null));
+    }
+
+    @Test
+    public void test_tryCharge_AcceptsRequests_WhenTheRateLimitsAreDisabled() {
+        AdmissionController admissionController = new AdmissionController(0, 0, 0, 0, 0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, admissionController.tryCharge(1, "key"));
+        }
+    }
+
+    @Test
+    public void test_tryCharge_RejectsRequests_WhenAWorkspaceHasUsedItsTokens() {
+        AdmissionController admissionController = new AdmissionController(0, 0, 0, 0.1, 1);
+        assertEquals(0, admissionController.tryCharge(1, "key1"));
+        assertEquals(10, admissionController.tryCharge(1, "key2"));
+
+        assertEquals(0, admissionController.tryCharge(2, "key1"));
+    }
+
+}
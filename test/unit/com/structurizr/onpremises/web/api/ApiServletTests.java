@@ -2,26 +2,35 @@ package com.structurizr.onpremises.web.api;
 
 import com.structurizr.onpremises.workspace.WorkspaceComponent;
 import com.structurizr.onpremises.workspace.WorkspaceComponentException;
+import com.structurizr.onpremises.workspace.WorkspaceResource;
 import com.structurizr.onpremises.workspace.WorkspaceSummary;
 import org.junit.Before;
 import org.junit.Test;
 
-import javax.imageio.ImageIO;
 import javax.servlet.*;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import java.awt.image.RenderedImage;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.security.Principal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 public class ApiServletTests {
 
@@ -32,8 +41,15 @@ public class ApiServletTests {
 
     @Before
     public void setUp() throws Exception {
+        MockServletContext servletContext = new MockServletContext();
+        servletContext.setAttribute(WorkspaceComponent.class.getName(), workspaceComponent);
+
         apiServlet = new ApiServlet();
-        apiServlet.init(new ServletConfig() {
+        apiServlet.init(createServletConfig(servletContext));
+    }
+
+    private ServletConfig createServletConfig(ServletContext servletContext) {
+        return new ServletConfig() {
             @Override
             public String getServletName() {
                 return "ApiServlet";
@@ -41,7 +57,7 @@ public class ApiServletTests {
 
             @Override
             public ServletContext getServletContext() {
-                return new MockServletContext();
+                return servletContext;
             }
 
             @Override
@@ -53,9 +69,17 @@ public class ApiServletTests {
             public Enumeration getInitParameterNames() {
                 return null;
             }
-        });
+        };
+    }
 
-        apiServlet.setWorkspaceComponent(workspaceComponent);
+    @Test
+    public void test_init_ThrowsAnException_WhenTheWorkspaceComponentHasNotBeenCreated() throws Exception {
+        try {
+            new ApiServlet().init(createServletConfig(new MockServletContext()));
+            fail();
+        } catch (ServletException e) {
+            assertEquals("The workspace component hasn't been created; is com.structurizr.onpremises.web.WorkspaceComponentListener registered as a listener in web.xml?", e.getMessage());
+        }
     }
 
     @Test
@@ -202,6 +226,36 @@ public class ApiServletTests {
         assertEquals("{\"message\":\"Workspace ID must be a number\"}", response.getContent());
     }
 
+    @Test
+    public void test_doGet_ReturnsANotFoundError_WhenTheWorkspaceDoesNotExist() throws Exception {
+        apiServlet.setWorkspaceComponent(new MockWorkspaceComponent() {
+            @Override
+            public boolean workspaceExists(long workspaceId) {
+                return false;
+            }
+        });
+
+        request.setPathInfo("/1");
+        apiServlet.doGet(request, response);
+        assertEquals(404, response.getStatus());
+        assertEquals("{\"message\":\"Workspace 1 does not exist\"}", response.getContent());
+    }
+
+    @Test
+    public void test_doPut_ReturnsANotFoundError_WhenTheWorkspaceDoesNotExist() throws Exception {
+        apiServlet.setWorkspaceComponent(new MockWorkspaceComponent() {
+            @Override
+            public boolean workspaceExists(long workspaceId) {
+                return false;
+            }
+        });
+
+        request.setPathInfo("/1");
+        apiServlet.doPut(request, response);
+        assertEquals(404, response.getStatus());
+        assertEquals("{\"message\":\"Workspace 1 does not exist\"}", response.getContent());
+    }
+
     @Test
     public void test_doGet_ReturnsAnApiError_WhenNoAuthorizationHeaderIsSpecified() throws Exception {
         request.setPathInfo("/1");
@@ -243,6 +297,303 @@ public class ApiServletTests {
         assertEquals("GET, PUT", response.getHeader("Access-Control-Allow-Methods"));
     }
 
+    @Test
+    public void test_doGet_DoesNotReadTheApiKeyAgain_WhenTheSameClientReadsTheWorkspaceRepeatedly() throws Exception {
+        int[] numberOfApiKeyReads = new int[1];
+        workspaceComponent = new MockWorkspaceComponent() {
+            @Override
+            public String getApiKey(long workspaceId) throws WorkspaceComponentException {
+                numberOfApiKeyReads[0]++;
+                return super.getApiKey(workspaceId);
+            }
+        };
+        workspaceComponent.putWorkspace(1, "json");
+        apiServlet.setWorkspaceComponent(workspaceComponent);
+
+        for (int i = 0; i < 3; i++) {
+            request = new MockHttpServletRequest();
+            response = new MockHttpServletResponse();
+            request.setPathInfo("/1");
+            request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+            apiServlet.doGet(request, response);
+            assertEquals(200, response.getStatus());
+        }
+
+        assertEquals(1, numberOfApiKeyReads[0]);
+    }
+
+    @Test
+    public void test_doGet_ReturnsAnApiError_WhenTheApiKeyHasChangedSinceItWasVerified() throws Exception {
+        String[] apiKey = { "key" };
+        List<LongConsumer> listeners = new ArrayList<>();
+        workspaceComponent = new MockWorkspaceComponent() {
+            @Override
+            public String getApiKey(long workspaceId) throws WorkspaceComponentException {
+                return apiKey[0];
+            }
+
+            @Override
+            public void addInvalidationListener(LongConsumer listener) {
+                listeners.add(listener);
+            }
+        };
+        workspaceComponent.putWorkspace(1, "json");
+        apiServlet.setWorkspaceComponent(workspaceComponent);
+
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+        apiServlet.doGet(request, response);
+        assertEquals(200, response.getStatus());
+
+        // the key.txt file is rotated outside of the API
+        apiKey[0] = "otherkey";
+        listeners.forEach(listener -> listener.accept(1));
+
+        response = new MockHttpServletResponse();
+        apiServlet.doGet(request, response);
+        assertEquals(401, response.getStatus());
+        assertEquals("{\"message\":\"Incorrect API key\"}", response.getContent());
+    }
+
+    @Test
+    public void test_service_ReturnsTooManyRequests_WhenTheApiKeyRateLimitHasBeenReached() throws Exception {
+        System.setProperty("structurizr.apiKeyRequestsPerSecond", "0.1");
+        System.setProperty("structurizr.apiKeyBurstSize", "2");
+        try {
+            setUp();
+        } finally {
+            System.clearProperty("structurizr.apiKeyRequestsPerSecond");
+            System.clearProperty("structurizr.apiKeyBurstSize");
+        }
+        workspaceComponent.putWorkspace(1, "json");
+
+        for (int i = 1; i <= 3; i++) {
+            request = new MockHttpServletRequest();
+            response = new MockHttpServletResponse();
+            request.setMethod("GET");
+            request.setPathInfo("/1");
+            request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+            apiServlet.service(request, response);
+        }
+
+        assertEquals(429, response.getStatus());
+        assertEquals("10", response.getHeader("Retry-After"));
+        assertEquals("{\"message\":\"Too many requests, please retry after 10 second(s)\"}", response.getContent());
+        assertEquals("*", response.getHeader("Access-Control-Allow-Origin"));
+
+        // CORS preflight requests aren't limited
+        response = new MockHttpServletResponse();
+        request.setMethod("OPTIONS");
+        apiServlet.service(request, response);
+        assertEquals("GET, PUT", response.getHeader("Access-Control-Allow-Methods"));
+        assertNull(response.getHeader("Retry-After"));
+    }
+
+    @Test
+    public void test_service_DoesNotChargeTheApiKey_WhenTheRequestHasNotBeenAuthenticated() throws Exception {
+        System.setProperty("structurizr.apiKeyRequestsPerSecond", "0.1");
+        System.setProperty("structurizr.apiKeyBurstSize", "1");
+        try {
+            setUp();
+        } finally {
+            System.clearProperty("structurizr.apiKeyRequestsPerSecond");
+            System.clearProperty("structurizr.apiKeyBurstSize");
+        }
+        workspaceComponent.putWorkspace(1, "json");
+
+        // another client, claiming to use the same API key
+        for (int i = 1; i <= 3; i++) {
+            request = new MockHttpServletRequest();
+            response = new MockHttpServletResponse();
+            request.setMethod("GET");
+            request.setPathInfo("/1");
+            request.setParameter("key", "key");
+            request.setParameter("secret", "wrongsecret");
+            apiServlet.service(request, response);
+            assertEquals(401, response.getStatus());
+        }
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setMethod("GET");
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+        apiServlet.service(request, response);
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    public void test_service_DoesNotChargeTheWorkspace_WhenTheRequestHasNotBeenAuthenticated() throws Exception {
+        System.setProperty("structurizr.workspaceRequestsPerSecond", "0.1");
+        System.setProperty("structurizr.workspaceBurstSize", "1");
+        try {
+            setUp();
+        } finally {
+            System.clearProperty("structurizr.workspaceRequestsPerSecond");
+            System.clearProperty("structurizr.workspaceBurstSize");
+        }
+        workspaceComponent.putWorkspace(1, "json");
+
+        // unsigned requests, from a client without the API key
+        for (int i = 1; i <= 3; i++) {
+            request = new MockHttpServletRequest();
+            response = new MockHttpServletResponse();
+            request.setMethod("GET");
+            request.setPathInfo("/1");
+            apiServlet.service(request, response);
+            assertEquals(401, response.getStatus());
+        }
+
+        for (int i = 1; i <= 2; i++) {
+            request = new MockHttpServletRequest();
+            response = new MockHttpServletResponse();
+            request.setMethod("GET");
+            request.setPathInfo("/1");
+            request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+            apiServlet.service(request, response);
+            assertEquals(i == 1 ? 200 : 429, response.getStatus());
+        }
+
+        // only the authorised client's own request used up the token
+        assertEquals("10", response.getHeader("Retry-After"));
+    }
+
+    @Test
+    public void test_doGet_ReturnsTheCompressedWorkspace_WhenTheWorkspaceIsStoredCompressedAndTheClientAcceptsGzip() throws Exception {
+        byte[] compressed = gzip("json");
+        apiServlet.setWorkspaceComponent(new MockWorkspaceComponent() {
+            @Override
+            public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+                return createGzipWorkspaceResource(compressed);
+            }
+        });
+
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=1.0, *;q=0.5");
+        apiServlet.doGet(request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals(Integer.toString(compressed.length), response.getHeader("Content-Length"));
+        assertArrayEquals(compressed, response.getContentAsBytes());
+    }
+
+    @Test
+    public void test_doGet_ReturnsTheUncompressedWorkspace_WhenTheWorkspaceIsStoredCompressedAndTheClientDoesNotAcceptGzip() throws Exception {
+        byte[] compressed = gzip("json");
+        apiServlet.setWorkspaceComponent(new MockWorkspaceComponent() {
+            @Override
+            public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+                return createGzipWorkspaceResource(compressed);
+            }
+        });
+
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0");
+        apiServlet.doGet(request, response);
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("Content-Encoding"));
+        assertNull(response.getHeader("Content-Length"));
+        assertEquals("json", response.getContent());
+    }
+
+    @Test
+    public void test_doGet_ReturnsAnETagAndLastModifiedHeader_WhenTheWorkspaceHasBeenStored() throws Exception {
+        workspaceComponent.putWorkspace(1, "json");
+        apiServlet.setWorkspaceComponent(new MockWorkspaceComponentWithSummary(workspaceComponent));
+
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+        apiServlet.doGet(request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("json", response.getContent());
+        assertEquals("W/\"3-466deec76ecdf5fca6d38571f6324d54\"", response.getHeader("ETag"));
+        assertEquals("Sun, 18 Oct 2026 10:00:00 GMT", response.getHeader("Last-Modified"));
+        assertEquals("no-cache", response.getHeader("Cache-Control"));
+    }
+
+    @Test
+    public void test_doGet_ReturnsNotModified_WhenTheIfNoneMatchHeaderMatchesTheETag() throws Exception {
+        apiServlet.setWorkspaceComponent(new MockWorkspaceComponentWithSummary(workspaceComponent) {
+            @Override
+            public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+                throw new WorkspaceComponentException("The workspace should not be read");
+            }
+        });
+
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"2-abc\", \"3-466deec76ecdf5fca6d38571f6324d54\"");
+        apiServlet.doGet(request, response);
+        assertEquals(304, response.getStatus());
+        assertEquals("", response.getContent());
+        assertEquals("W/\"3-466deec76ecdf5fca6d38571f6324d54\"", response.getHeader("ETag"));
+    }
+
+    @Test
+    public void test_doGet_ReturnsTheWorkspace_WhenTheIfNoneMatchHeaderDoesNotMatchTheETag() throws Exception {
+        workspaceComponent.putWorkspace(1, "json");
+        apiServlet.setWorkspaceComponent(new MockWorkspaceComponentWithSummary(workspaceComponent));
+
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "W/\"2-466deec76ecdf5fca6d38571f6324d54\"");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, "Sun, 18 Oct 2026 10:00:00 GMT");
+        apiServlet.doGet(request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("json", response.getContent());
+    }
+
+    @Test
+    public void test_doGet_ReturnsNotModified_WhenTheWorkspaceHasNotBeenModifiedSinceTheIfModifiedSinceHeader() throws Exception {
+        workspaceComponent.putWorkspace(1, "json");
+        apiServlet.setWorkspaceComponent(new MockWorkspaceComponentWithSummary(workspaceComponent));
+
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, "Sun, 18 Oct 2026 10:00:00 GMT");
+        apiServlet.doGet(request, response);
+        assertEquals(304, response.getStatus());
+
+        response = new MockHttpServletResponse();
+        request = new MockHttpServletRequest();
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NzdiN2M0MjAyNjA3MmJhYWZkYzUzZTgwZWJhNzRmYzE1YmIyYjE4NjBhZTdmODYxMDJhZThlODRkZjM1MTExYw==");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, "Sun, 18 Oct 2026 09:59:59 GMT");
+        apiServlet.doGet(request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("json", response.getContent());
+    }
+
+    private byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private WorkspaceResource createGzipWorkspaceResource(byte[] bytes) {
+        return new WorkspaceResource() {
+            @Override
+            public String getContentEncoding() {
+                return WorkspaceResource.GZIP;
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public long getContentLength() {
+                return bytes.length;
+            }
+        };
+    }
+
     @Test
     public void test_doPut_ReturnsAnApiError_WhenNoNonceHeaderIsSpecified() throws Exception {
         request.setPathInfo("/1");
@@ -285,6 +636,7 @@ public class ApiServletTests {
         apiServlet.doPut(request, response);
         assertEquals(401, response.getStatus());
         assertEquals("{\"message\":\"MD5 hash doesn't match content\"}", response.getContent());
+        assertNull(workspaceComponent.getWorkspace(1));
     }
 
     @Test
@@ -301,9 +653,7 @@ public class ApiServletTests {
         assertNull("json", workspaceComponent.getWorkspace(1));
         request.setContent("json");
         request.setPathInfo("/1");
-        request.addHeader(HttpHeaders.AUTHORIZATION, "key:NWNkODEzYjVkZDE2ZGIzYmFlZDcxNjM5MjY3YjFhNGZiNDc5YjY1MzZiMzkwMjUyYzk3MGVhM2IyNmU4ZWI5OQ==");
-        request.addHeader(HttpHeaders.NONCE, "1234567890");
-        request.addHeader(HttpHeaders.CONTENT_MD5, Base64.getEncoder().encodeToString(new Md5Digest().generate("json").getBytes()));
+        addSignedPutHeaders(request, "json", "" + System.currentTimeMillis());
         apiServlet.doPut(request, response);
         assertEquals(200, response.getStatus());
         assertEquals("json", workspaceComponent.getWorkspace(1));
@@ -313,11 +663,111 @@ public class ApiServletTests {
         assertEquals("GET, PUT", response.getHeader("Access-Control-Allow-Methods"));
     }
 
+    @Test
+    public void test_doPut_ReturnsAnApiError_WhenASignedRequestIsReplayed() throws Exception {
+        String nonce = "" + System.currentTimeMillis();
+        request.setContent("json");
+        request.setPathInfo("/1");
+        addSignedPutHeaders(request, "json", nonce);
+        apiServlet.doPut(request, response);
+        assertEquals(200, response.getStatus());
+
+        workspaceComponent.putWorkspace(1, "other json");
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        request.setContent("json");
+        request.setPathInfo("/1");
+        addSignedPutHeaders(request, "json", nonce);
+        apiServlet.doPut(request, response);
+        assertEquals(401, response.getStatus());
+        assertEquals("{\"message\":\"Nonce has already been used\"}", response.getContent());
+        assertEquals("other json", workspaceComponent.getWorkspace(1));
+    }
+
+    @Test
+    public void test_doPut_ReturnsAnApiError_WhenTheNonceIsOutsideOfTheWindow() throws Exception {
+        request.setContent("json");
+        request.setPathInfo("/1");
+        addSignedPutHeaders(request, "json", "" + (System.currentTimeMillis() - NonceReplayCache.DEFAULT_WINDOW_IN_MILLISECONDS - 60000));
+        apiServlet.doPut(request, response);
+        assertEquals(401, response.getStatus());
+        assertEquals("{\"message\":\"Nonce is more than 300000ms from the server time; is the client clock correct?\"}", response.getContent());
+        assertNull(workspaceComponent.getWorkspace(1));
+    }
+
+    @Test
+    public void test_doPut_ReturnsAnApiError_WhenTheNonceIsNotATimestamp() throws Exception {
+        request.setContent("json");
+        request.setPathInfo("/1");
+        addSignedPutHeaders(request, "json", "abc");
+        apiServlet.doPut(request, response);
+        assertEquals(401, response.getStatus());
+        assertEquals("{\"message\":\"Nonce must be a timestamp (the number of milliseconds since the epoch)\"}", response.getContent());
+        assertNull(workspaceComponent.getWorkspace(1));
+    }
+
+    @Test
+    public void test_doPut_ReturnsRequestTooLarge_WhenTheContentLengthIsGreaterThanTheMaximumWorkspaceSize() throws Exception {
+        setUpWithMaximumWorkspaceSize(10);
+
+        request.setContent("json");
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.CONTENT_LENGTH, "11");
+        addSignedPutHeaders(request, "json", "" + System.currentTimeMillis());
+        apiServlet.doPut(request, response);
+        assertEquals(413, response.getStatus());
+        assertEquals("{\"message\":\"Workspace is larger than the maximum size of 10 bytes\"}", response.getContent());
+        assertNull(workspaceComponent.getWorkspace(1));
+    }
+
+    @Test
+    public void test_doPut_ReturnsRequestTooLarge_WhenMoreThanTheMaximumWorkspaceSizeIsSentWithoutAContentLength() throws Exception {
+        setUpWithMaximumWorkspaceSize(10);
+
+        request.setContent("{\"name\":\"Workspace\"}");
+        request.setPathInfo("/1");
+        addSignedPutHeaders(request, "{\"name\":\"Workspace\"}", "" + System.currentTimeMillis());
+        apiServlet.doPut(request, response);
+        assertEquals(413, response.getStatus());
+        assertNull(workspaceComponent.getWorkspace(1));
+    }
+
+    @Test
+    public void test_doPut_PutsTheWorkspace_WhenItIsTheMaximumWorkspaceSize() throws Exception {
+        setUpWithMaximumWorkspaceSize(4);
+
+        request.setContent("json");
+        request.setPathInfo("/1");
+        request.addHeader(HttpHeaders.CONTENT_LENGTH, "4");
+        addSignedPutHeaders(request, "json", "" + System.currentTimeMillis());
+        apiServlet.doPut(request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals("json", workspaceComponent.getWorkspace(1));
+    }
+
+    private void setUpWithMaximumWorkspaceSize(long maximumWorkspaceSize) throws Exception {
+        System.setProperty("structurizr.maximumWorkspaceSize", "" + maximumWorkspaceSize);
+        try {
+            setUp();
+        } finally {
+            System.clearProperty("structurizr.maximumWorkspaceSize");
+        }
+    }
+
+    private void addSignedPutHeaders(MockHttpServletRequest request, String content, String nonce) throws Exception {
+        String contentMd5 = new Md5Digest().generate(content);
+        String hmac = new HashBasedMessageAuthenticationCode("secret").generate(new HmacContent("PUT", "/workspace/1", contentMd5, "", nonce).toString());
+
+        request.addHeader(HttpHeaders.AUTHORIZATION, new HmacAuthorizationHeader("key", hmac).format());
+        request.addHeader(HttpHeaders.NONCE, nonce);
+        request.addHeader(HttpHeaders.CONTENT_MD5, Base64.getEncoder().encodeToString(contentMd5.getBytes()));
+    }
+
     @Test
     public void test_doGet_ReturnsANotFoundError_WhenAResourceIsRequestedButItDoesNotExist() throws Exception {
         apiServlet.setWorkspaceComponent(new MockWorkspaceComponent() {
             @Override
-            public RenderedImage getImage(long workspaceId, String name) throws WorkspaceComponentException {
+            public WorkspaceResource getImage(long workspaceId, String name) throws WorkspaceComponentException {
                 return null;
             }
         });
@@ -339,8 +789,20 @@ public class ApiServletTests {
         request.setPathInfo("/1/image.png");
         apiServlet.doGet(request, response);
         assertEquals(200, response.getStatus());
-        assertEquals(6631, response.getContentAsBytes().length);
+        assertArrayEquals(Files.readAllBytes(new File("test/unit/com/structurizr/onpremises/image.png").toPath()), response.getContentAsBytes());
         assertEquals("image/png", response.getContentType());
+        assertEquals("10802", response.getHeader("Content-Length"));
+        assertEquals("\"2a32-1a14e743100\"", response.getHeader("ETag"));
+        assertEquals("Sun, 18 Oct 2026 10:00:00 GMT", response.getHeader("Last-Modified"));
+    }
+
+    @Test
+    public void test_doGet_ReturnsNotModified_WhenTheImageHasNotChanged() throws Exception {
+        request.setPathInfo("/1/image.png");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"2a32-1a14e743100\"");
+        apiServlet.doGet(request, response);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsBytes().length);
     }
 
     @Test
@@ -348,7 +810,7 @@ public class ApiServletTests {
         request.setPathInfo("/1/image.jpeg");
         apiServlet.doGet(request, response);
         assertEquals(200, response.getStatus());
-        assertEquals(7772, response.getContentAsBytes().length);
+        assertArrayEquals(Files.readAllBytes(new File("test/unit/com/structurizr/onpremises/image.jpeg").toPath()), response.getContentAsBytes());
         assertEquals("image/jpeg", response.getContentType());
     }
 
@@ -357,7 +819,7 @@ public class ApiServletTests {
         request.setPathInfo("/1/image.jpg");
         apiServlet.doGet(request, response);
         assertEquals(200, response.getStatus());
-        assertEquals(7772, response.getContentAsBytes().length);
+        assertArrayEquals(Files.readAllBytes(new File("test/unit/com/structurizr/onpremises/image.jpg").toPath()), response.getContentAsBytes());
         assertEquals("image/jpeg", response.getContentType());
     }
 
@@ -366,7 +828,7 @@ public class ApiServletTests {
         request.setPathInfo("/1/image.gif");
         apiServlet.doGet(request, response);
         assertEquals(200, response.getStatus());
-        assertEquals(4593, response.getContentAsBytes().length);
+        assertArrayEquals(Files.readAllBytes(new File("test/unit/com/structurizr/onpremises/image.gif").toPath()), response.getContentAsBytes());
         assertEquals("image/gif", response.getContentType());
     }
 
@@ -374,13 +836,14 @@ public class ApiServletTests {
 
 class MockHttpServletRequest implements HttpServletRequest {
 
+    private String method;
     private String pathInfo;
     private Map<String,String> headers = new HashMap<>();
     private Map<String,String> parameters = new HashMap<>();
-    private StringReader stringReader;
+    private String content;
 
     void setContent(String content) {
-        stringReader = new StringReader(content);
+        this.content = content;
     }
 
     @Override
@@ -394,8 +857,17 @@ class MockHttpServletRequest implements HttpServletRequest {
     }
 
     @Override
-    public long getDateHeader(String s) {
-        return 0;
+    public long getDateHeader(String name) {
+        String value = headers.get(name);
+        if (value == null) {
+            return -1;
+        }
+
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(e);
+        }
     }
 
     void addHeader(String name, String value) {
@@ -424,7 +896,11 @@ class MockHttpServletRequest implements HttpServletRequest {
 
     @Override
     public String getMethod() {
-        return null;
+        return method;
+    }
+
+    void setMethod(String method) {
+        this.method = method;
     }
 
     void setPathInfo(String pathInfo) {
@@ -547,7 +1023,14 @@ class MockHttpServletRequest implements HttpServletRequest {
 
     @Override
     public ServletInputStream getInputStream() throws IOException {
-        return null;
+        InputStream in = new ByteArrayInputStream(content.getBytes("UTF-8"));
+
+        return new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+        };
     }
 
     void setParameter(String name, String value) {
@@ -596,7 +1079,7 @@ class MockHttpServletRequest implements HttpServletRequest {
 
     @Override
     public BufferedReader getReader() throws IOException {
-        return new BufferedReader(stringReader);
+        return new BufferedReader(new StringReader(content));
     }
 
     @Override
@@ -672,15 +1155,19 @@ class MockHttpServletResponse implements HttpServletResponse {
     private int status;
     private StringWriter stringWriter = new StringWriter();
     private PrintWriter printWriter = new PrintWriter(stringWriter);
-    private List<Integer> bytes = new ArrayList<>();
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
     private String contentType;
 
     String getContent() {
-        return stringWriter.toString();
+        try {
+            return stringWriter.toString() + bytes.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    Integer[] getContentAsBytes() {
-        return bytes.toArray(new Integer[0]);
+    byte[] getContentAsBytes() {
+        return bytes.toByteArray();
     }
 
     @Override
@@ -729,8 +1216,8 @@ class MockHttpServletResponse implements HttpServletResponse {
     }
 
     @Override
-    public void setDateHeader(String s, long l) {
-
+    public void setDateHeader(String name, long date) {
+        headers.put(name, DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC)));
     }
 
     @Override
@@ -739,8 +1226,8 @@ class MockHttpServletResponse implements HttpServletResponse {
     }
 
     @Override
-    public void setHeader(String s, String s2) {
-
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
     }
 
     @Override
@@ -791,7 +1278,7 @@ class MockHttpServletResponse implements HttpServletResponse {
         return new ServletOutputStream() {
             @Override
             public void write(int b) throws IOException {
-                bytes.add(b);
+                bytes.write(b);
             }
         };
     }
@@ -808,7 +1295,7 @@ class MockHttpServletResponse implements HttpServletResponse {
 
     @Override
     public void setContentLength(int i) {
-
+        headers.put("Content-Length", Integer.toString(i));
     }
 
     @Override
@@ -860,6 +1347,8 @@ class MockHttpServletResponse implements HttpServletResponse {
 
 class MockServletContext implements ServletContext {
 
+    private Map<String,Object> attributes = new HashMap<>();
+
     @Override
     public String getContextPath() {
         return null;
@@ -962,7 +1451,7 @@ class MockServletContext implements ServletContext {
 
     @Override
     public Object getAttribute(String s) {
-        return null;
+        return attributes.get(s);
     }
 
     @Override
@@ -972,12 +1461,12 @@ class MockServletContext implements ServletContext {
 
     @Override
     public void setAttribute(String s, Object o) {
-
+        attributes.put(s, o);
     }
 
     @Override
     public void removeAttribute(String s) {
-
+        attributes.remove(s);
     }
 
     @Override
@@ -996,6 +1485,11 @@ class MockWorkspaceComponent implements WorkspaceComponent {
         return null;
     }
 
+    @Override
+    public boolean workspaceExists(long workspaceId) throws WorkspaceComponentException {
+        return true;
+    }
+
     @Override
     public boolean createWorkspace(long workspaceId, String key, String secret) throws WorkspaceComponentException {
         return false;
@@ -1006,11 +1500,42 @@ class MockWorkspaceComponent implements WorkspaceComponent {
         return workspaces.get(workspaceId);
     }
 
+    @Override
+    public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+        String json = workspaces.get(workspaceId);
+
+        return new WorkspaceResource() {
+            @Override
+            public String getContentEncoding() {
+                return null;
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return new ByteArrayInputStream(json.getBytes("UTF-8"));
+            }
+        };
+    }
+
     @Override
     public void putWorkspace(long workspaceId, String json) throws WorkspaceComponentException {
         workspaces.put(workspaceId, json);
     }
 
+    @Override
+    public void putWorkspace(long workspaceId, File file) throws WorkspaceComponentException {
+        try {
+            workspaces.put(workspaceId, new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+        } catch (IOException e) {
+            throw new WorkspaceComponentException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public WorkspaceSummary getWorkspaceSummary(long workspaceId) throws WorkspaceComponentException {
+        return null;
+    }
+
     @Override
     public String getApiKey(long workspaceId) throws WorkspaceComponentException {
         return "key";
@@ -1022,12 +1547,77 @@ class MockWorkspaceComponent implements WorkspaceComponent {
     }
 
     @Override
-    public RenderedImage getImage(long workspaceId, String name) throws WorkspaceComponentException {
-        try {
-            return ImageIO.read(new File("test/unit/com/structurizr/onpremises", name));
-        } catch (IOException e) {
-            throw new WorkspaceComponentException(e.getMessage(), e);
-        }
+    public WorkspaceResource getImage(long workspaceId, String name) throws WorkspaceComponentException {
+        File file = new File("test/unit/com/structurizr/onpremises", name);
+
+        return new WorkspaceResource() {
+            @Override
+            public String getContentEncoding() {
+                return null;
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return new FileInputStream(file);
+            }
+
+            @Override
+            public long getContentLength() {
+                return file.length();
+            }
+
+            @Override
+            public long getLastModified() {
+                return 1792317600000L; // Sun, 18 Oct 2026 10:00:00 GMT
+            }
+        };
+    }
+
+    @Override
+    public void addInvalidationListener(LongConsumer listener) {
+    }
+
+    @Override
+    public void start() throws WorkspaceComponentException {
+    }
+
+    @Override
+    public void stop() {
+    }
+
+}
+
+class MockWorkspaceComponentWithSummary extends MockWorkspaceComponent {
+
+    private WorkspaceComponent workspaceComponent;
+
+    MockWorkspaceComponentWithSummary(WorkspaceComponent workspaceComponent) {
+        this.workspaceComponent = workspaceComponent;
+    }
+
+    @Override
+    public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+        return workspaceComponent.getWorkspaceResource(workspaceId);
+    }
+
+    @Override
+    public WorkspaceSummary getWorkspaceSummary(long workspaceId) throws WorkspaceComponentException {
+        return new WorkspaceSummary(workspaceId) {
+            @Override
+            public String getHash() {
+                return "466deec76ecdf5fca6d38571f6324d54";
+            }
+
+            @Override
+            public long getVersion() {
+                return 3;
+            }
+
+            @Override
+            public long getLastModified() {
+                return 1792317600000L; // Sun, 18 Oct 2026 10:00:00 GMT
+            }
+        };
     }
 
 }
@@ -0,0 +1,30 @@
+package com.structurizr.onpremises.web.api;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class DigestsTests {
+
+    @Test
+    public void test_isEqual() {
+        assertTrue(Digests.isEqual("ed076287".getBytes(StandardCharsets.US_ASCII), "ed076287"));
+        assertFalse(Digests.isEqual("ed076287".getBytes(StandardCharsets.US_ASCII), "ed076288"));
+        assertFalse(Digests.isEqual("ed076287".getBytes(StandardCharsets.US_ASCII), "ed07628"));
+        assertFalse(Digests.isEqual("ed076287".getBytes(StandardCharsets.US_ASCII), null));
+        assertFalse(Digests.isEqual(null, "ed076287"));
+    }
+
+    @Test
+    public void test_isEqualToHex() {
+        byte[] bytes = { 0, 1, 127, -128, -1, 42 };
+        assertTrue(Digests.isEqualToHex("00017f80ff".getBytes(StandardCharsets.US_ASCII), bytes, 5));
+        assertFalse(Digests.isEqualToHex("00017F80FF".getBytes(StandardCharsets.US_ASCII), bytes, 5));
+        assertFalse(Digests.isEqualToHex("00017f80fe".getBytes(StandardCharsets.US_ASCII), bytes, 5));
+        assertFalse(Digests.isEqualToHex("00017f80".getBytes(StandardCharsets.US_ASCII), bytes, 5));
+        assertFalse(Digests.isEqualToHex(null, bytes, 5));
+    }
+
+}
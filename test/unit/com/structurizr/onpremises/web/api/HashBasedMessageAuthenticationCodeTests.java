@@ -2,7 +2,9 @@ package com.structurizr.onpremises.web.api;
 
 import org.junit.Test;
 
-import static org.junit.Assert.assertEquals;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
 
 public class HashBasedMessageAuthenticationCodeTests {
 
@@ -13,4 +15,38 @@ public class HashBasedMessageAuthenticationCodeTests {
         assertEquals("f7bc83f430538424b13298e6aa6fb143ef4d59a14946175997479dbc2d1a3cd8", code.generate("The quick brown fox jumps over the lazy dog"));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_verify_ReturnsTrue_WhenTheHmacMatches() throws Exception {
+        HashBasedMessageAuthenticationCode code = new HashBasedMessageAuthenticationCode("key");
+        assertTrue(code.verify(new HmacContent("The quick brown fox jumps over the lazy dog"), hex(code.generate("The quick brown fox jumps over the lazy dog\n"))));
+    }
+
+    @Test
+    public void test_verify_ReturnsFalse_WhenTheHmacDoesNotMatch() throws Exception {
+        HashBasedMessageAuthenticationCode code = new HashBasedMessageAuthenticationCode("key");
+        String hmac = code.generate("The quick brown fox jumps over the lazy dog\n");
+
+        assertFalse(code.verify(new HmacContent("The quick brown fox jumps over the lazy cat"), hex(hmac)));
+        assertFalse(code.verify(new HmacContent("The quick brown fox jumps over the lazy dog"), hex(hmac.substring(1))));
+        assertFalse(code.verify(new HmacContent("The quick brown fox jumps over the lazy dog"), hex(hmac.toUpperCase())));
+    }
+
+    @Test
+    public void test_verify_UsesTheRightSecret_WhenTheSameThreadVerifiesRequestsForDifferentWorkspaces() throws Exception {
+        HashBasedMessageAuthenticationCode code1 = new HashBasedMessageAuthenticationCode("secret1");
+        HashBasedMessageAuthenticationCode code2 = new HashBasedMessageAuthenticationCode("secret2");
+        String hmac1 = code1.generate("content\n");
+        String hmac2 = code2.generate("content\n");
+        assertNotEquals(hmac1, hmac2);
+
+        assertTrue(code1.verify(new HmacContent("content"), hex(hmac1)));
+        assertTrue(code2.verify(new HmacContent("content"), hex(hmac2)));
+        assertFalse(code1.verify(new HmacContent("content"), hex(hmac2)));
+        assertTrue(code1.verify(new HmacContent("content"), hex(hmac1)));
+    }
+
+    private byte[] hex(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -31,4 +31,9 @@ public class HmacAuthorizationHeaderTests {
         HmacAuthorizationHeader.parse("1:2:3");
     }
 
-}
\ No newline at end of file
+    @Test(expected = IllegalArgumentException.class)
+    public void test_parse_ThrowsAnException_WhenTheStringDoesNotContainAnHmac() {
+        HmacAuthorizationHeader.parse("apiKey:");
+    }
+
+}
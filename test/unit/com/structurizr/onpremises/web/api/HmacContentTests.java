@@ -2,6 +2,12 @@ package com.structurizr.onpremises.web.api;
 
 import org.junit.Test;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class HmacContentTests {
@@ -17,4 +23,25 @@ public class HmacContentTests {
         assertEquals("String1\nString2\nString3\n", new HmacContent("String1", "String2", "String3").toString());
     }
 
+    @Test
+    public void test_update_PassesTheSameBytesAsTheStringRepresentation() throws Exception {
+        char[] longString = new char[1500];
+        Arrays.fill(longString, 'a');
+
+        assertUpdate(new HmacContent());
+        assertUpdate(new HmacContent("PUT", "/workspace/1234", "ed076287532e86365e841e92bfc50d8c", "application/json; charset=UTF-8", "1529225966174"));
+        assertUpdate(new HmacContent("Caf\u00e9", "na\u00efve \u2603", ""));
+        assertUpdate(new HmacContent(new String(longString), "String2"));
+    }
+
+    private void assertUpdate(HmacContent hmacContent) throws Exception {
+        Mac expected = Mac.getInstance("HmacSHA256");
+        expected.init(new SecretKeySpec("key".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        Mac actual = Mac.getInstance("HmacSHA256");
+        actual.init(new SecretKeySpec("key".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+
+        hmacContent.update(actual);
+        assertArrayEquals(expected.doFinal(hmacContent.toString().getBytes(StandardCharsets.UTF_8)), actual.doFinal());
+    }
+
 }
@@ -2,6 +2,9 @@ package com.structurizr.onpremises.web.api;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
 import static org.junit.Assert.assertEquals;
 
 public class Md5DigestTests {
@@ -19,4 +22,11 @@ public class Md5DigestTests {
         assertEquals("d41d8cd98f00b204e9800998ecf8427e", md5.generate(""));
     }
 
+    @Test
+    public void test_generate_CopiesTheContent_WhenGivenStreams() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals("ed076287532e86365e841e92bfc50d8c", md5.generate(new ByteArrayInputStream("Hello World!".getBytes("UTF-8")), out));
+        assertEquals("Hello World!", out.toString("UTF-8"));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package com.structurizr.onpremises.web.api;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class NonceReplayCacheTests {
+
+    private static final long WINDOW = 60000;
+    private static final long NOW = 1529225966174L;
+
+    private NonceReplayCache nonceReplayCache = new NonceReplayCache(WINDOW);
+
+    @Test
+    public void test_check_AcceptsANonceOnce() {
+        assertEquals(NonceReplayCache.Result.ACCEPTED, nonceReplayCache.check("key", "" + NOW, NOW));
+        assertEquals(NonceReplayCache.Result.REPLAYED, nonceReplayCache.check("key", "" + NOW, NOW + 1000));
+    }
+
+    @Test
+    public void test_check_AcceptsTheSameNonce_WhenItIsUsedWithDifferentApiKeys() {
+        assertEquals(NonceReplayCache.Result.ACCEPTED, nonceReplayCache.check("key1", "" + NOW, NOW));
+        assertEquals(NonceReplayCache.Result.ACCEPTED, nonceReplayCache.check("key2", "" + NOW, NOW));
+        assertEquals(NonceReplayCache.Result.REPLAYED, nonceReplayCache.check("key2", "" + NOW, NOW));
+    }
+
+    @Test
+    public void test_check_RejectsANonce_WhenItIsNotATimestamp() {
+        assertEquals(NonceReplayCache.Result.INVALID, nonceReplayCache.check("key", "abc", NOW));
+        assertEquals(NonceReplayCache.Result.INVALID, nonceReplayCache.check("key", "", NOW));
+    }
+
+    @Test
+    public void test_check_RejectsANonce_WhenItIsOutsideOfTheWindow() {
+        assertEquals(NonceReplayCache.Result.OUTSIDE_WINDOW, nonceReplayCache.check("key", "" + (NOW - WINDOW - 1), NOW));
+        assertEquals(NonceReplayCache.Result.OUTSIDE_WINDOW, nonceReplayCache.check("key", "" + (NOW + WINDOW + 1), NOW));
+        assertEquals(NonceReplayCache.Result.OUTSIDE_WINDOW, nonceReplayCache.check("key", "" + Long.MIN_VALUE, NOW));
+        assertEquals(NonceReplayCache.Result.ACCEPTED, nonceReplayCache.check("key", "" + (NOW - WINDOW), NOW));
+        assertEquals(NonceReplayCache.Result.ACCEPTED, nonceReplayCache.check("key", "" + (NOW + WINDOW), NOW));
+    }
+
+    @Test
+    public void test_check_RejectsAReplayedNonce_UntilItIsOutsideOfTheWindow() {
+        assertEquals(NonceReplayCache.Result.ACCEPTED, nonceReplayCache.check("key", "" + NOW, NOW));
+
+        // the buckets are reused as time passes, without losing the nonces that are still in the window
+        for (long now = NOW; now <= NOW + WINDOW; now += 1000) {
+            assertEquals(NonceReplayCache.Result.ACCEPTED, nonceReplayCache.check("key", "" + (now + 1), now));
+            assertEquals(NonceReplayCache.Result.REPLAYED, nonceReplayCache.check("key", "" + NOW, now));
+        }
+
+        assertEquals(NonceReplayCache.Result.OUTSIDE_WINDOW, nonceReplayCache.check("key", "" + NOW, NOW + WINDOW + 1));
+    }
+
+    @Test
+    public void test_check_AcceptsEachNonceExactlyOnce_WhenCheckedConcurrently() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> {
+                    int accepted = 0;
+                    for (int nonce = 0; nonce < 10000; nonce++) {
+                        if (nonceReplayCache.check("key" + (nonce % 10), "" + (NOW + nonce), NOW) == NonceReplayCache.Result.ACCEPTED) {
+                            accepted++;
+                        }
+                    }
+
+                    return accepted;
+                });
+            }
+
+            int accepted = 0;
+            for (Future<Integer> future : executorService.invokeAll(tasks)) {
+                accepted += future.get();
+            }
+            assertEquals(10000, accepted);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.structurizr.onpremises.web.api;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class SizeLimitedInputStreamTests {
+
+    @Test
+    public void test_read_ReadsTheContent_WhenItIsNoLargerThanTheMaximumSize() throws Exception {
+        InputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 }), 4);
+        assertEquals(1, in.read());
+        assertEquals(3, in.read(new byte[10], 0, 10));
+        assertEquals(-1, in.read());
+    }
+
+    @Test(expected = RequestTooLargeException.class)
+    public void test_read_ThrowsAnException_WhenMoreThanTheMaximumSizeIsRead() throws Exception {
+        InputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }), 4);
+        in.read(new byte[4], 0, 4);
+        in.read();
+    }
+
+    @Test(expected = RequestTooLargeException.class)
+    public void test_read_ThrowsAnException_WhenMoreThanTheMaximumSizeIsReadInOneGo() throws Exception {
+        InputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[8192]), 4096);
+        in.read(new byte[8192], 0, 8192);
+    }
+
+}
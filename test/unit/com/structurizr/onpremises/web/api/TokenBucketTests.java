@@ -0,0 +1,78 @@
+package com.structurizr.onpremises.web.api;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void test_tryTake_AllowsABurstUpToTheCapacity_AndThenTheRate() {
+        long now = System.nanoTime();
+        TokenBucket tokenBucket = new TokenBucket(10, 3, now);
+
+        assertEquals(0, tokenBucket.tryTake(now));
+        assertEquals(0, tokenBucket.tryTake(now));
+        assertEquals(0, tokenBucket.tryTake(now));
+        assertEquals(SECOND / 10, tokenBucket.tryTake(now));
+
+        // one token is added every 100ms
+        assertEquals(SECOND / 20, tokenBucket.tryTake(now + SECOND / 20));
+        assertEquals(0, tokenBucket.tryTake(now + SECOND / 10));
+        assertTrue(tokenBucket.tryTake(now + SECOND / 10) > 0);
+    }
+
+    @Test
+    public void test_isFull_ReturnsTrue_WhenTheBucketHasRefilled() {
+        long now = System.nanoTime();
+        TokenBucket tokenBucket = new TokenBucket(10, 3, now);
+        assertTrue(tokenBucket.isFull(now));
+
+        tokenBucket.tryTake(now);
+        tokenBucket.tryTake(now);
+        assertFalse(tokenBucket.isFull(now + SECOND / 10));
+        assertTrue(tokenBucket.isFull(now + SECOND / 5));
+    }
+
+    @Test
+    public void test_tryTake_TakesNoMoreThanTheCapacity_WhenCalledConcurrently() throws Exception {
+        long now = System.nanoTime();
+        TokenBucket tokenBucket = new TokenBucket(0.001, 1000, now);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> {
+                    int taken = 0;
+                    for (int j = 0; j < 1000; j++) {
+                        if (tokenBucket.tryTake(now) == 0) {
+                            taken++;
+                        }
+                    }
+
+                    return taken;
+                });
+            }
+
+            int taken = 0;
+            for (Future<Integer> future : executorService.invokeAll(tasks)) {
+                taken += future.get();
+            }
+            assertEquals(1000, taken);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+}
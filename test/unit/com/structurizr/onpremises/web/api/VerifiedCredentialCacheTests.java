@@ -0,0 +1,57 @@
+package com.structurizr.onpremises.web.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VerifiedCredentialCacheTests {
+
+    private static final long NOW = 1529225966174L;
+
+    private VerifiedCredentialCache verifiedCredentialCache = new VerifiedCredentialCache(5000);
+
+    @Test
+    public void test_containsApiKey_ReturnsTrue_WhenTheAuthorizationHeaderHasTheVerifiedApiKey() {
+        VerifiedCredentialCache.VerifiedCredentials verifiedCredentials = verifiedCredentialCache.getVerifiedCredentials(1);
+        assertFalse(verifiedCredentials.containsApiKey("key:aG1hYw==", NOW));
+
+        verifiedCredentials.addApiKey("key", NOW);
+        assertTrue(verifiedCredentials.containsApiKey("key:aG1hYw==", NOW));
+        assertTrue(verifiedCredentials.containsApiKey("key:b3RoZXJobWFj", NOW + 4999));
+
+        assertFalse(verifiedCredentials.containsApiKey("key:b3RoZXJobWFj", NOW + 5000));
+        assertFalse(verifiedCredentials.containsApiKey("keys:aG1hYw==", NOW));
+        assertFalse(verifiedCredentials.containsApiKey("ke:aG1hYw==", NOW));
+        assertFalse(verifiedCredentials.containsApiKey("key:", NOW));
+        assertFalse(verifiedCredentials.containsApiKey("key:aG1h:Yw==", NOW));
+        assertFalse(verifiedCredentials.containsApiKey(null, NOW));
+    }
+
+    @Test
+    public void test_containsApiKeyAndSecret_ReturnsTrue_WhenTheKeyAndSecretHaveBeenVerified() {
+        VerifiedCredentialCache.VerifiedCredentials verifiedCredentials = verifiedCredentialCache.getVerifiedCredentials(1);
+        verifiedCredentials.addApiKeyAndSecret("key", "secret", NOW);
+
+        assertTrue(verifiedCredentials.containsApiKeyAndSecret("key", "secret", NOW));
+        assertFalse(verifiedCredentials.containsApiKeyAndSecret("key", "other", NOW));
+        assertFalse(verifiedCredentials.containsApiKeyAndSecret("other", "secret", NOW));
+        assertFalse(verifiedCredentials.containsApiKeyAndSecret("key", "secret", NOW + 5000));
+        assertFalse(verifiedCredentialCache.getVerifiedCredentials(2).containsApiKeyAndSecret("key", "secret", NOW));
+    }
+
+    @Test
+    public void test_invalidate_DiscardsTheVerifiedCredentials_IncludingThoseVerifiedWhileTheWorkspaceWasBeingInvalidated() {
+        VerifiedCredentialCache.VerifiedCredentials verifiedCredentials = verifiedCredentialCache.getVerifiedCredentials(1);
+        verifiedCredentials.addApiKey("key", NOW);
+
+        verifiedCredentialCache.invalidate(1);
+        assertFalse(verifiedCredentialCache.getVerifiedCredentials(1).containsApiKey("key:aG1hYw==", NOW));
+
+        // verified against the credentials read before the workspace was invalidated
+        VerifiedCredentialCache.VerifiedCredentials stale = verifiedCredentialCache.getVerifiedCredentials(1);
+        verifiedCredentialCache.invalidate(1);
+        stale.addApiKey("key", NOW);
+        assertFalse(verifiedCredentialCache.getVerifiedCredentials(1).containsApiKey("key:aG1hYw==", NOW));
+    }
+
+}
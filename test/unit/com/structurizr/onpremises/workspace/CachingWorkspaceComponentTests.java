@@ -0,0 +1,174 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CachingWorkspaceComponentTests {
+
+    private File dataDirectory = new File("build/CachingWorkspaceComponentTests");
+    private FileSystemWorkspaceComponent fileSystemWorkspaceComponent = new FileSystemWorkspaceComponent(dataDirectory);
+    private CachingWorkspaceComponent workspaceComponent = new CachingWorkspaceComponent(fileSystemWorkspaceComponent, 10);
+
+    @Test
+    public void test_getWorkspace_ReturnsTheCachedWorkspace_WhenTheWorkspaceHasAlreadyBeenRead() throws Exception {
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertEquals(0, workspaceComponent.getHits());
+        assertEquals(1, workspaceComponent.getMisses());
+
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertEquals(1, workspaceComponent.getHits());
+        assertEquals(1, workspaceComponent.getMisses());
+        assertEquals(1, workspaceComponent.getNumberOfWorkspaces());
+        assertEquals(7, workspaceComponent.getSize());
+    }
+
+    @Test
+    public void test_getWorkspace_DoesNotCacheTheWorkspace_WhenItDoesNotExist() throws Exception {
+        assertEquals("{}", workspaceComponent.getWorkspace(1));
+        assertEquals(0, workspaceComponent.getNumberOfWorkspaces());
+    }
+
+    @Test
+    public void test_putWorkspace_InvalidatesTheCachedWorkspace() throws Exception {
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+        workspaceComponent.getWorkspace(1);
+
+        workspaceComponent.putWorkspace(1, "{\"b\":2}");
+        assertEquals(0, workspaceComponent.getNumberOfWorkspaces());
+        assertEquals("{\"b\":2}", workspaceComponent.getWorkspace(1));
+    }
+
+    @Test
+    public void test_getWorkspace_ReadsTheWorkspaceAgain_WhenTheFileHasBeenModifiedOutsideOfTheApi() throws Exception {
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+        workspaceComponent.getWorkspace(1);
+
+        fileSystemWorkspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS);
+
+        File file = new File(new File(dataDirectory, "1"), "workspace.json");
+        Files.write(file.toPath(), "{\"a\":12}".getBytes("UTF-8"));
+
+        assertEquals("{\"a\":12}", workspaceComponent.getWorkspace(1));
+        assertEquals(2, workspaceComponent.getMisses());
+    }
+
+    @Test
+    public void test_getWorkspace_ReadsTheWorkspaceAgain_WhenTheFileIsRestoredWithTheSameTimestampAndSize() throws Exception {
+        fileSystemWorkspaceComponent.watchDataDirectory(false);
+        workspaceComponent.start();
+        try {
+            workspaceComponent.putWorkspace(1, "{\"a\":1}");
+            fileSystemWorkspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS);
+            Thread.sleep(200); // for the changes made by the put to be reported
+
+            workspaceComponent.getWorkspace(1);
+            assertEquals(1, workspaceComponent.getNumberOfWorkspaces());
+
+            File file = new File(new File(dataDirectory, "1"), "workspace.json");
+            long lastModified = file.lastModified();
+            Files.write(file.toPath(), "{\"a\":2}".getBytes("UTF-8"));
+            file.setLastModified(lastModified);
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (workspaceComponent.getNumberOfWorkspaces() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("{\"a\":2}", workspaceComponent.getWorkspace(1));
+        } finally {
+            workspaceComponent.stop();
+        }
+    }
+
+    @Test
+    public void test_getWorkspace_DoesNotCacheTheWorkspace_WhenAPutIsCommittedWhileItIsBeingRead() throws Exception {
+        fileSystemWorkspaceComponent = new FileSystemWorkspaceComponent(dataDirectory) {
+            private boolean putting = true;
+
+            @Override
+            public WorkspaceResource getWorkspaceResource(long workspaceId) throws WorkspaceComponentException {
+                WorkspaceResource workspaceResource = super.getWorkspaceResource(workspaceId);
+                if (putting) {
+                    // the same size, so it may well have the same last modified timestamp too
+                    putting = false;
+                    workspaceComponent.putWorkspace(workspaceId, "{\"b\":2}");
+                }
+
+                return workspaceResource;
+            }
+        };
+        workspaceComponent = new CachingWorkspaceComponent(fileSystemWorkspaceComponent, 10);
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertEquals(0, workspaceComponent.getNumberOfWorkspaces());
+        assertEquals("{\"b\":2}", workspaceComponent.getWorkspace(1));
+        assertEquals(1, workspaceComponent.getNumberOfWorkspaces());
+    }
+
+    @Test
+    public void test_getWorkspace_EvictsTheLeastRecentlyUsedWorkspace_WhenTheCacheIsFull() throws Exception {
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+        workspaceComponent.putWorkspace(2, "{\"b\":2}");
+
+        workspaceComponent.getWorkspace(1);
+        workspaceComponent.getWorkspace(2);
+
+        assertEquals(1, workspaceComponent.getEvictions());
+        assertEquals(1, workspaceComponent.getNumberOfWorkspaces());
+        assertEquals(7, workspaceComponent.getSize());
+
+        workspaceComponent.getWorkspace(2);
+        assertEquals(1, workspaceComponent.getHits());
+    }
+
+    @Test
+    public void test_getWorkspace_DoesNotCacheTheWorkspace_WhenItIsLargerThanTheCache() throws Exception {
+        workspaceComponent.putWorkspace(1, "{\"a\":123456789}");
+        workspaceComponent.getWorkspace(1);
+
+        assertEquals(0, workspaceComponent.getNumberOfWorkspaces());
+        assertEquals(0, workspaceComponent.getSize());
+    }
+
+    @Test
+    public void test_stop_UnregistersTheMBeanAndEmptiesTheCache() throws Exception {
+        workspaceComponent.registerMBean();
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+        workspaceComponent.getWorkspace(1);
+
+        workspaceComponent.stop();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("com.structurizr.onpremises:type=WorkspaceCache")));
+        assertEquals(0, workspaceComponent.getNumberOfWorkspaces());
+        assertEquals(0, workspaceComponent.getSize());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystemWorkspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS);
+        deleteDirectory(dataDirectory);
+    }
+
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+}
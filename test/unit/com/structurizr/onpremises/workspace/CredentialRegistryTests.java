@@ -0,0 +1,78 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CredentialRegistryTests {
+
+    private File directory = new File("build/CredentialRegistryTests");
+    private File keyFile = new File(directory, "key.txt");
+    private File secretFile = new File(directory, "secret.txt");
+
+    @Before
+    public void setUp() {
+        directory.mkdirs();
+    }
+
+    @Test
+    public void test_getCredentials_ReturnsNulls_WhenTheFilesDoNotExist() throws Exception {
+        CredentialRegistry.Credentials credentials = new CredentialRegistry().getCredentials(1, keyFile, secretFile);
+        assertNull(credentials.getKey());
+        assertNull(credentials.getSecret());
+    }
+
+    @Test
+    public void test_getCredentials_ReturnsTheCachedCredentials_WithinTheRefreshInterval() throws Exception {
+        CredentialRegistry credentialRegistry = new CredentialRegistry(60000);
+        write(keyFile, "key");
+        write(secretFile, "secret");
+        assertEquals("key", credentialRegistry.getCredentials(1, keyFile, secretFile).getKey());
+
+        write(keyFile, "other-key");
+        keyFile.setLastModified(keyFile.lastModified() + 2000);
+        assertEquals("key", credentialRegistry.getCredentials(1, keyFile, secretFile).getKey());
+    }
+
+    @Test
+    public void test_getCredentials_ReloadsTheCredentials_WhenTheFilesHaveChanged() throws Exception {
+        CredentialRegistry credentialRegistry = new CredentialRegistry(0);
+        write(keyFile, "key");
+        write(secretFile, "secret");
+        assertEquals("key", credentialRegistry.getCredentials(1, keyFile, secretFile).getKey());
+
+        write(keyFile, "other-key");
+        keyFile.setLastModified(keyFile.lastModified() + 2000);
+        assertEquals("other-key", credentialRegistry.getCredentials(1, keyFile, secretFile).getKey());
+        assertEquals("secret", credentialRegistry.getCredentials(1, keyFile, secretFile).getSecret());
+    }
+
+    @Test
+    public void test_putCredentials_ReplacesTheCachedCredentials() throws Exception {
+        CredentialRegistry credentialRegistry = new CredentialRegistry(60000);
+        assertNull(credentialRegistry.getCredentials(1, keyFile, secretFile).getKey());
+
+        write(keyFile, "key");
+        write(secretFile, "secret");
+        credentialRegistry.putCredentials(1, "key", "secret", keyFile, secretFile);
+        assertEquals("key", credentialRegistry.getCredentials(1, keyFile, secretFile).getKey());
+        assertEquals("secret", credentialRegistry.getCredentials(1, keyFile, secretFile).getSecret());
+    }
+
+    @After
+    public void tearDown() {
+        keyFile.delete();
+        secretFile.delete();
+        directory.delete();
+    }
+
+    private void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+
+}
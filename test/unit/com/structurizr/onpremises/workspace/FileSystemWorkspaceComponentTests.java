@@ -5,13 +5,21 @@ import com.structurizr.io.json.JsonWriter;
 import org.junit.After;
 import org.junit.Test;
 
-import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.channels.Channels;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -58,6 +66,7 @@ public class FileSystemWorkspaceComponentTests {
 
         String content = stringWriter.toString();
         workspaceComponent.putWorkspace(1, content);
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
 
         Properties properties = new Properties();
         File propertiesFile = new File(new File(dataDirectory, "1"), "workspace.properties");
@@ -69,6 +78,237 @@ public class FileSystemWorkspaceComponentTests {
         assertEquals(content, workspaceComponent.getWorkspace(1));
     }
 
+    @Test
+    public void test_getWorkspaces_ReturnsTheWorkspaceSummaries() throws Exception {
+        workspaceComponent.createWorkspace(1, "2b1a855d-3825-4659-8ad2-79c2d96f8be2", "c8b0a5e2-1e0d-4e3a-8f51-3c3c8c2f0b7e");
+        workspaceComponent.putWorkspace(1, createWorkspaceJson("Name"));
+        workspaceComponent.createWorkspace(2, "key", "secret");
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
+
+        List<WorkspaceSummary> workspaces = new ArrayList<>(workspaceComponent.getWorkspaces());
+        assertEquals(2, workspaces.size());
+
+        WorkspaceSummary workspace = workspaces.get(0);
+        assertEquals(1, workspace.getId());
+        assertEquals("Name", workspace.getName());
+        assertTrue(workspace.isKey());
+        assertTrue(workspace.isSecret());
+        assertTrue(workspace.isData());
+        assertEquals(createWorkspaceJson("Name").length(), workspace.getSize());
+
+        workspace = workspaces.get(1);
+        assertEquals(2, workspace.getId());
+        assertFalse(workspace.isKey());
+        assertFalse(workspace.isSecret());
+        assertFalse(workspace.isData());
+    }
+
+    @Test
+    public void test_getWorkspaces_ReadsTheIndex_WhenTheComponentIsRestarted() throws Exception {
+        workspaceComponent.createWorkspace(1, "2b1a855d-3825-4659-8ad2-79c2d96f8be2", "c8b0a5e2-1e0d-4e3a-8f51-3c3c8c2f0b7e");
+        workspaceComponent.putWorkspace(1, createWorkspaceJson("Name"));
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
+        assertTrue(new File(new File(dataDirectory, "index"), "workspaces.index").exists());
+
+        // the workspace directory has changed since the index was written, so the summary is re-validated
+        new File(new File(dataDirectory, "1"), "key.txt").delete();
+        File directory = new File(dataDirectory, "1");
+        directory.setLastModified(directory.lastModified() + 2000);
+
+        List<WorkspaceSummary> workspaces = new ArrayList<>(new FileSystemWorkspaceComponent(dataDirectory).getWorkspaces());
+        assertEquals(1, workspaces.size());
+        assertEquals("Name", workspaces.get(0).getName());
+        assertFalse(workspaces.get(0).isKey());
+        assertTrue(workspaces.get(0).isSecret());
+        assertEquals(1, workspaces.get(0).getVersion());
+    }
+
+    @Test
+    public void test_getWorkspaces_IncludesWorkspaces_WhenTheyAreCreatedOutsideOfTheApi() throws Exception {
+        workspaceComponent.createWorkspace(1, "2b1a855d-3825-4659-8ad2-79c2d96f8be2", "c8b0a5e2-1e0d-4e3a-8f51-3c3c8c2f0b7e");
+        assertEquals(1, workspaceComponent.getWorkspaces().size());
+
+        File dir = new File(dataDirectory, "2");
+        dir.mkdirs();
+        Files.write(new File(dir, "key.txt").toPath(), "2b1a855d-3825-4659-8ad2-79c2d96f8be2".getBytes());
+        Files.write(new File(dir, "workspace.json").toPath(), "{}".getBytes());
+        dataDirectory.setLastModified(dataDirectory.lastModified() + 2000);
+
+        List<WorkspaceSummary> workspaces = new ArrayList<>(workspaceComponent.getWorkspaces());
+        assertEquals(2, workspaces.size());
+        assertEquals(2, workspaces.get(1).getId());
+        assertTrue(workspaces.get(1).isKey());
+        assertFalse(workspaces.get(1).isSecret());
+        assertFalse(workspaces.get(1).isData());
+    }
+
+    @Test
+    public void test_putWorkspace_UpdatesTheWorkspaceSummaryOnceForTheLatestVersion_WhenTheWorkspaceIsPutSeveralTimes() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            workspaceComponent.putWorkspace(1, createWorkspaceJson("Name " + i));
+        }
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
+
+        Properties properties = new Properties();
+        properties.load(new FileReader(new File(new File(dataDirectory, "1"), "workspace.properties")));
+        assertEquals("Name 10", properties.getProperty("name"));
+        assertEquals("Name 10", workspaceComponent.getWorkspaces().iterator().next().getName());
+    }
+
+    @Test
+    public void test_putAndGetWorkspace_WhenWorkspacesAreCompressed() throws Exception {
+        workspaceComponent = new FileSystemWorkspaceComponent(dataDirectory, true);
+        String content = createWorkspaceJson("Name");
+        workspaceComponent.putWorkspace(1, content);
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
+
+        File file = new File(new File(dataDirectory, "1"), "workspace.json.gz");
+        assertTrue(file.exists());
+        assertFalse(new File(new File(dataDirectory, "1"), "workspace.json").exists());
+        assertEquals(content, workspaceComponent.getWorkspace(1));
+        assertEquals("Name", workspaceComponent.getWorkspaces().iterator().next().getName());
+
+        WorkspaceResource workspaceResource = workspaceComponent.getWorkspaceResource(1);
+        assertEquals("gzip", workspaceResource.getContentEncoding());
+        assertArrayEquals(Files.readAllBytes(file.toPath()), WorkspaceResource.toByteArray(workspaceResource.getInputStream()));
+        assertEquals(content, new String(WorkspaceResource.toByteArray(workspaceResource.getDecodedInputStream()), "UTF-8"));
+    }
+
+    @Test
+    public void test_putWorkspace_MovesTheFileIntoPlace_WhenGivenAFile() throws Exception {
+        dataDirectory.mkdirs();
+        File file = new File(dataDirectory, "upload.json");
+        Files.write(file.toPath(), "{\"a\":1}".getBytes("UTF-8"));
+
+        workspaceComponent.putWorkspace(1, file);
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
+        assertFalse(file.exists());
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertEquals(0, new File(dataDirectory, "1").listFiles(f -> f.getName().endsWith(".tmp")).length);
+    }
+
+    @Test
+    public void test_putWorkspace_StoresTheGivenHash_WhenGivenAFileAndItsHash() throws Exception {
+        dataDirectory.mkdirs();
+        File file = new File(dataDirectory, "upload.json");
+        Files.write(file.toPath(), "json".getBytes("UTF-8"));
+
+        // the hash is stored as given, rather than being generated by reading the file again
+        workspaceComponent.putWorkspace(1, file, "0123456789abcdef0123456789abcdef");
+        assertEquals("0123456789abcdef0123456789abcdef", workspaceComponent.getWorkspaceSummary(1).getHash());
+        assertEquals("json", workspaceComponent.getWorkspace(1));
+    }
+
+    @Test
+    public void test_putWorkspace_CompressesTheFile_WhenGivenAFileAndWorkspacesAreCompressed() throws Exception {
+        workspaceComponent = new FileSystemWorkspaceComponent(dataDirectory, true);
+        dataDirectory.mkdirs();
+        File file = new File(dataDirectory, "upload.json");
+        Files.write(file.toPath(), "{\"a\":1}".getBytes("UTF-8"));
+
+        workspaceComponent.putWorkspace(1, file);
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
+        assertTrue(new File(new File(dataDirectory, "1"), "workspace.json.gz").exists());
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertEquals(0, new File(dataDirectory, "1").listFiles(f -> f.getName().endsWith(".tmp")).length);
+    }
+
+    @Test
+    public void test_getWorkspaceSummary_ReturnsTheHashAndVersion_WhenTheWorkspaceHasBeenPut() throws Exception {
+        workspaceComponent.putWorkspace(1, "json");
+
+        WorkspaceSummary workspaceSummary = workspaceComponent.getWorkspaceSummary(1);
+        assertEquals("466deec76ecdf5fca6d38571f6324d54", workspaceSummary.getHash());
+        assertEquals(1, workspaceSummary.getVersion());
+
+        workspaceComponent.putWorkspace(1, "{}");
+        workspaceSummary = workspaceComponent.getWorkspaceSummary(1);
+        assertEquals("99914b932bd37a50b983c5e7c90ae93b", workspaceSummary.getHash());
+        assertEquals(2, workspaceSummary.getVersion());
+
+        // and the hash and version are persisted in the index
+        workspaceSummary = new FileSystemWorkspaceComponent(dataDirectory).getWorkspaceSummary(1);
+        assertEquals("99914b932bd37a50b983c5e7c90ae93b", workspaceSummary.getHash());
+        assertEquals(2, workspaceSummary.getVersion());
+    }
+
+    @Test
+    public void test_getWorkspaceSummary_RegeneratesTheHash_WhenTheWorkspaceHasBeenModifiedOutsideOfTheApi() throws Exception {
+        workspaceComponent.putWorkspace(1, "json");
+        workspaceComponent.getWorkspaceSummary(1);
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
+
+        File file = new File(new File(dataDirectory, "1"), "workspace.json");
+        Files.write(file.toPath(), "{}".getBytes("UTF-8"));
+        file.setLastModified(file.lastModified() - 10000);
+
+        WorkspaceSummary workspaceSummary = workspaceComponent.getWorkspaceSummary(1);
+        assertEquals("99914b932bd37a50b983c5e7c90ae93b", workspaceSummary.getHash());
+        assertEquals(2, workspaceSummary.getVersion());
+    }
+
+    @Test
+    public void test_getWorkspaceSummary_ReturnsANullHash_WhenTheWorkspaceHasNoDefinition() throws Exception {
+        workspaceComponent.createWorkspace(1, "key", "secret");
+
+        assertNull(workspaceComponent.getWorkspaceSummary(1).getHash());
+    }
+
+    @Test
+    public void test_putWorkspace_LeavesTheWorkspaceAndSummaryConsistent_WhenTheWorkspaceIsPutConcurrently() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String json = createWorkspaceJson("Name " + i);
+            futures.add(executorService.submit(() -> {
+                workspaceComponent.putWorkspace(1, json);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
+
+        String json = workspaceComponent.getWorkspace(1);
+        String name = WorkspaceSummaryScanner.scan(new StringReader(json)).getName();
+
+        Properties properties = new Properties();
+        try (FileReader fileReader = new FileReader(new File(new File(dataDirectory, "1"), "workspace.properties"))) {
+            properties.load(fileReader);
+        }
+        assertEquals(name, properties.getProperty("name"));
+
+        WorkspaceSummary workspaceSummary = workspaceComponent.getWorkspaceSummary(1);
+        assertEquals(name, workspaceSummary.getName());
+        assertTrue(workspaceSummary.getVersion() >= 1 && workspaceSummary.getVersion() <= 40); // some puts may have been superseded
+        assertEquals(0, new File(dataDirectory, "1").listFiles(f -> f.getName().endsWith(".tmp")).length);
+    }
+
+    @Test
+    public void test_getWorkspaceResource_TransfersTheStoredBytes() throws Exception {
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (WorkspaceResource workspaceResource = workspaceComponent.getWorkspaceResource(1)) {
+            assertEquals(7, workspaceResource.getContentLength());
+            workspaceResource.transferTo(Channels.newChannel(bytes));
+        }
+
+        assertEquals("{\"a\":1}", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void test_getWorkspace_ReturnsAnUncompressedWorkspace_WhenWorkspacesAreCompressed() throws Exception {
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+        assertTrue(workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS));
+
+        workspaceComponent = new FileSystemWorkspaceComponent(dataDirectory, true);
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertNull(workspaceComponent.getWorkspaceResource(1).getContentEncoding());
+    }
+
     @Test
     public void test_getWorkspace_ReturnsAnEmptyJsonString_WhenTheWorkspaceDoesNotExist() {
         try {
@@ -141,12 +381,140 @@ public class FileSystemWorkspaceComponentTests {
         File destination = new File(dir, "image.png");
         Files.copy(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
 
-        RenderedImage image = workspaceComponent.getImage(1, "image.png");
-        assertNotNull(image);
+        try (WorkspaceResource image = workspaceComponent.getImage(1, "image.png")) {
+            assertArrayEquals(Files.readAllBytes(source.toPath()), WorkspaceResource.toByteArray(image.getInputStream()));
+            assertEquals(source.length(), image.getContentLength());
+        }
+    }
+
+    @Test
+    public void test_getImage_ReturnsNull_WhenTheNameIsAPathOutsideOfTheWorkspaceDirectory() throws Exception {
+        File dir = new File(dataDirectory, "1");
+        dir.mkdirs();
+        Files.copy(new File("test/unit/com/structurizr/onpremises/image.png").toPath(), new File(dataDirectory, "image.png").toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        assertNull(workspaceComponent.getImage(1, "../image.png"));
+    }
+
+    private String createWorkspaceJson(String name) throws Exception {
+        JsonWriter jsonWriter = new JsonWriter(false);
+        StringWriter stringWriter = new StringWriter();
+        jsonWriter.write(new Workspace(name, "Description"), stringWriter);
+
+        return stringWriter.toString();
+    }
+
+    @Test
+    public void test_workspaceExists_ReturnsTrue_WhenTheWorkspaceHasBeenCreated() throws Exception {
+        assertFalse(workspaceComponent.workspaceExists(1));
+        workspaceComponent.createWorkspace(1, "key", "secret");
+        assertTrue(workspaceComponent.workspaceExists(1));
+    }
+
+    @Test
+    public void test_reads_DoNotCreateADirectory_WhenTheWorkspaceDoesNotExist() throws Exception {
+        assertFalse(workspaceComponent.workspaceExists(99));
+        assertEquals("{}", workspaceComponent.getWorkspace(99));
+        assertNull(workspaceComponent.getWorkspaceSummary(99));
+        assertNull(workspaceComponent.getImage(99, "image.png"));
+        try {
+            workspaceComponent.getApiKey(99);
+            fail();
+        } catch (WorkspaceComponentException e) {
+            // expected
+        }
+
+        assertFalse(new File(dataDirectory, "99").exists());
+    }
+
+    @Test
+    public void test_createWorkspace_StoresTheWorkspaceInAHashBucket_WhenTheDirectoriesAreSharded() throws Exception {
+        workspaceComponent = new FileSystemWorkspaceComponent(dataDirectory, false, true);
+        workspaceComponent.createWorkspace(1, "key", "secret");
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+
+        File directory = new WorkspaceDirectoryLayout(dataDirectory, true).getShardedDirectory(1);
+        assertTrue(new File(directory, "workspace.json").exists());
+        assertFalse(new File(dataDirectory, "1").exists());
+
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertEquals("key", workspaceComponent.getApiKey(1));
+        assertEquals(1, workspaceComponent.getWorkspaces().size());
+    }
+
+    @Test
+    public void test_migrateWorkspaceDirectories_MovesExistingWorkspacesIntoHashBuckets() throws Exception {
+        for (long workspaceId = 1; workspaceId <= 20; workspaceId++) {
+            workspaceComponent.createWorkspace(workspaceId, "key" + workspaceId, "secret" + workspaceId);
+            workspaceComponent.putWorkspace(workspaceId, "{\"id\":" + workspaceId + "}");
+        }
+        workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS);
+
+        // the migration starts in the background, while the workspaces are being read
+        workspaceComponent = new FileSystemWorkspaceComponent(dataDirectory, false, true);
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        long deadline = System.currentTimeMillis() + 10000;
+        do {
+            for (long workspaceId = 1; workspaceId <= 20; workspaceId++) {
+                assertEquals("{\"id\":" + workspaceId + "}", workspaceComponent.getWorkspace(workspaceId));
+                assertEquals("key" + workspaceId, workspaceComponent.getApiKey(workspaceId));
+            }
+        } while (!layout.getFlatWorkspaceIds().isEmpty() && System.currentTimeMillis() < deadline);
+
+        assertTrue(layout.getFlatWorkspaceIds().isEmpty());
+        assertEquals(20, layout.getWorkspaceIds().size());
+        assertEquals(20, workspaceComponent.getWorkspaces().size());
+        assertTrue(new File(layout.getShardedDirectory(7), "workspace.json").exists());
+    }
+
+    @Test
+    public void test_workspaceChanged_OnlyInvalidatesTheWorkspace_WhenTheFileHasBeenChangedOutsideOfTheAPI() throws Exception {
+        workspaceComponent.watchDataDirectory(true);
+        workspaceComponent.createWorkspace(1, "key", "secret");
+        workspaceComponent.putWorkspace(1, createWorkspaceJson("Name"));
+        workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS);
+
+        List<Long> invalidatedWorkspaceIds = new ArrayList<>();
+        workspaceComponent.addInvalidationListener(invalidatedWorkspaceIds::add);
+
+        // the files written by the component itself
+        for (String filename : new String[] { "key.txt", "secret.txt", "workspace.json", "workspace.json.gz", "workspace.properties" }) {
+            workspaceComponent.workspaceChanged(1, filename);
+        }
+        assertTrue(invalidatedWorkspaceIds.isEmpty());
+
+        Files.write(new File(new File(dataDirectory, "1"), "key.txt").toPath(), "rotated key".getBytes());
+        workspaceComponent.workspaceChanged(1, "key.txt");
+        assertEquals("[1]", invalidatedWorkspaceIds.toString());
+        assertEquals("rotated key", workspaceComponent.getApiKey(1));
+
+        workspaceComponent.workspaceChanged(1, null);
+        assertEquals("[1, 1]", invalidatedWorkspaceIds.toString());
+    }
+
+    @Test
+    public void test_stop_AppliesTheQueuedSummaryUpdates() throws Exception {
+        workspaceComponent.start();
+        workspaceComponent.createWorkspace(1, "key", "secret");
+        workspaceComponent.putWorkspace(1, createWorkspaceJson("Name"));
+        workspaceComponent.stop();
+
+        Properties properties = new Properties();
+        try (FileReader fileReader = new FileReader(new File(new File(dataDirectory, "1"), "workspace.properties"))) {
+            properties.load(fileReader);
+        }
+        assertEquals("Name", properties.getProperty("name"));
+
+        // the index has been closed, and is read again from the journal
+        FileSystemWorkspaceComponent restartedWorkspaceComponent = new FileSystemWorkspaceComponent(dataDirectory);
+        restartedWorkspaceComponent.start();
+        assertEquals("Name", restartedWorkspaceComponent.getWorkspaceSummary(1).getName());
+        restartedWorkspaceComponent.stop();
     }
 
     @After
-    public void tearDown() {
+    public void tearDown() throws Exception {
+        workspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS);
         deleteDirectory(dataDirectory);
     }
 
@@ -156,6 +524,7 @@ public class FileSystemWorkspaceComponentTests {
             for (File file : files) {
                 if (file.isDirectory()) {
                     deleteDirectory(file);
+                    file.delete();
                 } else {
                     file.delete();
                 }
@@ -0,0 +1,334 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LogStructuredWorkspaceComponentTests {
+
+    private static final String KEY = "6b0d5f0b-9b5f-4a4e-8f0c-6c2b2b1b3a4f";
+    private static final String SECRET = "1e2d3c4b-5a69-4788-9a0b-c1d2e3f4a5b6";
+
+    private File dataDirectory = new File("build/LogStructuredWorkspaceComponentTests");
+    private LogStructuredWorkspaceComponent workspaceComponent;
+
+    @Test
+    public void test_createWorkspace_StoresTheCredentials() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        assertTrue(workspaceComponent.createWorkspace(1, KEY, SECRET));
+        assertFalse(workspaceComponent.createWorkspace(1, "key", "secret"));
+
+        assertEquals(KEY, workspaceComponent.getApiKey(1));
+        assertEquals(SECRET, workspaceComponent.getApiSecret(1));
+
+        WorkspaceSummary workspaceSummary = workspaceComponent.getWorkspaceSummary(1);
+        assertTrue(workspaceSummary.isKey());
+        assertTrue(workspaceSummary.isSecret());
+        assertFalse(workspaceSummary.isData());
+    }
+
+    @Test
+    public void test_getApiKey_ThrowsAnException_WhenTheWorkspaceDoesNotExist() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        try {
+            workspaceComponent.getApiKey(1);
+            fail();
+        } catch (WorkspaceComponentException e) {
+            assertEquals("Could not find API key for workspace 1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_putWorkspace_StoresTheDefinitionAndSummary() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        assertEquals("{}", workspaceComponent.getWorkspace(1));
+
+        workspaceComponent.createWorkspace(1, KEY, SECRET);
+        workspaceComponent.putWorkspace(1, "{\"name\":\"Name\"}");
+        workspaceComponent.putWorkspace(1, "{\"name\":\"Other name\"}");
+
+        assertEquals("{\"name\":\"Other name\"}", workspaceComponent.getWorkspace(1));
+        WorkspaceSummary workspaceSummary = workspaceComponent.getWorkspaceSummary(1);
+        assertEquals("Other name", workspaceSummary.getName());
+        assertEquals(2, workspaceSummary.getVersion());
+        assertEquals(21, workspaceSummary.getSize());
+        assertTrue(workspaceSummary.isData());
+        assertEquals(32, workspaceSummary.getHash().length());
+    }
+
+    @Test
+    public void test_putWorkspace_StoresACompressedDefinition_WhenCompressionIsEnabled() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, true);
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+
+        try (WorkspaceResource workspaceResource = workspaceComponent.getWorkspaceResource(1)) {
+            assertEquals(WorkspaceResource.GZIP, workspaceResource.getContentEncoding());
+        }
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+    }
+
+    @Test
+    public void test_putWorkspace_StoresTheDefinitionInTheGivenFile() throws Exception {
+        assertPutWorkspaceStoresTheDefinitionInTheGivenFile(false);
+    }
+
+    @Test
+    public void test_putWorkspace_StoresTheDefinitionInTheGivenFile_WhenCompressionIsEnabled() throws Exception {
+        assertPutWorkspaceStoresTheDefinitionInTheGivenFile(true);
+    }
+
+    private void assertPutWorkspaceStoresTheDefinitionInTheGivenFile(boolean compressWorkspaces) throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, compressWorkspaces);
+
+        File file = new File(dataDirectory, "upload.json");
+        Files.write(file.toPath(), "{\"name\":\"Name\"}".getBytes(StandardCharsets.UTF_8));
+        workspaceComponent.putWorkspace(1, file);
+        assertFalse(file.exists());
+
+        // the hash is stored as given, rather than being generated by reading the file
+        Files.write(file.toPath(), "{\"name\":\"Other name\"}".getBytes(StandardCharsets.UTF_8));
+        workspaceComponent.putWorkspace(2, file, "0123456789abcdef0123456789abcdef");
+        assertEquals(0, dataDirectory.listFiles((dir, name) -> name.endsWith(".staging")).length);
+
+        workspaceComponent.close();
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, compressWorkspaces);
+        assertEquals("{\"name\":\"Name\"}", workspaceComponent.getWorkspace(1));
+        WorkspaceSummary workspaceSummary = workspaceComponent.getWorkspaceSummary(1);
+        assertEquals("Name", workspaceSummary.getName());
+        assertEquals(15, workspaceSummary.getSize());
+        assertEquals(Md5Hash.generate("{\"name\":\"Name\"}".getBytes(StandardCharsets.UTF_8)), workspaceSummary.getHash());
+
+        assertEquals("{\"name\":\"Other name\"}", workspaceComponent.getWorkspace(2));
+        workspaceSummary = workspaceComponent.getWorkspaceSummary(2);
+        assertEquals("Other name", workspaceSummary.getName());
+        assertEquals("0123456789abcdef0123456789abcdef", workspaceSummary.getHash());
+    }
+
+    @Test
+    public void test_putWorkspace_StoresEveryWorkspace_WhenWorkspacesArePutConcurrently() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (long workspaceId = 1; workspaceId <= 100; workspaceId++) {
+                long id = workspaceId;
+                tasks.add(() -> {
+                    workspaceComponent.putWorkspace(id, "{\"id\":" + id + "}");
+                    return null;
+                });
+            }
+
+            for (Future<Void> future : executorService.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        workspaceComponent.close();
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        for (long workspaceId = 1; workspaceId <= 100; workspaceId++) {
+            assertEquals("{\"id\":" + workspaceId + "}", workspaceComponent.getWorkspace(workspaceId));
+        }
+    }
+
+    @Test
+    public void test_construction_ReadsTheExistingRecords() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        workspaceComponent.createWorkspace(1, KEY, SECRET);
+        workspaceComponent.putWorkspace(1, "{\"name\":\"One\"}");
+        workspaceComponent.putWorkspace(2, "{\"name\":\"Two\"}");
+        workspaceComponent.putWorkspace(1, "{\"name\":\"Three\"}");
+        workspaceComponent.close();
+
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        assertEquals(KEY, workspaceComponent.getApiKey(1));
+        assertEquals("{\"name\":\"Three\"}", workspaceComponent.getWorkspace(1));
+        assertEquals("{\"name\":\"Two\"}", workspaceComponent.getWorkspace(2));
+        assertEquals(2, workspaceComponent.getWorkspaceSummary(1).getVersion());
+
+        Collection<WorkspaceSummary> workspaces = workspaceComponent.getWorkspaces();
+        assertEquals(2, workspaces.size());
+        assertEquals("Three", workspaces.iterator().next().getName());
+    }
+
+    @Test
+    public void test_construction_TruncatesAPartiallyWrittenRecord() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+        long size = workspaceComponent.getSize();
+        workspaceComponent.putWorkspace(1, "{\"a\":2}");
+        workspaceComponent.close();
+
+        // simulate a crash part way through the second put
+        File file = new File(dataDirectory, LogStructuredWorkspaceComponent.FILENAME);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(file.length() - 3);
+        }
+
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertEquals(size, workspaceComponent.getSize());
+    }
+
+    @Test
+    public void test_construction_ReadsARecordThatIsLargerThanTheReadBuffer() throws Exception {
+        StringBuilder json = new StringBuilder("{\"a\":\"");
+        while (json.length() < 100000) {
+            json.append("0123456789");
+        }
+        json.append("\"}");
+
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        workspaceComponent.putWorkspace(1, json.toString());
+        workspaceComponent.putWorkspace(2, "{\"b\":2}");
+        workspaceComponent.close();
+
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        assertEquals(json.toString(), workspaceComponent.getWorkspace(1));
+        assertEquals("{\"b\":2}", workspaceComponent.getWorkspace(2));
+    }
+
+    @Test
+    public void test_construction_TruncatesTheLastRecord_WhenItsChecksumIsInvalid() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+        long size = workspaceComponent.getSize();
+        workspaceComponent.putWorkspace(1, "{\"a\":2}");
+        workspaceComponent.close();
+
+        // corrupt the workspace definition at the end of the second put
+        File file = new File(dataDirectory, LogStructuredWorkspaceComponent.FILENAME);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(file.length() - 2);
+            randomAccessFile.write('3');
+        }
+
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertEquals(size, workspaceComponent.getSize());
+    }
+
+    @Test
+    public void test_construction_ImportsWorkspacesStoredInADirectoryPerWorkspace() throws Exception {
+        FileSystemWorkspaceComponent fileSystemWorkspaceComponent = new FileSystemWorkspaceComponent(dataDirectory);
+        fileSystemWorkspaceComponent.createWorkspace(1, KEY, SECRET);
+        fileSystemWorkspaceComponent.putWorkspace(1, "{\"name\":\"Name\"}");
+        fileSystemWorkspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS);
+
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        assertEquals(KEY, workspaceComponent.getApiKey(1));
+        assertEquals(SECRET, workspaceComponent.getApiSecret(1));
+        assertEquals("{\"name\":\"Name\"}", workspaceComponent.getWorkspace(1));
+        assertEquals("Name", workspaceComponent.getWorkspaceSummary(1).getName());
+    }
+
+    @Test
+    public void test_construction_ImportsEveryWorkspaceDirectory_WhenTheyAreMissingCredentialsOrADefinition() throws Exception {
+        File directory1 = new File(dataDirectory, "1");
+        directory1.mkdirs();
+        Files.write(new File(directory1, "key.txt").toPath(), (KEY + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(directory1, "secret.txt").toPath(), (" " + SECRET + "\n").getBytes(StandardCharsets.UTF_8));
+
+        File directory2 = new File(dataDirectory, "2");
+        directory2.mkdirs();
+        Files.write(new File(directory2, "workspace.json").toPath(), "{\"name\":\"Two\"}".getBytes(StandardCharsets.UTF_8));
+
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+
+        // credentials are trimmed, in the same way as those read by the file system component
+        assertEquals(KEY, workspaceComponent.getApiKey(1));
+        assertEquals(SECRET, workspaceComponent.getApiSecret(1));
+        assertEquals("{}", workspaceComponent.getWorkspace(1));
+
+        assertTrue(workspaceComponent.workspaceExists(2));
+        assertEquals("{\"name\":\"Two\"}", workspaceComponent.getWorkspace(2));
+        assertFalse(workspaceComponent.getWorkspaceSummary(2).isKey());
+
+        // and a workspace imported without credentials can still be created
+        assertTrue(workspaceComponent.createWorkspace(2, KEY, SECRET));
+        assertEquals(KEY, workspaceComponent.getApiKey(2));
+    }
+
+    @Test
+    public void test_compact_RemovesSupersededRecords() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        workspaceComponent.createWorkspace(1, KEY, SECRET);
+        workspaceComponent.putWorkspace(2, "{\"b\":2}");
+        for (int i = 0; i < 10; i++) {
+            workspaceComponent.putWorkspace(1, "{\"a\":" + i + "}");
+        }
+
+        // a reader that has already opened the workspace can still read it after compaction
+        WorkspaceResource workspaceResource = workspaceComponent.getWorkspaceResource(1);
+
+        long size = workspaceComponent.getSize();
+        workspaceComponent.compact();
+        assertTrue(workspaceComponent.getSize() < size);
+        assertFalse(new File(dataDirectory, LogStructuredWorkspaceComponent.FILENAME + ".compacting").exists());
+
+        assertEquals("{\"a\":9}", new String(WorkspaceResource.toByteArray(workspaceResource.getInputStream()), StandardCharsets.UTF_8));
+        workspaceResource.close();
+
+        assertEquals("{\"a\":9}", workspaceComponent.getWorkspace(1));
+        assertEquals("{\"b\":2}", workspaceComponent.getWorkspace(2));
+        assertEquals(KEY, workspaceComponent.getApiKey(1));
+
+        // and puts continue to be appended to the compacted file
+        workspaceComponent.putWorkspace(2, "{\"b\":3}");
+        workspaceComponent.close();
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        assertEquals("{\"a\":9}", workspaceComponent.getWorkspace(1));
+        assertEquals("{\"b\":3}", workspaceComponent.getWorkspace(2));
+        assertEquals(10, workspaceComponent.getWorkspaceSummary(1).getVersion());
+    }
+
+    @Test
+    public void test_getImage_ReturnsNull_WhenTheImageDoesNotExist() throws Exception {
+        workspaceComponent = new LogStructuredWorkspaceComponent(dataDirectory, false);
+        assertNull(workspaceComponent.getImage(1, "image.png"));
+
+        File directory = new File(dataDirectory, "1");
+        directory.mkdirs();
+        Files.write(new File(directory, "image.png").toPath(), new byte[] { 1, 2, 3 });
+        try (WorkspaceResource image = workspaceComponent.getImage(1, "image.png")) {
+            assertEquals(3, image.getContentLength());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (workspaceComponent != null) {
+            workspaceComponent.close();
+        }
+        deleteDirectory(dataDirectory);
+    }
+
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                }
+                file.delete();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class Md5HashTests {
+
+    @Test
+    public void test_toHex() {
+        assertEquals("", Md5Hash.toHex(new byte[0]));
+        assertEquals("00017f80ff", Md5Hash.toHex(new byte[] { 0, 1, 127, -128, -1 }));
+    }
+
+    @Test
+    public void test_generate() {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", Md5Hash.generate(new byte[0]));
+        assertEquals("99914b932bd37a50b983c5e7c90ae93b", Md5Hash.generate("{}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
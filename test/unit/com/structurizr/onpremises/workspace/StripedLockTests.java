@@ -0,0 +1,37 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.*;
+
+public class StripedLockTests {
+
+    @Test
+    public void test_construction_RoundsTheNumberOfStripesUpToAPowerOfTwo() {
+        assertEquals(1, new StripedLock(1).getNumberOfStripes());
+        assertEquals(16, new StripedLock(10).getNumberOfStripes());
+        assertEquals(64, new StripedLock(64).getNumberOfStripes());
+    }
+
+    @Test
+    public void test_get_ReturnsTheSameLock_ForTheSameWorkspace() {
+        StripedLock stripedLock = new StripedLock(16);
+        assertSame(stripedLock.get(123), stripedLock.get(123));
+    }
+
+    @Test
+    public void test_get_SpreadsSequentialWorkspacesAcrossTheStripes() {
+        StripedLock stripedLock = new StripedLock(16);
+        Set<Lock> locks = new HashSet<>();
+        for (long workspaceId = 1; workspaceId <= 16; workspaceId++) {
+            locks.add(stripedLock.get(workspaceId));
+        }
+
+        assertTrue(locks.size() >= 8);
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceDirectoryLayoutTests {
+
+    private File dataDirectory = new File("build/WorkspaceDirectoryLayoutTests");
+
+    @Test
+    public void test_getShardedDirectory_ReturnsADirectoryInTwoLevelsOfHashBuckets() {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        File directory = layout.getShardedDirectory(1234);
+
+        assertEquals("1234", directory.getName());
+        assertTrue(directory.getParentFile().getName().matches("[0-9a-f]{2}"));
+        assertTrue(directory.getParentFile().getParentFile().getName().matches("[0-9a-f]{2}"));
+        assertEquals(new File(dataDirectory, "workspaces"), directory.getParentFile().getParentFile().getParentFile());
+    }
+
+    @Test
+    public void test_getShardedDirectory_SpreadsSequentialWorkspacesOverTheBuckets() {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        HashSet<String> buckets = new HashSet<>();
+        for (long workspaceId = 1; workspaceId <= 100; workspaceId++) {
+            buckets.add(layout.getShardedDirectory(workspaceId).getParentFile().getParentFile().getName());
+        }
+
+        assertTrue(buckets.size() > 50);
+    }
+
+    @Test
+    public void test_getDirectory_ReturnsTheFlatDirectory_WhenTheWorkspaceHasNotBeenMigrated() {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        assertEquals(layout.getShardedDirectory(1), layout.getDirectory(1));
+
+        new File(dataDirectory, "1").mkdirs();
+        assertEquals(new File(dataDirectory, "1"), layout.getDirectory(1));
+
+        layout.getShardedDirectory(2).mkdirs();
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), layout.getWorkspaceIds());
+    }
+
+    @Test
+    public void test_getLastModified_Changes_WhenAWorkspaceDirectoryIsAddedToAnExistingBucket() {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        File directory = layout.getShardedDirectory(1);
+        directory.mkdirs();
+        File bucket = directory.getParentFile();
+        long tenSecondsAgo = System.currentTimeMillis() - 10000;
+        for (File file = bucket; !file.equals(dataDirectory.getParentFile()); file = file.getParentFile()) {
+            file.setLastModified(tenSecondsAgo);
+        }
+        long lastModified = layout.getLastModified();
+        assertNotEquals(-1, lastModified);
+
+        // only the timestamp of the bucket changes, which is moved back so that it's earlier than the others
+        new File(bucket, "123456").mkdirs();
+        bucket.setLastModified(tenSecondsAgo - 1000);
+        assertNotEquals(lastModified, layout.getLastModified());
+    }
+
+    @Test
+    public void test_getLastModified_ReturnsMinusOne_WhenABucketHasJustBeenChanged() {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        layout.getShardedDirectory(1).mkdirs();
+
+        // a change in the same second wouldn't necessarily change the timestamp
+        assertEquals(-1, layout.getLastModified());
+        assertEquals(-1, layout.getDataDirectoryLastModified());
+    }
+
+    @Test
+    public void test_getDirectory_ReturnsTheFlatDirectory_WhenTheLayoutIsFlat() {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, false);
+        assertEquals(new File(dataDirectory, "1"), layout.getDirectory(1));
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory(dataDirectory);
+    }
+
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                }
+                file.delete();
+            }
+        }
+    }
+
+}
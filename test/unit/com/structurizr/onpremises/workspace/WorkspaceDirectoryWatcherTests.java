@@ -0,0 +1,171 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceDirectoryWatcherTests {
+
+    private File dataDirectory = new File("build/WorkspaceDirectoryWatcherTests");
+    private Set<Long> changedWorkspaceIds = ConcurrentHashMap.newKeySet();
+    private List<String> changedFiles = new CopyOnWriteArrayList<>();
+    private WorkspaceDirectoryWatcher watcher;
+
+    @Test
+    public void test_start_ReportsChangesToWorkspaceFiles_WhenWatching() throws Exception {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, false);
+        layout.getDirectory(1).mkdirs();
+        layout.getDirectory(2).mkdirs();
+
+        watcher = new WorkspaceDirectoryWatcher(dataDirectory, layout, this::workspaceChanged, false);
+        watcher.start();
+        assertTrue(watcher.awaitStarted(10000));
+
+        Files.write(new File(layout.getDirectory(2), "key.txt").toPath(), "key".getBytes(StandardCharsets.UTF_8));
+        awaitChange(2);
+        assertFalse(changedWorkspaceIds.contains(1L));
+    }
+
+    @Test
+    public void test_start_ReportsChangesToNewWorkspaceDirectories_WhenWatchingHashBuckets() throws Exception {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        layout.getDirectory(1).mkdirs();
+
+        watcher = new WorkspaceDirectoryWatcher(dataDirectory, layout, this::workspaceChanged, false);
+        watcher.start();
+        assertTrue(watcher.awaitStarted(10000));
+
+        layout.getDirectory(12345).mkdirs();
+        awaitChange(12345);
+
+        // the new workspace directory is watched too
+        changedWorkspaceIds.clear();
+        Files.write(new File(layout.getDirectory(12345), "secret.txt").toPath(), "secret".getBytes(StandardCharsets.UTF_8));
+        awaitChange(12345);
+    }
+
+    @Test
+    public void test_start_ReportsChangesToWorkspaceFiles_WhenPolling() throws Exception {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, false);
+        layout.getDirectory(1).mkdirs();
+        File file = new File(layout.getDirectory(1), "workspace.json");
+        Files.write(file.toPath(), "{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+
+        watcher = new WorkspaceDirectoryWatcher(dataDirectory, layout, this::workspaceChanged, true, 50);
+        watcher.start();
+        assertTrue(watcher.awaitStarted(10000));
+        assertTrue(watcher.isPolling());
+
+        // restored from a backup
+        Files.write(file.toPath(), "{\"a\":22}".getBytes(StandardCharsets.UTF_8));
+        awaitChange(1);
+
+        changedWorkspaceIds.clear();
+        layout.getDirectory(2).mkdirs();
+        awaitChange(2);
+    }
+
+    @Test
+    public void test_start_IgnoresTemporaryFilesAndDirectoriesThatAreNotWorkspaces_WhenWatching() throws Exception {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, false);
+        layout.getDirectory(1).mkdirs();
+        new File(dataDirectory, "wal").mkdirs();
+
+        watcher = new WorkspaceDirectoryWatcher(dataDirectory, layout, this::workspaceChanged, false);
+        watcher.start();
+        assertTrue(watcher.awaitStarted(10000));
+
+        new File(dataDirectory, "index").mkdirs();
+        Files.write(new File(dataDirectory, "index/workspaces.index").toPath(), "index".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dataDirectory, "wal/segment-1.log").toPath(), "log".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(layout.getDirectory(1), "workspace.json123.tmp").toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(layout.getDirectory(1), "workspace.json").toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+        awaitChange(1);
+
+        // events for the same directory are reported in order, so the temporary file would have been reported by now
+        for (String changedFile : changedFiles) {
+            assertTrue(changedFile, changedFile.equals("1/workspace.json"));
+        }
+    }
+
+    @Test
+    public void test_start_ReportsTheFilesThatHaveChanged_WhenPolling() throws Exception {
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, false);
+        layout.getDirectory(1).mkdirs();
+        File file = new File(layout.getDirectory(1), "key.txt");
+        Files.write(file.toPath(), "key".getBytes(StandardCharsets.UTF_8));
+
+        watcher = new WorkspaceDirectoryWatcher(dataDirectory, layout, this::workspaceChanged, true, 50);
+        watcher.start();
+        assertTrue(watcher.awaitStarted(10000));
+
+        Files.write(new File(layout.getDirectory(1), "workspace.properties123.tmp").toPath(), "name=a".getBytes(StandardCharsets.UTF_8));
+        Files.write(file.toPath(), "another key".getBytes(StandardCharsets.UTF_8));
+        awaitChange(1);
+
+        assertEquals("[1/key.txt]", changedFiles.toString());
+    }
+
+    @Test
+    public void test_start_PollsTheWorkspaceDirectoriesOnTheWatcherThread() throws Exception {
+        Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, false) {
+            @Override
+            Set<Long> getWorkspaceIds() {
+                threadNames.add(Thread.currentThread().getName());
+                return super.getWorkspaceIds();
+            }
+        };
+        layout.getDirectory(1).mkdirs();
+
+        watcher = new WorkspaceDirectoryWatcher(dataDirectory, layout, this::workspaceChanged, true, 50);
+        watcher.start();
+        assertTrue(watcher.awaitStarted(10000));
+
+        assertEquals("[structurizr-workspace-directory-watcher]", threadNames.toString());
+    }
+
+    private void workspaceChanged(long workspaceId, String filename) {
+        changedFiles.add(workspaceId + "/" + filename);
+        changedWorkspaceIds.add(workspaceId);
+    }
+
+    private void awaitChange(long workspaceId) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!changedWorkspaceIds.contains(workspaceId) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(changedWorkspaceIds.contains(workspaceId));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (watcher != null) {
+            watcher.stop();
+        }
+        deleteDirectory(dataDirectory);
+    }
+
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                }
+                file.delete();
+            }
+        }
+    }
+
+}
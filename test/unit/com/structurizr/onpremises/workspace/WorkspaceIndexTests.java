@@ -0,0 +1,203 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceIndexTests {
+
+    private File dataDirectory = new File("build/WorkspaceIndexTests");
+    private WorkspaceDirectoryLayout layout = new WorkspaceDirectoryLayout(dataDirectory, false);
+    private AtomicInteger numberOfSummariesCreated = new AtomicInteger();
+
+    private LongFunction<WorkspaceSummary> loader = workspaceId -> {
+        numberOfSummariesCreated.incrementAndGet();
+        WorkspaceSummary workspaceSummary = new WorkspaceSummary(workspaceId);
+        try {
+            File file = new File(layout.getDirectory(workspaceId), "name.txt");
+            workspaceSummary.setName(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            // no name
+        }
+
+        return workspaceSummary;
+    };
+
+    @Test
+    public void test_getWorkspaces_ReadsTheSnapshotWithoutCreatingSummaries_WhenNothingHasChangedSinceTheIndexWasClosed() throws Exception {
+        for (long workspaceId = 1; workspaceId <= 10; workspaceId++) {
+            writeName(workspaceId, "Workspace " + workspaceId);
+        }
+
+        WorkspaceIndex workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        assertEquals(10, workspaceIndex.getWorkspaces().size());
+        assertEquals(10, numberOfSummariesCreated.get());
+        workspaceIndex.close();
+
+        numberOfSummariesCreated.set(0);
+        workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        assertEquals(10, workspaceIndex.getWorkspaces().size());
+        assertEquals("Workspace 7", workspaceIndex.getWorkspace(7).getName());
+        assertEquals(0, numberOfSummariesCreated.get());
+        workspaceIndex.close();
+    }
+
+    @Test
+    public void test_close_WritesTheSnapshotToASubDirectory_SoTheDataDirectoryIsNotChanged() throws Exception {
+        writeName(1, "Workspace 1");
+        dataDirectory.setLastModified(dataDirectory.lastModified() - 10000);
+        long lastModified = dataDirectory.lastModified();
+
+        WorkspaceIndex workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        new File(dataDirectory, WorkspaceIndex.DIRECTORY_NAME).mkdirs();
+        dataDirectory.setLastModified(lastModified);
+        workspaceIndex.getWorkspaces();
+        workspaceIndex.close();
+
+        assertTrue(new File(new File(dataDirectory, WorkspaceIndex.DIRECTORY_NAME), WorkspaceIndex.FILENAME).exists());
+        assertEquals(lastModified, dataDirectory.lastModified());
+    }
+
+    @Test
+    public void test_getWorkspaces_ReadsTheSnapshot_WhenItWasWrittenToTheDataDirectory() throws Exception {
+        writeName(1, "Workspace 1");
+        WorkspaceIndex workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        workspaceIndex.getWorkspaces();
+        workspaceIndex.close();
+
+        File file = new File(new File(dataDirectory, WorkspaceIndex.DIRECTORY_NAME), WorkspaceIndex.FILENAME);
+        Files.move(file.toPath(), new File(dataDirectory, WorkspaceIndex.FILENAME).toPath());
+
+        numberOfSummariesCreated.set(0);
+        workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        assertEquals("Workspace 1", workspaceIndex.getWorkspace(1).getName());
+        assertEquals(0, numberOfSummariesCreated.get());
+        assertTrue(file.exists());
+        assertFalse(new File(dataDirectory, WorkspaceIndex.FILENAME).exists());
+        workspaceIndex.close();
+    }
+
+    @Test
+    public void test_getWorkspace_RevalidatesTheSummary_WhenTheWorkspaceDirectoryHasChangedSinceTheIndexWasClosed() throws Exception {
+        writeName(1, "Before");
+        writeName(2, "Unchanged");
+
+        WorkspaceIndex workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        workspaceIndex.getWorkspaces();
+        workspaceIndex.close();
+
+        // replaced outside of the API, while the index is closed
+        File directory = layout.getDirectory(1);
+        writeName(1, "After");
+        directory.setLastModified(directory.lastModified() + 10000);
+
+        numberOfSummariesCreated.set(0);
+        workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        assertEquals("Unchanged", workspaceIndex.getWorkspace(2).getName());
+        assertEquals(0, numberOfSummariesCreated.get());
+        assertEquals("After", workspaceIndex.getWorkspace(1).getName());
+        assertEquals(1, numberOfSummariesCreated.get());
+        workspaceIndex.close();
+    }
+
+    @Test
+    public void test_contains_ReturnsFalse_WhenTheWorkspaceDirectoryHasBeenRemovedSinceTheIndexWasClosed() throws Exception {
+        writeName(1, "Name");
+
+        WorkspaceIndex workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        assertTrue(workspaceIndex.contains(1));
+        workspaceIndex.close();
+
+        new File(layout.getDirectory(1), "name.txt").delete();
+        layout.getDirectory(1).delete();
+
+        workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        assertFalse(workspaceIndex.contains(1));
+        workspaceIndex.close();
+    }
+
+    @Test
+    public void test_contains_ReturnsTrue_WhenAWorkspaceDirectoryHasBeenAddedToABucketAndInvalidated() throws Exception {
+        layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        writeName(1, "Workspace 1");
+
+        // timestamps from the last couple of seconds aren't trusted, and would cause the buckets to be listed
+        long tenSecondsAgo = System.currentTimeMillis() - 10000;
+        for (File file = layout.getDirectory(1).getParentFile(); !file.equals(dataDirectory.getParentFile()); file = file.getParentFile()) {
+            file.setLastModified(tenSecondsAgo);
+        }
+
+        WorkspaceIndex workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader, 0);
+        assertEquals(1, workspaceIndex.getWorkspaces().size());
+
+        // the hash buckets aren't listed while the index is open, so the new workspace is found once it's reported
+        writeName(2, "Workspace 2");
+        assertFalse(workspaceIndex.contains(2));
+        workspaceIndex.invalidate(2);
+        assertTrue(workspaceIndex.contains(2));
+        assertEquals("Workspace 2", workspaceIndex.getWorkspace(2).getName());
+        workspaceIndex.close();
+    }
+
+    @Test
+    public void test_contains_ReturnsTrue_WhenAWorkspaceDirectoryHasBeenAddedToTheDataDirectory() throws Exception {
+        writeName(1, "Workspace 1");
+
+        WorkspaceIndex workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader, 0);
+        assertEquals(1, workspaceIndex.getWorkspaces().size());
+
+        writeName(2, "Workspace 2");
+        assertTrue(workspaceIndex.contains(2));
+        workspaceIndex.close();
+    }
+
+    @Test
+    public void test_getWorkspaces_ListsTheHashBuckets_WhenAWorkspaceDirectoryWasAddedWhileTheIndexWasClosed() throws Exception {
+        layout = new WorkspaceDirectoryLayout(dataDirectory, true);
+        writeName(1, "Workspace 1");
+
+        WorkspaceIndex workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        assertEquals(1, workspaceIndex.getWorkspaces().size());
+        workspaceIndex.close();
+
+        writeName(2, "Workspace 2");
+        workspaceIndex = new WorkspaceIndex(dataDirectory, layout, loader);
+        assertEquals(2, workspaceIndex.getWorkspaces().size());
+        workspaceIndex.close();
+    }
+
+    private void writeName(long workspaceId, String name) throws Exception {
+        File directory = layout.getDirectory(workspaceId);
+        directory.mkdirs();
+
+        File temporaryFile = new File(directory, "name.tmp");
+        Files.write(temporaryFile.toPath(), name.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporaryFile.toPath(), new File(directory, "name.txt").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteDirectory(dataDirectory);
+    }
+
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                }
+                file.delete();
+            }
+        }
+    }
+
+}
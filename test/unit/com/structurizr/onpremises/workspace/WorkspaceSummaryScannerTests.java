@@ -0,0 +1,89 @@
+package com.structurizr.onpremises.workspace;
+
+import com.structurizr.Workspace;
+import com.structurizr.io.json.JsonWriter;
+import com.structurizr.model.Location;
+import com.structurizr.model.Person;
+import com.structurizr.model.SoftwareSystem;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceSummaryScannerTests {
+
+    @Test
+    public void test_scan_FindsTheNameDescriptionAndThumbnail_WhenTheyAreDefined() throws Exception {
+        Workspace workspace = new Workspace("Name", "Description");
+        workspace.setThumbnail("data:image/png;base64,iVBORw0KGgo=");
+        Person user = workspace.getModel().addPerson(Location.Internal, "User", "A \"user\" of the system.");
+        SoftwareSystem softwareSystem = workspace.getModel().addSoftwareSystem(Location.Internal, "Software System", "{ [ ] }");
+        user.uses(softwareSystem, "Uses");
+        workspace.getViews().createSystemContextView(softwareSystem, "Context", "").addAllElements();
+
+        JsonWriter jsonWriter = new JsonWriter(true);
+        StringWriter stringWriter = new StringWriter();
+        jsonWriter.write(workspace, stringWriter);
+
+        WorkspaceSummaryScanner scanner = WorkspaceSummaryScanner.scan(new StringReader(stringWriter.toString()));
+        assertEquals("Name", scanner.getName());
+        assertEquals("Description", scanner.getDescription());
+        assertEquals("data:image/png;base64,iVBORw0KGgo=", scanner.getThumbnail());
+    }
+
+    @Test
+    public void test_scan_IgnoresNestedProperties() throws Exception {
+        WorkspaceSummaryScanner scanner = WorkspaceSummaryScanner.scan(new StringReader(
+                "{\"model\":{\"name\":\"Nested\",\"people\":[{\"description\":\"x\"}],\"count\":12,\"flag\":true}, \"description\" : null, \"name\":\"Name\"}"));
+        assertEquals("Name", scanner.getName());
+        assertNull(scanner.getDescription());
+        assertNull(scanner.getThumbnail());
+    }
+
+    @Test
+    public void test_scan_DecodesEscapedCharacters() throws Exception {
+        WorkspaceSummaryScanner scanner = WorkspaceSummaryScanner.scan(new StringReader(
+                "{\"name\":\"A \\\"quoted\\\" name\\n\\u00e9\\\\\"}"));
+        assertEquals("A \"quoted\" name\né\\", scanner.getName());
+    }
+
+    @Test
+    public void test_scan_ReturnsNulls_WhenTheWorkspaceIsEmpty() throws Exception {
+        WorkspaceSummaryScanner scanner = WorkspaceSummaryScanner.scan(new StringReader("{}"));
+        assertNull(scanner.getName());
+        assertNull(scanner.getDescription());
+        assertNull(scanner.getThumbnail());
+    }
+
+    @Test
+    public void test_scan_StopsReading_WhenAllPropertiesHaveBeenFound() throws Exception {
+        WorkspaceSummaryScanner scanner = WorkspaceSummaryScanner.scan(new StringReader(
+                "{\"name\":\"Name\",\"description\":\"Description\",\"thumbnail\":\"Thumbnail\",\"model\": this is not JSON"));
+        assertEquals("Name", scanner.getName());
+        assertEquals("Thumbnail", scanner.getThumbnail());
+    }
+
+    @Test
+    public void test_scan_ThrowsAnException_WhenTheContentIsNotAJsonObject() throws Exception {
+        try {
+            WorkspaceSummaryScanner.scan(new StringReader("json"));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Expected '{' but found 'j' at character 1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_scan_ThrowsAnException_WhenTheContentIsTruncated() throws Exception {
+        try {
+            WorkspaceSummaryScanner.scan(new StringReader("{\"model\":{\"people\":["));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Expected '}' or ']' but found end of input at character 21", e.getMessage());
+        }
+    }
+
+}
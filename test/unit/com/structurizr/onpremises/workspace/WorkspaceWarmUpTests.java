@@ -0,0 +1,83 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceWarmUpTests {
+
+    private File dataDirectory = new File("build/WorkspaceWarmUpTests");
+    private FileSystemWorkspaceComponent fileSystemWorkspaceComponent;
+
+    @Test
+    public void test_run_CachesTheMostRecentlyModifiedWorkspaces_UpToTheBudget() throws Exception {
+        // workspaces 1-10, each 7 bytes, stored outside of the API and modified in order
+        long now = System.currentTimeMillis();
+        for (long workspaceId = 1; workspaceId <= 10; workspaceId++) {
+            File directory = new File(dataDirectory, "" + workspaceId);
+            directory.mkdirs();
+            File file = new File(directory, "workspace.json");
+            Files.write(file.toPath(), ("{\"a\":" + (workspaceId - 1) + "}").getBytes(StandardCharsets.UTF_8));
+            file.setLastModified(now - (10 - workspaceId) * 60000);
+        }
+
+        fileSystemWorkspaceComponent = new FileSystemWorkspaceComponent(dataDirectory);
+        CachingWorkspaceComponent cachingWorkspaceComponent = new CachingWorkspaceComponent(fileSystemWorkspaceComponent, 1024);
+        WorkspaceWarmUp warmUp = new WorkspaceWarmUp(fileSystemWorkspaceComponent, cachingWorkspaceComponent, 21, 4);
+
+        assertEquals(3, warmUp.run());
+        assertEquals(3, cachingWorkspaceComponent.getNumberOfWorkspaces());
+        assertEquals(21, cachingWorkspaceComponent.getSize());
+
+        // the most recently modified workspaces are now answered from the cache
+        cachingWorkspaceComponent.getWorkspace(10);
+        cachingWorkspaceComponent.getWorkspace(9);
+        cachingWorkspaceComponent.getWorkspace(8);
+        assertEquals(3, cachingWorkspaceComponent.getHits());
+
+        cachingWorkspaceComponent.getWorkspace(7);
+        assertEquals(3, cachingWorkspaceComponent.getHits());
+    }
+
+    @Test
+    public void test_run_BuildsTheWorkspaceIndex_WhenThereIsNoCache() throws Exception {
+        for (long workspaceId = 1; workspaceId <= 50; workspaceId++) {
+            File directory = new File(dataDirectory, "" + workspaceId);
+            directory.mkdirs();
+            Files.write(new File(directory, "key.txt").toPath(), "2b1a855d-3825-4659-8ad2-79c2d96f8be2".getBytes(StandardCharsets.UTF_8));
+        }
+
+        fileSystemWorkspaceComponent = new FileSystemWorkspaceComponent(dataDirectory);
+        assertEquals(0, new WorkspaceWarmUp(fileSystemWorkspaceComponent, null, 1024, 4).run());
+
+        assertEquals(50, fileSystemWorkspaceComponent.getWorkspaces().size());
+        assertTrue(fileSystemWorkspaceComponent.getWorkspaceSummary(50).isKey());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (fileSystemWorkspaceComponent != null) {
+            fileSystemWorkspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS);
+        }
+        deleteDirectory(dataDirectory);
+    }
+
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                }
+                file.delete();
+            }
+        }
+    }
+
+}
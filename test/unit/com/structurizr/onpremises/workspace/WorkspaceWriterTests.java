@@ -0,0 +1,146 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WorkspaceWriterTests {
+
+    private WorkspaceWriter workspaceWriter = new WorkspaceWriter(2);
+    private ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @Test
+    public void test_write_AppliesTheWrite() throws Exception {
+        List<String> applied = new ArrayList<>();
+        workspaceWriter.write(1, new MockWrite("a", applied));
+
+        assertEquals("[a]", applied.toString());
+        assertEquals(1, workspaceWriter.getNumberOfWritesApplied());
+    }
+
+    @Test
+    public void test_write_OnlyAppliesTheLatestWrite_WhenSeveralWritesAreWaiting() throws Exception {
+        List<String> applied = new ArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<?> first = executorService.submit(() -> {
+            workspaceWriter.write(1, new MockWrite("a", applied) {
+                @Override
+                public void apply() throws IOException {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    super.apply();
+                }
+            });
+            return null;
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // these are all queued while the first write is being applied
+        List<Future<?>> futures = new ArrayList<>();
+        List<MockWrite> writes = new ArrayList<>();
+        for (String content : new String[] { "b", "c", "d" }) {
+            MockWrite write = new MockWrite(content, applied);
+            writes.add(write);
+            futures.add(executorService.submit(() -> {
+                workspaceWriter.write(1, write);
+                return null;
+            }));
+            while (workspaceWriter.getNumberOfWritesSuperseded() < writes.size() - 1) {
+                Thread.sleep(1);
+            }
+        }
+
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals("[a, d]", applied.toString());
+        assertEquals(2, workspaceWriter.getNumberOfWritesApplied());
+        assertEquals(2, workspaceWriter.getNumberOfWritesSuperseded());
+        assertTrue(writes.get(0).discarded);
+        assertTrue(writes.get(1).discarded);
+        assertFalse(writes.get(2).discarded);
+    }
+
+    @Test
+    public void test_write_ThrowsAnException_WhenTheWriteCannotBeApplied() throws Exception {
+        try {
+            workspaceWriter.write(1, new MockWrite("a", new ArrayList<>()) {
+                @Override
+                public void apply() throws IOException {
+                    throw new IOException("Disk full");
+                }
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_write_DiscardsTheWriteAndThrowsAnException_WhenTheWriterHasBeenShutDown() throws Exception {
+        List<String> applied = new ArrayList<>();
+        MockWrite write = new MockWrite("a", applied);
+        workspaceWriter.shutdown();
+
+        try {
+            workspaceWriter.write(1, write);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Workspace 1 can't be written, because the workspace writer has been shut down", e.getMessage());
+        }
+
+        assertTrue(write.discarded);
+        assertEquals("[]", applied.toString());
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+        workspaceWriter.shutdown();
+    }
+
+    private static class MockWrite implements WorkspaceWriter.Write {
+
+        private final String content;
+        private final List<String> applied;
+        private volatile boolean discarded;
+
+        MockWrite(String content, List<String> applied) {
+            this.content = content;
+            this.applied = applied;
+        }
+
+        @Override
+        public void apply() throws IOException {
+            synchronized (applied) {
+                applied.add(content);
+            }
+        }
+
+        @Override
+        public void discard() {
+            discarded = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class WriteAheadLogTests {
+
+    private File directory = new File("build/WriteAheadLogTests");
+
+    @Test
+    public void test_open_ReplaysTheRecordsInOrder() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 1024);
+        assertTrue(writeAheadLog.open().isEmpty());
+        writeAheadLog.append(1, resource("{\"a\":1}"));
+        writeAheadLog.append(2, resource("{\"b\":2}"));
+        writeAheadLog.append(1, resource("{\"a\":3}"));
+        writeAheadLog.close();
+
+        List<WriteAheadLog.Record> records = new WriteAheadLog(directory, 1024).open();
+        assertEquals(3, records.size());
+        assertEquals(1, records.get(0).getWorkspaceId());
+        assertEquals("{\"a\":1}", read(records.get(0)));
+        assertEquals(2, records.get(1).getWorkspaceId());
+        assertEquals("{\"b\":2}", read(records.get(1)));
+        assertEquals(1, records.get(2).getWorkspaceId());
+        assertEquals("{\"a\":3}", read(records.get(2)));
+    }
+
+    @Test
+    public void test_open_TruncatesAPartiallyWrittenRecord() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 1024);
+        writeAheadLog.open();
+        writeAheadLog.append(1, resource("{\"a\":1}"));
+        writeAheadLog.append(2, resource("{\"b\":2}"));
+        writeAheadLog.close();
+
+        // simulate a crash part way through the second append
+        File segment = new File(directory, "00000000000000000001.log");
+        long length = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(length - 3);
+        }
+
+        writeAheadLog = new WriteAheadLog(directory, 1024);
+        List<WriteAheadLog.Record> records = writeAheadLog.open();
+        assertEquals(1, records.size());
+        assertEquals("{\"a\":1}", read(records.get(0)));
+        assertEquals(8 + 16 + 7, segment.length());
+
+        // and new records are appended after the last complete record
+        writeAheadLog.append(3, resource("{\"c\":3}"));
+        writeAheadLog.close();
+        records = new WriteAheadLog(directory, 1024).open();
+        assertEquals(2, records.size());
+        assertEquals("{\"c\":3}", read(records.get(1)));
+    }
+
+    @Test
+    public void test_open_TruncatesARecordWithAnInvalidChecksum() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 1024);
+        writeAheadLog.open();
+        writeAheadLog.append(1, resource("{\"a\":1}"));
+        writeAheadLog.append(2, resource("{\"b\":2}"));
+        writeAheadLog.close();
+
+        File segment = new File(directory, "00000000000000000001.log");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(segment.length() - 2);
+            file.write('9');
+        }
+
+        List<WriteAheadLog.Record> records = new WriteAheadLog(directory, 1024).open();
+        assertEquals(1, records.size());
+        assertEquals(1, records.get(0).getWorkspaceId());
+    }
+
+    @Test
+    public void test_append_StartsANewSegment_WhenTheMaximumSegmentSizeIsReached() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 40);
+        writeAheadLog.open();
+        writeAheadLog.append(1, resource("{\"a\":1}"));
+        WriteAheadLog.Record record = writeAheadLog.append(2, resource("{\"b\":2}"));
+        assertEquals(1, record.getSegment());
+        assertEquals(Arrays.asList(1L, 2L), writeAheadLog.getSegments());
+
+        writeAheadLog.append(3, resource("{\"c\":3}"));
+        writeAheadLog.close();
+
+        List<WriteAheadLog.Record> records = new WriteAheadLog(directory, 40).open();
+        assertEquals(3, records.size());
+        assertEquals(2, records.get(2).getSegment());
+    }
+
+    @Test
+    public void test_append_StagesALargeRecordInATemporaryFile() throws Exception {
+        StringBuilder json = new StringBuilder("{\"a\":\"");
+        while (json.length() < 2 * 1024 * 1024) {
+            json.append("0123456789");
+        }
+        json.append("\"}");
+
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 64 * 1024 * 1024);
+        writeAheadLog.open();
+        writeAheadLog.append(1, resource(json.toString()));
+        writeAheadLog.close();
+
+        assertEquals(0, directory.listFiles((dir, name) -> name.endsWith(".tmp")).length);
+        List<WriteAheadLog.Record> records = new WriteAheadLog(directory, 64 * 1024 * 1024).open();
+        assertEquals(1, records.size());
+        assertEquals(json.toString(), read(records.get(0)));
+    }
+
+    @Test
+    public void test_append_LogsEveryRecord_WhenRecordsAreAppendedConcurrently() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 4096);
+        writeAheadLog.open();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<WriteAheadLog.Record>> tasks = new ArrayList<>();
+            for (int i = 1; i <= 200; i++) {
+                long workspaceId = i;
+                tasks.add(() -> writeAheadLog.append(workspaceId, resource("{\"id\":" + workspaceId + "}")));
+            }
+
+            for (Future<WriteAheadLog.Record> future : executorService.invokeAll(tasks)) {
+                WriteAheadLog.Record record = future.get();
+                assertEquals("{\"id\":" + record.getWorkspaceId() + "}", read(record));
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        writeAheadLog.close();
+
+        List<WriteAheadLog.Record> records = new WriteAheadLog(directory, 4096).open();
+        assertEquals(200, records.size());
+        for (WriteAheadLog.Record record : records) {
+            assertEquals("{\"id\":" + record.getWorkspaceId() + "}", read(record));
+        }
+    }
+
+    @Test
+    public void test_release_DeletesSegments_WhenAllOfTheirRecordsHaveBeenReleased() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 40);
+        writeAheadLog.open();
+        WriteAheadLog.Record record1 = writeAheadLog.append(1, resource("{\"a\":1}"));
+        WriteAheadLog.Record record2 = writeAheadLog.append(2, resource("{\"b\":2}"));
+        WriteAheadLog.Record record3 = writeAheadLog.append(3, resource("{\"c\":3}"));
+
+        writeAheadLog.release(record1);
+        assertEquals(Arrays.asList(1L, 2L), writeAheadLog.getSegments());
+
+        writeAheadLog.release(record2);
+        assertEquals(Arrays.asList(2L), writeAheadLog.getSegments());
+        assertFalse(new File(directory, "00000000000000000001.log").exists());
+
+        // the current segment is kept until it reaches the maximum size, or the log is closed
+        writeAheadLog.release(record3);
+        assertEquals(Arrays.asList(2L), writeAheadLog.getSegments());
+        writeAheadLog.close();
+
+        assertTrue(new WriteAheadLog(directory, 40).open().isEmpty());
+    }
+
+    @Test
+    public void test_release_DoesNotStartANewSegment_UntilTheMaximumSegmentSizeIsReached() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 1024);
+        writeAheadLog.open();
+        WriteAheadLog.Record record1 = writeAheadLog.append(1, resource("{\"a\":1}"));
+        WriteAheadLog.Record record2 = writeAheadLog.append(2, resource("{\"b\":2}"));
+
+        writeAheadLog.release(record1);
+        writeAheadLog.release(record2);
+        assertEquals(Arrays.asList(1L), writeAheadLog.getSegments());
+
+        WriteAheadLog.Record record3 = writeAheadLog.append(3, resource("{\"c\":3}"));
+        assertEquals(1, record3.getSegment());
+        writeAheadLog.close();
+    }
+
+    @Test
+    public void test_append_ContinuesInTheCurrentSegment_WhenANewSegmentCannotBeStarted() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory, 40);
+        writeAheadLog.open();
+
+        // the next segment can't be created, because the file already exists
+        File nextSegment = new File(directory, "00000000000000000002.log");
+        assertTrue(nextSegment.createNewFile());
+
+        writeAheadLog.append(1, resource("{\"a\":1}"));
+        WriteAheadLog.Record record = writeAheadLog.append(2, resource("{\"b\":2}"));
+        assertEquals("{\"b\":2}", read(record));
+        assertEquals(Arrays.asList(1L), writeAheadLog.getSegments());
+
+        assertTrue(nextSegment.delete());
+        writeAheadLog.append(3, resource("{\"c\":3}"));
+        assertEquals(Arrays.asList(1L, 2L), writeAheadLog.getSegments());
+        writeAheadLog.append(4, resource("{\"d\":4}"));
+        writeAheadLog.close();
+
+        List<WriteAheadLog.Record> records = new WriteAheadLog(directory, 40).open();
+        assertEquals(4, records.size());
+        assertEquals(2, records.get(3).getSegment());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private WorkspaceResource resource(String json) {
+        return new ByteBufferWorkspaceResource(json.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private String read(WriteAheadLog.Record record) throws IOException {
+        try (WorkspaceResource workspaceResource = record.getWorkspaceResource()) {
+            return new String(WorkspaceResource.toByteArray(workspaceResource.getInputStream()), StandardCharsets.UTF_8);
+        }
+    }
+
+}
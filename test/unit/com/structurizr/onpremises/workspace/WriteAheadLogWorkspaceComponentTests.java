@@ -0,0 +1,182 @@
+package com.structurizr.onpremises.workspace;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WriteAheadLogWorkspaceComponentTests {
+
+    private File dataDirectory = new File("build/WriteAheadLogWorkspaceComponentTests");
+    private FileSystemWorkspaceComponent fileSystemWorkspaceComponent = new FileSystemWorkspaceComponent(dataDirectory);
+
+    @Test
+    public void test_putWorkspace_StoresTheWorkspaceInTheBackground() throws Exception {
+        WriteAheadLogWorkspaceComponent workspaceComponent = new WriteAheadLogWorkspaceComponent(fileSystemWorkspaceComponent, dataDirectory);
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+
+        assertTrue(workspaceComponent.awaitWrites(10, TimeUnit.SECONDS));
+        assertEquals(0, workspaceComponent.getNumberOfPendingWrites());
+        assertEquals("{\"a\":1}", fileSystemWorkspaceComponent.getWorkspace(1));
+        assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+        assertNotNull(workspaceComponent.getWorkspaceSummary(1).getHash());
+    }
+
+    @Test
+    public void test_putWorkspace_StoresTheContentOfTheGivenFile() throws Exception {
+        WriteAheadLogWorkspaceComponent workspaceComponent = new WriteAheadLogWorkspaceComponent(fileSystemWorkspaceComponent, dataDirectory);
+        File file = File.createTempFile("structurizr-workspace-", ".json");
+        Files.write(file.toPath(), "{\"b\":2}".getBytes(StandardCharsets.UTF_8));
+
+        workspaceComponent.putWorkspace(2, file);
+        assertFalse(file.exists());
+        assertEquals("{\"b\":2}", workspaceComponent.getWorkspace(2));
+
+        assertTrue(workspaceComponent.awaitWrites(10, TimeUnit.SECONDS));
+        assertEquals("{\"b\":2}", fileSystemWorkspaceComponent.getWorkspace(2));
+    }
+
+    @Test
+    public void test_putWorkspace_RetriesTheStore_WhenTheUnderlyingComponentFails() throws Exception {
+        FailingWorkspaceComponent failingWorkspaceComponent = new FailingWorkspaceComponent(fileSystemWorkspaceComponent);
+        WriteAheadLogWorkspaceComponent workspaceComponent = new WriteAheadLogWorkspaceComponent(failingWorkspaceComponent, dataDirectory);
+        workspaceComponent.putWorkspace(1, "{\"a\":1}");
+
+        assertTrue(workspaceComponent.awaitWrites(10, TimeUnit.SECONDS));
+        assertEquals(2, failingWorkspaceComponent.getNumberOfPuts());
+        assertEquals(0, workspaceComponent.getNumberOfPendingWrites());
+        assertEquals("{\"a\":1}", fileSystemWorkspaceComponent.getWorkspace(1));
+    }
+
+    @Test
+    public void test_getWorkspaceSummary_ReturnsNull_WhenAPutHasNotYetBeenStored() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(new File(dataDirectory, WriteAheadLogWorkspaceComponent.DIRECTORY_NAME), 1024);
+        writeAheadLog.open();
+        writeAheadLog.append(1, new ByteBufferWorkspaceResource("{\"a\":1}".getBytes(StandardCharsets.UTF_8), null));
+        writeAheadLog.close();
+
+        // the underlying component is blocked, so the logged workspace can't be stored yet
+        WriteAheadLogWorkspaceComponent workspaceComponent;
+        synchronized (this) {
+            workspaceComponent = new WriteAheadLogWorkspaceComponent(new BlockingWorkspaceComponent(fileSystemWorkspaceComponent, this), dataDirectory);
+            assertNull(workspaceComponent.getWorkspaceSummary(1));
+            assertEquals("{\"a\":1}", workspaceComponent.getWorkspace(1));
+            assertEquals(1, workspaceComponent.getNumberOfPendingWrites());
+        }
+
+        assertTrue(workspaceComponent.awaitWrites(10, TimeUnit.SECONDS));
+        assertNotNull(workspaceComponent.getWorkspaceSummary(1));
+    }
+
+    @Test
+    public void test_construction_ReplaysTheLatestLoggedDefinitionOfEachWorkspace() throws Exception {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(new File(dataDirectory, WriteAheadLogWorkspaceComponent.DIRECTORY_NAME), 1024);
+        writeAheadLog.open();
+        writeAheadLog.append(1, new ByteBufferWorkspaceResource("{\"a\":1}".getBytes(StandardCharsets.UTF_8), null));
+        writeAheadLog.append(2, new ByteBufferWorkspaceResource("{\"b\":2}".getBytes(StandardCharsets.UTF_8), null));
+        writeAheadLog.append(1, new ByteBufferWorkspaceResource("{\"a\":3}".getBytes(StandardCharsets.UTF_8), null));
+        writeAheadLog.close();
+
+        WriteAheadLogWorkspaceComponent workspaceComponent = new WriteAheadLogWorkspaceComponent(fileSystemWorkspaceComponent, dataDirectory);
+        assertTrue(workspaceComponent.awaitWrites(10, TimeUnit.SECONDS));
+
+        assertEquals("{\"a\":3}", fileSystemWorkspaceComponent.getWorkspace(1));
+        assertEquals("{\"b\":2}", fileSystemWorkspaceComponent.getWorkspace(2));
+        assertEquals(1, fileSystemWorkspaceComponent.getWorkspaceSummary(1).getVersion());
+
+        // everything has been stored, so the log is empty once it's closed
+        assertEquals(0, workspaceComponent.getNumberOfPendingWrites());
+        assertEquals(1, workspaceComponent.getSegments().size());
+        workspaceComponent.stop();
+        assertTrue(new WriteAheadLog(new File(dataDirectory, WriteAheadLogWorkspaceComponent.DIRECTORY_NAME), 1024).open().isEmpty());
+    }
+
+    @Test
+    public void test_stop_StoresTheLoggedPutsBeforeStopping() throws Exception {
+        WriteAheadLogWorkspaceComponent workspaceComponent = new WriteAheadLogWorkspaceComponent(fileSystemWorkspaceComponent, dataDirectory);
+        workspaceComponent.start();
+        for (long workspaceId = 1; workspaceId <= 10; workspaceId++) {
+            workspaceComponent.putWorkspace(workspaceId, "{\"id\":" + workspaceId + "}");
+        }
+        workspaceComponent.stop();
+
+        assertEquals(0, workspaceComponent.getNumberOfPendingWrites());
+        for (long workspaceId = 1; workspaceId <= 10; workspaceId++) {
+            assertEquals("{\"id\":" + workspaceId + "}", new FileSystemWorkspaceComponent(dataDirectory).getWorkspace(workspaceId));
+        }
+        assertTrue(new WriteAheadLog(new File(dataDirectory, WriteAheadLogWorkspaceComponent.DIRECTORY_NAME), 1024).open().isEmpty());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystemWorkspaceComponent.awaitWorkspaceSummaryUpdates(10, TimeUnit.SECONDS);
+        deleteDirectory(dataDirectory);
+    }
+
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                }
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Fails the first put.
+     */
+    private static class FailingWorkspaceComponent extends CachingWorkspaceComponent {
+
+        private final AtomicInteger numberOfPuts = new AtomicInteger();
+
+        FailingWorkspaceComponent(FileSystemWorkspaceComponent workspaceComponent) {
+            super(workspaceComponent, 0);
+        }
+
+        @Override
+        public void putWorkspace(long workspaceId, File file) throws WorkspaceComponentException {
+            if (numberOfPuts.incrementAndGet() == 1) {
+                throw new WorkspaceComponentException("Some message");
+            }
+
+            super.putWorkspace(workspaceId, file);
+        }
+
+        int getNumberOfPuts() {
+            return numberOfPuts.get();
+        }
+
+    }
+
+    /**
+     * Blocks puts until the given monitor can be acquired.
+     */
+    private static class BlockingWorkspaceComponent extends CachingWorkspaceComponent {
+
+        private final Object monitor;
+
+        BlockingWorkspaceComponent(FileSystemWorkspaceComponent workspaceComponent, Object monitor) {
+            super(workspaceComponent, 0);
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void putWorkspace(long workspaceId, File file) throws WorkspaceComponentException {
+            synchronized (monitor) {
+                super.putWorkspace(workspaceId, file);
+            }
+        }
+
+    }
+
+}
@@ -90,15 +90,17 @@
                 <table class="table table-striped table-bordered">
                     <thead>
                     <tr>
-                        <th class="centered" width="25%">Workspace ID</th>
-                        <th class="centered" width="25%">API key</th>
-                        <th class="centered" width="25%">API secret</th>
-                        <th class="centered" width="25%">Data</th>
+                        <th class="centered" width="15%">Workspace ID</th>
+                        <th class="centered" width="40%">Name</th>
+                        <th class="centered" width="15%">API key</th>
+                        <th class="centered" width="15%">API secret</th>
+                        <th class="centered" width="15%">Data</th>
                     </tr>
                     </thead>
                     <c:forEach var="workspace" items="${workspaces}">
                         <tr>
                             <td class="centered">${workspace.id}</td>
+                            <td class="centered"><c:out value="${workspace.name}" /></td>
                             <td class="centered"><c:choose><c:when test="${workspace.key}"><span class="glyphicon glyphicon-ok" aria-hidden="true"></span></c:when><c:otherwise><span class="glyphicon glyphicon-remove" aria-hidden="true"></c:otherwise></c:choose></td>
                             <td class="centered"><c:choose><c:when test="${workspace.secret}"><span class="glyphicon glyphicon-ok" aria-hidden="true"></span></c:when><c:otherwise><span class="glyphicon glyphicon-remove" aria-hidden="true"></c:otherwise></c:choose></td>
                             <td class="centered"><c:choose><c:when test="${workspace.data}"><span class="glyphicon glyphicon-ok" aria-hidden="true"></span></c:when><c:otherwise><span class="glyphicon glyphicon-remove" aria-hidden="true"></c:otherwise></c:choose></td>